@@ -0,0 +1,86 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot;
+
+import com.cloudbees.plugins.credentials.Credentials;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+import io.fabric8.updatebot.Configuration;
+import org.apache.commons.io.output.NullOutputStream;
+import org.jenkinsci.plugins.updatebot.benchmark.JenkinsState;
+import org.jenkinsci.plugins.updatebot.support.PooledConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link UpdateBotPushStepExecution#configureFromGlobalPluginConfiguration(Configuration, PrintStream)}
+ * with many credentials in the system store, both with the current configuration snapshot and with a new one
+ * which has to look the credentials up again
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConfigureBenchmark {
+    @Param({"10", "1000", "10000"})
+    public int credentials;
+
+    private final PrintStream logger = new PrintStream(new NullOutputStream());
+
+    @Setup
+    public void setUp(JenkinsState jenkins) throws Exception {
+        SystemCredentialsProvider provider = SystemCredentialsProvider.getInstance();
+        List<Credentials> list = new ArrayList<>();
+        for (int i = 0; i < credentials; i++) {
+            list.add(new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "github-" + i, "benchmark", "user" + i, "token" + i));
+        }
+        provider.getCredentials().clear();
+        provider.getCredentials().addAll(list);
+        provider.save();
+
+        GlobalPluginConfiguration config = GlobalPluginConfiguration.get();
+        config.setCredentialsId("github-" + (credentials - 1));
+        config.setUseAnsiColor(false);
+        config.refreshSnapshot();
+    }
+
+    @Benchmark
+    public Configuration configure() throws Exception {
+        Configuration configuration = new PooledConfiguration();
+        UpdateBotPushStepExecution.configureFromGlobalPluginConfiguration(configuration, logger);
+        return configuration;
+    }
+
+    @Benchmark
+    public Configuration configureAfterSettingsChange() throws Exception {
+        GlobalPluginConfiguration.get().refreshSnapshot();
+        Configuration configuration = new PooledConfiguration();
+        UpdateBotPushStepExecution.configureFromGlobalPluginConfiguration(configuration, logger);
+        return configuration;
+    }
+}
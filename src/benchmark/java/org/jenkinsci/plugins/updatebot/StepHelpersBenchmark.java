@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Item;
+import hudson.plugins.ansicolor.AnsiHelper;
+import io.fabric8.updatebot.Configuration;
+import jenkins.model.Jenkins;
+import org.apache.commons.io.output.NullOutputStream;
+import org.jenkinsci.plugins.updatebot.benchmark.BenchmarkStepContext;
+import org.jenkinsci.plugins.updatebot.benchmark.JenkinsState;
+import org.jenkinsci.plugins.updatebot.support.JenkinsHelpers;
+import org.jenkinsci.plugins.updatebot.support.PollComplete;
+import org.jenkinsci.plugins.updatebot.support.PooledConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the helpers each step runs: ANSI colouring of the log, creating the items of an import and
+ * completing the step
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StepHelpersBenchmark {
+    private static final byte[] ANSI_LOG = createAnsiLog();
+
+    private final PrintStream logger = new PrintStream(new NullOutputStream());
+    private final List<String> createdItems = new ArrayList<>();
+    private Configuration configuration;
+    private BenchmarkStepContext context;
+    private PollComplete complete;
+    private int itemCount;
+
+    @Setup
+    public void setUp(JenkinsState state) throws Exception {
+        configuration = new PooledConfiguration();
+        configuration.setPrintStream(logger);
+        context = new BenchmarkStepContext(state.getJenkins());
+        complete = PollComplete.success(Arrays.asList("org/repo-1#1", "org/repo-2#2"));
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteItems() throws Exception {
+        Jenkins jenkins = Jenkins.getInstance();
+        for (String name : createdItems) {
+            Item item = jenkins.getItem(name);
+            if (item != null) {
+                item.delete();
+            }
+        }
+        createdItems.clear();
+    }
+
+    /**
+     * Colours 64KB of UpdateBot output
+     */
+    @Benchmark
+    public void ansiStream() throws Exception {
+        try (OutputStream out = AnsiHelper.createAnsiStream(new NullOutputStream())) {
+            out.write(ANSI_LOG);
+        }
+    }
+
+    @Benchmark
+    public void createItem() throws Exception {
+        Jenkins jenkins = Jenkins.getInstance();
+        String name = "benchmark-" + itemCount++;
+        createdItems.add(name);
+        JenkinsHelpers.createItem(configuration, jenkins, name, new FreeStyleProject(jenkins, name), "benchmark project " + name);
+    }
+
+    @Benchmark
+    public long pollCompleteApply() {
+        complete.apply(context, logger);
+        return context.getCompletions();
+    }
+
+    private static byte[] createAnsiLog() {
+        StringBuilder builder = new StringBuilder();
+        int line = 0;
+        while (builder.length() < 64 * 1024) {
+            builder.append("\u001B[1mUpdating\u001B[0m org/repo-").append(line).append(" \u001B[32mio.example:lib\u001B[0m to ")
+                    .append("\u001B[33m1.0.").append(line).append("\u001B[0m\n");
+            line++;
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot;
+
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+import hudson.model.JDK;
+import hudson.tasks.Maven;
+import hudson.tools.ToolProperty;
+import io.fabric8.updatebot.Configuration;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.updatebot.benchmark.BenchmarkStepContext;
+import org.jenkinsci.plugins.updatebot.benchmark.JenkinsState;
+import org.jenkinsci.plugins.updatebot.support.PooledConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the tool resolution of {@link UpdateBotPushStepExecution#configureUpdateBot(Configuration)} with many
+ * Maven and JDK installations configured
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ToolResolutionBenchmark {
+    @Param({"1", "50", "500"})
+    public int installations;
+
+    private UpdateBotPushStepExecution execution;
+
+    @Setup
+    public void setUp(JenkinsState state) throws Exception {
+        Jenkins jenkins = state.getJenkins();
+        Maven.MavenInstallation[] mavens = new Maven.MavenInstallation[installations];
+        JDK[] jdks = new JDK[installations];
+        for (int i = 0; i < installations; i++) {
+            mavens[i] = new Maven.MavenInstallation("maven-" + i, "/opt/maven-" + i, Collections.<ToolProperty<?>>emptyList());
+            jdks[i] = new JDK("jdk-" + i, "/opt/jdk-" + i);
+        }
+        jenkins.getDescriptorByType(Maven.DescriptorImpl.class).setInstallations(mavens);
+        jenkins.getDescriptorByType(JDK.DescriptorImpl.class).setInstallations(jdks);
+
+        SystemCredentialsProvider provider = SystemCredentialsProvider.getInstance();
+        provider.getCredentials().clear();
+        provider.getCredentials().add(new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "github", "benchmark", "user", "token"));
+        provider.save();
+        GlobalPluginConfiguration config = GlobalPluginConfiguration.get();
+        config.setCredentialsId("github");
+        config.setUseAnsiColor(false);
+        config.refreshSnapshot();
+
+        execution = new UpdateBotPushStepExecution(new UpdateBotPushStep(), new BenchmarkStepContext(jenkins));
+    }
+
+    @Benchmark
+    public Configuration configureUpdateBot() throws Exception {
+        Configuration configuration = new PooledConfiguration();
+        execution.configureUpdateBot(configuration, Jenkins.getInstance(), false);
+        return configuration;
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.benchmark;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares the JMH results of a benchmark run with the published baseline and writes a summary next to the results.
+ * <p>
+ * Usage: <code>BenchmarkBaselines results.json baseline.json</code>. The run fails if any benchmark is slower than
+ * its baseline by more than <code>-Dupdatebot.benchmark.tolerancePercent</code> (20 by default). With
+ * <code>-Dupdatebot.benchmark.updateBaseline=true</code> the results become the new baseline instead.
+ * <p>
+ * A baseline score of zero means the benchmark has not been measured on the reference machine yet so it is listed
+ * but not compared. Baseline benchmarks which are missing from the results are listed so that renamed or removed
+ * benchmarks are noticed.
+ */
+public class BenchmarkBaselines {
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: BenchmarkBaselines results.json baseline.json");
+            System.exit(2);
+        }
+        File results = new File(args[0]);
+        File baseline = new File(args[1]);
+        double tolerancePercent = Double.parseDouble(System.getProperty("updatebot.benchmark.tolerancePercent", "20"));
+
+        if (Boolean.getBoolean("updatebot.benchmark.updateBaseline")) {
+            FileUtils.copyFile(results, baseline);
+            System.out.println("Updated the benchmark baseline " + baseline);
+            return;
+        }
+        if (!baseline.isFile()) {
+            System.out.println("No benchmark baseline at " + baseline + " so not comparing; run with -Dupdatebot.benchmark.updateBaseline=true to create it");
+            return;
+        }
+        List<String> regressions = new ArrayList<>();
+        String summary = compare(load(results), load(baseline), tolerancePercent, regressions);
+        File summaryFile = new File(results.getParentFile(), "jmh-comparison.txt");
+        FileUtils.writeStringToFile(summaryFile, summary, StandardCharsets.UTF_8);
+        System.out.println(summary);
+        if (!regressions.isEmpty()) {
+            System.err.println("Benchmarks slower than their baseline by more than " + tolerancePercent + "%: " + regressions);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Returns a summary of the change of each benchmark against its baseline adding the regressions to the list
+     */
+    protected static String compare(Map<String, Score> results, Map<String, Score> baseline, double tolerancePercent, List<String> regressions) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%-90s %14s %14s %9s%n", "Benchmark", "Baseline", "Result", "Change"));
+        for (Map.Entry<String, Score> entry : results.entrySet()) {
+            Score result = entry.getValue();
+            Score base = baseline.get(entry.getKey());
+            if (base == null || base.value == 0) {
+                builder.append(String.format("%-90s %14s %14.3f %9s%n", entry.getKey(), "-", result.value, base == null ? "new" : "unmeasured"));
+                continue;
+            }
+            // positive changes are always worse whether lower or higher scores are better
+            double change = 100.0 * (result.value - base.value) / base.value;
+            if (result.higherIsBetter) {
+                change = -change;
+            }
+            builder.append(String.format("%-90s %14.3f %14.3f %+8.1f%% %s%n", entry.getKey(), base.value, result.value, change, result.unit));
+            if (change > tolerancePercent) {
+                regressions.add(entry.getKey());
+            }
+        }
+        for (String key : baseline.keySet()) {
+            if (!results.containsKey(key)) {
+                builder.append(String.format("%-90s %14s %14s %9s%n", key, "", "-", "missing"));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Loads the primary scores of a JMH JSON result file indexed by benchmark and parameters
+     */
+    protected static Map<String, Score> load(File file) throws IOException {
+        Map<String, Score> answer = new TreeMap<>();
+        JSONArray array = JSONArray.fromObject(FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+        for (int i = 0; i < array.size(); i++) {
+            JSONObject json = array.getJSONObject(i);
+            StringBuilder key = new StringBuilder(json.getString("benchmark"));
+            JSONObject params = json.optJSONObject("params");
+            if (params != null && !params.isNullObject()) {
+                key.append(new TreeMap<>(params));
+            }
+            JSONObject metric = json.getJSONObject("primaryMetric");
+            answer.put(key.toString(), new Score(metric.getDouble("score"), metric.optString("scoreUnit"),
+                    "thrpt".equals(json.optString("mode"))));
+        }
+        return answer;
+    }
+
+    protected static class Score {
+        private final double value;
+        private final String unit;
+        private final boolean higherIsBetter;
+
+        Score(double value, String unit, boolean higherIsBetter) {
+            this.value = value;
+            this.unit = unit;
+            this.higherIsBetter = higherIsBetter;
+        }
+    }
+}
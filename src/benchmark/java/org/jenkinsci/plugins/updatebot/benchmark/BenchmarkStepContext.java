@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.benchmark;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import hudson.EnvVars;
+import hudson.model.Node;
+import hudson.model.Result;
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import org.apache.commons.io.output.NullOutputStream;
+import org.jenkinsci.plugins.workflow.steps.BodyInvoker;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A step context for benchmarks which discards the log and counts the completions of the step
+ */
+public class BenchmarkStepContext extends StepContext {
+    private static final long serialVersionUID = 1L;
+
+    private final transient TaskListener listener = new StreamTaskListener(new NullOutputStream(), StandardCharsets.UTF_8);
+    private final transient Node node;
+    private long completions;
+
+    public BenchmarkStepContext(Node node) {
+        this.node = node;
+    }
+
+    public long getCompletions() {
+        return completions;
+    }
+
+    @Override
+    public <T> T get(Class<T> key) {
+        if (key == TaskListener.class) {
+            return key.cast(listener);
+        }
+        if (key == EnvVars.class) {
+            return key.cast(new EnvVars());
+        }
+        if (key == Node.class) {
+            return key.cast(node);
+        }
+        return null;
+    }
+
+    @Override
+    public void onSuccess(Object result) {
+        completions++;
+    }
+
+    @Override
+    public void onFailure(Throwable t) {
+        completions++;
+    }
+
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    @Override
+    public ListenableFuture<Void> saveState() {
+        return Futures.immediateFuture(null);
+    }
+
+    @Override
+    public void setResult(Result r) {
+    }
+
+    @Override
+    public BodyInvoker newBodyInvoker() {
+        throw new IllegalStateException("no body");
+    }
+
+    @Override
+    public boolean hasBody() {
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.benchmark;
+
+import jenkins.model.Jenkins;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Starts a Jenkins for the benchmarks of a trial, as the step setup path needs the credentials, tools and secrets
+ * of a running Jenkins
+ */
+@State(Scope.Benchmark)
+public class JenkinsState {
+    private JenkinsRule rule;
+
+    @Setup
+    public void startJenkins() throws Throwable {
+        rule = new JenkinsRule();
+        // only to set the description; the rule is started and stopped below rather than by JUnit
+        rule.apply(new Statement() {
+            @Override
+            public void evaluate() {
+            }
+        }, Description.createTestDescription(getClass(), "benchmark"));
+        rule.before();
+    }
+
+    @TearDown
+    public void stopJenkins() throws Exception {
+        if (rule != null) {
+            rule.after();
+        }
+    }
+
+    public JenkinsRule getRule() {
+        return rule;
+    }
+
+    public Jenkins getJenkins() {
+        return rule.jenkins;
+    }
+}
@@ -0,0 +1,438 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot;
+
+import io.fabric8.updatebot.Configuration;
+import io.fabric8.updatebot.commands.CommandContext;
+import io.fabric8.updatebot.commands.PushSourceChanges;
+import io.fabric8.updatebot.repository.LocalRepository;
+import io.fabric8.updatebot.repository.Repositories;
+import org.jenkinsci.plugins.updatebot.support.ChildProcesses;
+import org.jenkinsci.plugins.updatebot.support.ClonelessPush;
+import org.jenkinsci.plugins.updatebot.support.ExecutionBackend;
+import org.jenkinsci.plugins.updatebot.support.ToolCacheLocks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Pushes the source changes skipping the repositories whose circuit is open and recording which repositories
+ * succeeded or failed so that {@link RepositoryCircuitBreakers} can be updated. The circuit of a repository is only
+ * checked once the push is about to update it so that a push never half opens a circuit it does not retry.
+ * Repositories which were never tried because the push was aborted or ran out of time are recorded separately so
+ * that their breakers are not charged.
+ * <p>
+ * A failing repository no longer stops the remaining repositories from being updated; the push still fails once
+ * all of them have been tried. Each repository is cloned and then updated on its own thread within a time budget;
+ * when the budget runs out the git and tool processes started for the push are killed, the thread is interrupted and
+ * the next repository is only started once the thread has stopped.
+ * <p>
+ * In clone-less mode the repositories are split before anything is cloned: the versions of an npm source project
+ * are pushed through the GitHub API via {@link ClonelessPush} to the repositories which do not need npm to be run
+ * and only the others are cloned. When the push is spread across agents the repositories assigned to the other
+ * agents are left out in the same way.
+ * Only depends on serializable state so that it can run on an agent.
+ */
+public class CircuitBreakingPushSourceChanges extends PushSourceChanges {
+    private static final ExecutorService EXECUTOR = ExecutionBackend.get().createUnboundedExecutor("UpdateBot repository");
+    private static final long CANCEL_WAIT_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final String ABORTED = "push aborted";
+
+    private final Gate gate;
+    private final Map<String, Boolean> attempts = new ConcurrentHashMap<>();
+    private final PrintStream logger;
+    private final Budget budget;
+    private final Outcome outcome = new Outcome();
+    private final long deadline;
+    private final boolean useClonelessPush;
+    private volatile List<LocalRepository> repositoriesToClone = new ArrayList<>();
+    private RemoteUpdateBot.RepositoryAssignment assignment;
+    private ToolCacheLocks.Guard toolGuard = ToolCacheLocks.Guard.NONE;
+    private volatile Future<?> current;
+    private volatile String abortReason;
+
+    public CircuitBreakingPushSourceChanges(Gate gate, PrintStream logger, Budget budget, boolean useClonelessPush) {
+        this.gate = gate;
+        this.logger = logger;
+        this.budget = budget;
+        this.useClonelessPush = useClonelessPush;
+        this.deadline = budget.pushTimeoutMinutes > 0
+                ? System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(budget.pushTimeoutMinutes) : Long.MAX_VALUE;
+    }
+
+    /**
+     * Only updates the repositories assigned to this agent when the push is spread across agents
+     */
+    public void setAssignment(RemoteUpdateBot.RepositoryAssignment assignment) {
+        this.assignment = assignment;
+    }
+
+    /**
+     * Sets the locks to hold around each repository update as that is when the tools use the shared caches
+     */
+    public void setToolGuard(ToolCacheLocks.Guard toolGuard) {
+        this.toolGuard = toolGuard != null ? toolGuard : ToolCacheLocks.Guard.NONE;
+    }
+
+    @Override
+    public void run(Configuration configuration) throws IOException {
+        ClonelessPush cloneless = useClonelessPush ? ClonelessPush.fromSource(configuration, logger) : null;
+        List<LocalRepository> repositories = Repositories.findRepositories(this, configuration);
+        if (assignment != null) {
+            List<LocalRepository> assigned = new ArrayList<>();
+            for (LocalRepository repository : repositories) {
+                if (assignment.isAssigned(repository.getFullName())) {
+                    assigned.add(repository);
+                }
+            }
+            logger.println("Updating " + assigned.size() + " of " + repositories.size() + " repositories on " + assignment.getNodeName());
+            repositories = assigned;
+        }
+        repositoriesToClone = cloneless != null ? pushWithoutClone(cloneless, repositories) : repositories;
+        super.run(configuration);
+    }
+
+    /**
+     * Clones or pulls each repository the push may update within its time budget leaving out the repositories
+     * which could not be cloned
+     */
+    @Override
+    protected List<LocalRepository> cloneOrPullRepositories(Configuration configuration) throws IOException {
+        List<LocalRepository> answer = new ArrayList<>();
+        for (final LocalRepository localRepository : repositoriesToClone) {
+            String repository = localRepository.getFullName();
+            if (!mayAttempt(repository)) {
+                continue;
+            }
+            long startTime = System.currentTimeMillis();
+            Boolean cloned = update(repository, new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    cloneOrPull(localRepository);
+                    return Boolean.TRUE;
+                }
+            });
+            if (cloned != null) {
+                outcome.cloned.put(repository, System.currentTimeMillis() - startTime);
+                answer.add(localRepository);
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Clones or pulls the repository as updatebot-core does but runs git with the cookie of the push so that a
+     * clone or pull which hangs is killed when the time budget runs out
+     */
+    protected void cloneOrPull(LocalRepository repository) throws IOException, InterruptedException {
+        File dir = repository.getDir();
+        if (new File(dir, ".git").exists()) {
+            ChildProcesses.run(dir, budget.cookie, logger, "git", "stash");
+            ChildProcesses.run(dir, budget.cookie, logger, "git", "checkout", "master");
+            ChildProcesses.run(dir, budget.cookie, logger, "git", "pull");
+        } else {
+            File parent = dir.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Failed to create directory " + parent);
+            }
+            logger.println("Cloning " + repository.getFullName());
+            ChildProcesses.run(parent, budget.cookie, logger, "git", "clone", repository.getCloneUrl(), dir.getName());
+        }
+    }
+
+    @Override
+    public void run(final CommandContext context) throws IOException {
+        String repository = context.getRepositoryFullName();
+        if (assignment != null && !assignment.isAssigned(repository)) {
+            return;
+        }
+        if (!mayAttempt(repository)) {
+            return;
+        }
+        Boolean updated = update(repository, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return toolGuard.call(context.getDir(), new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        CircuitBreakingPushSourceChanges.super.run(context);
+                        return Boolean.TRUE;
+                    }
+                });
+            }
+        });
+        if (updated != null) {
+            outcome.succeeded.add(repository);
+        }
+    }
+
+    /**
+     * Returns true if the push may update the repository asking the circuit breakers only the first time so that
+     * the decision is taken when the push really tries the repository
+     */
+    protected boolean mayAttempt(String repository) {
+        Boolean answer = attempts.get(repository);
+        if (answer == null) {
+            answer = gate.tryAttempt(repository);
+            attempts.put(repository, answer);
+            if (!answer) {
+                logger.println("Skipping repository " + repository + " as it keeps failing; its circuit can be reset on the Manage Jenkins -> UpdateBot page");
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Pushes to each repository which does not need a clone via the GitHub API
+     *
+     * @return the repositories which still need to be cloned
+     */
+    protected List<LocalRepository> pushWithoutClone(final ClonelessPush cloneless, List<LocalRepository> repositories) {
+        List<LocalRepository> answer = new ArrayList<>();
+        for (LocalRepository localRepository : repositories) {
+            final String repository = localRepository.getFullName();
+            if (!mayAttempt(repository)) {
+                continue;
+            }
+            Boolean pushed = update(repository, new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return cloneless.push(repository, logger);
+                }
+            });
+            if (Boolean.TRUE.equals(pushed)) {
+                outcome.succeeded.add(repository);
+            } else if (Boolean.FALSE.equals(pushed)) {
+                answer.add(localRepository);
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Updates a repository on its own thread within what is left of the time budgets recording any failure
+     *
+     * @return the result of the update or null if it failed or was not attempted
+     */
+    private <T> T update(String repository, final Callable<T> task) {
+        long remaining = deadline - System.currentTimeMillis();
+        String reason = abortReason;
+        if (reason != null || remaining <= 0) {
+            outcome.notAttempted.put(repository, reason != null ? reason : "push timed out after " + budget.pushTimeoutMinutes + " minutes");
+            return null;
+        }
+        long timeout = remaining;
+        boolean repositoryTimeout = false;
+        if (budget.repositoryTimeoutMinutes > 0 && TimeUnit.MINUTES.toMillis(budget.repositoryTimeoutMinutes) < remaining) {
+            timeout = TimeUnit.MINUTES.toMillis(budget.repositoryTimeoutMinutes);
+            repositoryTimeout = true;
+        }
+        final CountDownLatch finished = new CountDownLatch(1);
+        Future<T> future = EXECUTOR.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                try {
+                    return task.call();
+                } finally {
+                    finished.countDown();
+                }
+            }
+        });
+        current = future;
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.println("Timed out updating repository " + repository + " after " + TimeUnit.MILLISECONDS.toMinutes(timeout) + " minutes so killing its processes");
+            abortCurrent();
+            awaitCancelled(repository, finished);
+            if (repositoryTimeout) {
+                outcome.failures.put(repository, "timed out after " + TimeUnit.MILLISECONDS.toMinutes(timeout) + " minutes");
+            } else {
+                // the whole push ran out of time which is not the fault of this repository
+                outcome.notAttempted.put(repository, "push timed out after " + budget.pushTimeoutMinutes + " minutes");
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            logger.println("Failed to update repository " + repository + ": " + cause);
+            outcome.failures.put(repository, String.valueOf(cause));
+        } catch (InterruptedException | CancellationException e) {
+            abort();
+            outcome.notAttempted.put(repository, ABORTED);
+        } finally {
+            current = null;
+        }
+        return null;
+    }
+
+    /**
+     * Waits for the update of a repository which has been cancelled to stop before the next repository is updated
+     * as both share the state of the command and its configuration; if it does not stop in time the remaining
+     * repositories are skipped
+     */
+    private void awaitCancelled(String repository, CountDownLatch finished) {
+        boolean stopped;
+        try {
+            stopped = finished.await(CANCEL_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            abort();
+            return;
+        }
+        if (!stopped) {
+            logger.println("The update of repository " + repository + " did not stop after it was cancelled so skipping the remaining repositories");
+            abortReason = "the update of repository " + repository + " did not stop after it timed out";
+        }
+    }
+
+    /**
+     * Stops updating the current repository and skips the remaining ones
+     */
+    public void abort() {
+        abortReason = ABORTED;
+        abortCurrent();
+    }
+
+    private void abortCurrent() {
+        try {
+            ChildProcesses.killAll(budget.cookie);
+        } catch (IOException | InterruptedException e) {
+            logger.println("Failed to kill the processes of the push: " + e);
+        }
+        Future<?> future = current;
+        if (future != null) {
+            future.cancel(true);
+        }
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * Decides whether a push may update a repository
+     */
+    public interface Gate {
+        /**
+         * Returns true if the repository may be updated now; only called once the push is about to update it
+         */
+        boolean tryAttempt(String repository);
+    }
+
+    /**
+     * The time budgets of a push and the cookie identifying its tool processes
+     */
+    public static class Budget implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int repositoryTimeoutMinutes;
+        private final int pushTimeoutMinutes;
+        private final String cookie;
+
+        public Budget(int repositoryTimeoutMinutes, int pushTimeoutMinutes, String cookie) {
+            this.repositoryTimeoutMinutes = repositoryTimeoutMinutes;
+            this.pushTimeoutMinutes = pushTimeoutMinutes;
+            this.cookie = cookie;
+        }
+
+        public String getCookie() {
+            return cookie;
+        }
+    }
+
+    /**
+     * Which repositories of a push succeeded, failed or were not attempted
+     */
+    public static class Outcome implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final TreeMap<String, Long> cloned = new TreeMap<>();
+        private final HashSet<String> succeeded = new HashSet<>();
+        private final TreeMap<String, String> failures = new TreeMap<>();
+        private final TreeMap<String, String> notAttempted = new TreeMap<>();
+
+        /**
+         * Returns how long it took to clone or pull each repository which was cloned or pulled
+         */
+        public Map<String, Long> getCloned() {
+            return cloned;
+        }
+
+        public Set<String> getSucceeded() {
+            return succeeded;
+        }
+
+        /**
+         * Returns the error of each repository which failed
+         */
+        public Map<String, String> getFailures() {
+            return failures;
+        }
+
+        /**
+         * Returns why each repository which was not tried because the push was aborted or timed out was not tried
+         */
+        public Map<String, String> getNotAttempted() {
+            return notAttempted;
+        }
+
+        /**
+         * Adds the results of the repositories another agent updated
+         */
+        public void merge(Outcome other) {
+            cloned.putAll(other.cloned);
+            succeeded.addAll(other.succeeded);
+            failures.putAll(other.failures);
+            notAttempted.putAll(other.notAttempted);
+        }
+
+        /**
+         * Returns true if every repository which was not skipped has been updated
+         */
+        public boolean isSucceeded() {
+            return failures.isEmpty() && notAttempted.isEmpty();
+        }
+
+        /**
+         * Throws an exception if any repository failed or was not attempted
+         */
+        public void checkSucceeded() throws IOException {
+            if (!failures.isEmpty()) {
+                throw new IOException("Failed to update repositories " + failures.keySet() + ": " + failures.values());
+            }
+            if (!notAttempted.isEmpty()) {
+                throw new IOException("Did not update repositories " + notAttempted.keySet() + ": " + new TreeSet<>(notAttempted.values()));
+            }
+        }
+    }
+}
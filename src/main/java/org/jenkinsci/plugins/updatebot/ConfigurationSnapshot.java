@@ -0,0 +1,232 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot;
+
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import io.fabric8.utils.Strings;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The global UpdateBot settings compiled into an immutable value when the configuration is saved so that each
+ * step only copies a few fields rather than parsing the settings and looking up credentials again.
+ * <p>
+ * The only mutable state is the memo of the credentials looked up by id. Credentials may come from any store or
+ * provider, many of which cannot be listened to, so each lookup is only remembered for {@link #CREDENTIALS_TTL_MS};
+ * a new snapshot is also created whenever the global configuration or the system credentials are saved.
+ */
+public final class ConfigurationSnapshot {
+    /**
+     * How long a credentials lookup is reused for before the credentials are looked up again
+     */
+    public static final long CREDENTIALS_TTL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    private final long version = VERSIONS.incrementAndGet();
+    private final boolean useAnsiColor;
+    private final String jenkinsfileGitRepo;
+    private final List<String> pooledCredentialsIds;
+    private final Map<String, String> organisationCredentialsIds;
+    private final String githubAppId;
+    private final String githubAppPrivateKeyCredentialsId;
+    private final boolean useMavenDaemon;
+    private final String mavenDaemonHome;
+    private final int mavenDaemonIdleTimeoutMinutes;
+    private final boolean npmPreferOffline;
+    private final boolean useSharedToolCaches;
+    private final int maxConcurrentToolRuns;
+    private final int repositoryTimeoutMinutes;
+    private final int pushTimeoutMinutes;
+    private final long maxWorkDirBytes;
+    private final boolean useClonelessPush;
+    private final boolean useEventLog;
+    private final int maxEventLogSizeMB;
+    private final Map<String, CredentialsLookup> credentials = new ConcurrentHashMap<>();
+
+    ConfigurationSnapshot(GlobalPluginConfiguration config) {
+        this.useAnsiColor = config.isUseAnsiColor();
+        this.jenkinsfileGitRepo = config.getJenkinsfileLibraryGitCloneURL();
+        this.pooledCredentialsIds = Collections.unmodifiableList(config.getPooledCredentialsIds());
+        this.organisationCredentialsIds = Collections.unmodifiableMap(new HashMap<>(config.getOrganisationCredentialsIds()));
+        this.githubAppId = config.isGithubAppConfigured() ? config.getGithubAppId() : null;
+        this.githubAppPrivateKeyCredentialsId = config.getGithubAppPrivateKeyCredentialsId();
+        this.useMavenDaemon = config.isUseMavenDaemon();
+        this.mavenDaemonHome = config.getMavenDaemonHome();
+        this.mavenDaemonIdleTimeoutMinutes = config.getMavenDaemonIdleTimeoutMinutes();
+        this.npmPreferOffline = config.isNpmPreferOffline();
+        this.useSharedToolCaches = config.isUseSharedToolCaches();
+        this.maxConcurrentToolRuns = Math.max(0, config.getMaxConcurrentToolRuns());
+        this.repositoryTimeoutMinutes = config.getRepositoryTimeoutMinutes();
+        this.pushTimeoutMinutes = config.getPushTimeoutMinutes();
+        this.maxWorkDirBytes = Math.max(0, config.getMaxWorkDirSizeMB()) * 1024L * 1024L;
+        this.useClonelessPush = config.isUseClonelessPush();
+        this.useEventLog = config.isUseEventLog();
+        this.maxEventLogSizeMB = Math.max(1, config.getMaxEventLogSizeMB());
+    }
+
+    /**
+     * Returns the current snapshot of the global configuration
+     */
+    public static ConfigurationSnapshot get() {
+        return GlobalPluginConfiguration.get().getSnapshot();
+    }
+
+    /**
+     * Returns the version of this snapshot which increases each time the settings change
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isUseAnsiColor() {
+        return useAnsiColor;
+    }
+
+    public String getJenkinsfileGitRepo() {
+        return jenkinsfileGitRepo;
+    }
+
+    public boolean hasJenkinsfileGitRepo() {
+        return Strings.notEmpty(jenkinsfileGitRepo);
+    }
+
+    public List<String> getPooledCredentialsIds() {
+        return pooledCredentialsIds;
+    }
+
+    public Map<String, String> getOrganisationCredentialsIds() {
+        return organisationCredentialsIds;
+    }
+
+    public boolean isGithubAppConfigured() {
+        return githubAppId != null;
+    }
+
+    public String getGithubAppId() {
+        return githubAppId;
+    }
+
+    public String getGithubAppPrivateKeyCredentialsId() {
+        return githubAppPrivateKeyCredentialsId;
+    }
+
+    public boolean isUseMavenDaemon() {
+        return useMavenDaemon;
+    }
+
+    public String getMavenDaemonHome() {
+        return mavenDaemonHome;
+    }
+
+    public int getMavenDaemonIdleTimeoutMinutes() {
+        return mavenDaemonIdleTimeoutMinutes;
+    }
+
+    public boolean isNpmPreferOffline() {
+        return npmPreferOffline;
+    }
+
+    public boolean isUseSharedToolCaches() {
+        return useSharedToolCaches;
+    }
+
+    public int getMaxConcurrentToolRuns() {
+        return maxConcurrentToolRuns;
+    }
+
+    public int getRepositoryTimeoutMinutes() {
+        return repositoryTimeoutMinutes;
+    }
+
+    public int getPushTimeoutMinutes() {
+        return pushTimeoutMinutes;
+    }
+
+    public long getMaxWorkDirBytes() {
+        return maxWorkDirBytes;
+    }
+
+    public boolean isUseClonelessPush() {
+        return useClonelessPush;
+    }
+
+    public boolean isUseEventLog() {
+        return useEventLog;
+    }
+
+    public int getMaxEventLogSizeMB() {
+        return maxEventLogSizeMB;
+    }
+
+    /**
+     * Returns the github credentials for the given id reusing a lookup made within the last
+     * {@link #CREDENTIALS_TTL_MS} or null if they could not be found
+     */
+    public StandardUsernameCredentials lookupGithubCredentials(String credentialsId) {
+        long now = System.currentTimeMillis();
+        CredentialsLookup lookup = credentials.get(credentialsId);
+        if (lookup != null && lookup.expires > now) {
+            return lookup.credentials;
+        }
+        StandardUsernameCredentials answer = UpdateBotPushStepExecution.lookupGithubCredentials(credentialsId);
+        if (answer != null) {
+            credentials.put(credentialsId, new CredentialsLookup(answer, now + CREDENTIALS_TTL_MS));
+        } else {
+            credentials.remove(credentialsId);
+        }
+        return answer;
+    }
+
+    private static class CredentialsLookup {
+        private final StandardUsernameCredentials credentials;
+        private final long expires;
+
+        CredentialsLookup(StandardUsernameCredentials credentials, long expires) {
+            this.credentials = credentials;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Creates a new snapshot as soon as the system credentials are saved rather than waiting for the lookups
+     * to expire
+     */
+    @Extension
+    public static class CredentialsListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof SystemCredentialsProvider) {
+                GlobalPluginConfiguration config = GlobalPluginConfiguration.get();
+                if (config != null) {
+                    config.refreshSnapshot();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot;
+
+import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
+import com.cloudbees.plugins.credentials.CredentialsMatchers;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
+import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Item;
+import hudson.security.ACL;
+import io.fabric8.updatebot.Configuration;
+import io.fabric8.utils.Strings;
+import org.jenkinsci.plugins.updatebot.support.GitHubAppHelpers;
+import org.jenkinsci.plugins.updatebot.support.GitHubClients;
+import org.jenkinsci.plugins.updatebot.support.GitHubHelpers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.jenkinsci.plugins.updatebot.UpdateBotPushStepExecution.githubDomainRequirements;
+
+/**
+ * Chooses which GitHub identity UpdateBot uses so that the API rate limit is spread across several identities.
+ * <p>
+ * For a known organisation a GitHub App installation token is used if a GitHub App is configured, then any credentials
+ * configured for that organisation. Otherwise the pooled credentials with the most remaining API calls are used,
+ * going round robin between credentials whose quotas are within {@link #QUOTA_TIE_CALLS} calls of each other. The
+ * quotas are updated from the rate limit GitHub reports in each response.
+ * <p>
+ * Installation tokens only last an hour so configurations which are used for longer, such as while polling pull
+ * requests, should be passed to {@link #refresh(Configuration)} before each poll.
+ */
+@Extension
+public class GitHubCredentialsPool {
+    private static final transient Logger LOG = LoggerFactory.getLogger(GitHubCredentialsPool.class);
+    private static final long QUOTA_CHECK_PERIOD_MS = 60000L;
+    /**
+     * Quotas which differ by less than this are treated as equal so that the credentials are used in turn
+     */
+    public static final int QUOTA_TIE_CALLS = 100;
+    private static final long TOKEN_REFRESH_MARGIN_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final String INSTALLATION_TOKEN_USERNAME = "x-access-token";
+    private static final int MAX_TOKENS = 10000;
+
+    private final Map<String, Quota> quotas = new ConcurrentHashMap<>();
+    private final Map<String, GitHubAppHelpers.InstallationToken> installationTokens = new ConcurrentHashMap<>();
+    /**
+     * The organisation of each installation token which has been handed out indexed by the token
+     */
+    private final Map<String, String> tokenOrganisations = new ConcurrentHashMap<>();
+    private final AtomicInteger roundRobin = new AtomicInteger();
+
+    public static GitHubCredentialsPool get() {
+        return ExtensionList.lookup(GitHubCredentialsPool.class).get(0);
+    }
+
+    /**
+     * Returns the credentials to use for the given organisation which may be null if it is not known
+     */
+    public UsernamePasswordCredentials select(Configuration configuration, String organisation) throws IOException {
+        ConfigurationSnapshot config = ConfigurationSnapshot.get();
+        if (Strings.notEmpty(organisation)) {
+            if (config.isGithubAppConfigured()) {
+                try {
+                    return getInstallationCredentials(config, organisation);
+                } catch (IOException e) {
+                    configuration.warn(LOG, "Failed to get a GitHub App installation token for " + organisation + " so using the credentials pool: " + e, e);
+                }
+            }
+            String credentialsId = config.getOrganisationCredentialsIds().get(organisation);
+            if (Strings.notEmpty(credentialsId)) {
+                return lookupUsernamePasswordCredentials(config, configuration, credentialsId);
+            }
+        }
+        List<String> credentialsIds = config.getPooledCredentialsIds();
+        if (credentialsIds.isEmpty()) {
+            throw new IOException("No credentials configured for the UpdateBot plugin! Please update the configuration on the Manage Jenkins page!");
+        }
+        if (credentialsIds.size() == 1) {
+            return lookupUsernamePasswordCredentials(config, configuration, credentialsIds.get(0));
+        }
+        int size = credentialsIds.size();
+        int start = Math.abs(roundRobin.getAndIncrement() % size);
+        UsernamePasswordCredentials answer = null;
+        int answerRemaining = Integer.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            String credentialsId = credentialsIds.get((start + i) % size);
+            UsernamePasswordCredentials credentials = lookupUsernamePasswordCredentials(config, configuration, credentialsId);
+            int remaining = getRemainingApiCalls(credentialsId, credentials);
+            // the first credentials in turn win unless another has clearly more calls left
+            if (answer == null || remaining >= answerRemaining + QUOTA_TIE_CALLS) {
+                answer = credentials;
+                answerRemaining = remaining;
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Renews the GitHub App installation token of the configuration if it is about to expire; other credentials do
+     * not expire so are left as they are
+     */
+    public void refresh(Configuration configuration) throws IOException {
+        if (!INSTALLATION_TOKEN_USERNAME.equals(configuration.getGithubUsername())) {
+            return;
+        }
+        String organisation = tokenOrganisations.get(String.valueOf(configuration.getGithubPassword()));
+        if (organisation == null) {
+            return;
+        }
+        UsernamePasswordCredentials credentials = getInstallationCredentials(ConfigurationSnapshot.get(), organisation);
+        configuration.setGithubPassword(credentials.getPassword().getPlainText());
+    }
+
+    protected UsernamePasswordCredentials lookupUsernamePasswordCredentials(ConfigurationSnapshot config, Configuration configuration, String credentialsId) throws IOException {
+        StandardUsernameCredentials credentials = null;
+        try {
+            credentials = config.lookupGithubCredentials(credentialsId);
+        } catch (Exception e) {
+            configuration.error(LOG, "looking up credentials: " + e, e);
+        }
+        if (credentials == null) {
+            throw new IOException("Could not find the credentials " + credentialsId + ". Please check the UpdateBot configuration on the Manage Jenkins page!");
+        }
+        if (credentials instanceof UsernamePasswordCredentials) {
+            return (UsernamePasswordCredentials) credentials;
+        } else {
+            throw new IOException("The chosen credential " + credentialsId + " has no username and password! Please choose another credential on the UpdateBot section of the Manage Jenkins page!");
+        }
+    }
+
+    /**
+     * Returns the last known number of remaining API calls for the credentials taken from the latest GitHub response
+     * made with them, querying the rate limit if there has been none for a while
+     */
+    protected int getRemainingApiCalls(String credentialsId, UsernamePasswordCredentials credentials) {
+        long now = System.currentTimeMillis();
+        Quota quota = quotas.get(credentialsId);
+        GitHubClients.RateLimit rateLimit = GitHubClients.get().getRateLimit(credentials.getUsername(), credentials.getPassword().getPlainText());
+        if (rateLimit != null && (quota == null || rateLimit.getTime() > quota.checkedAt)) {
+            quota = new Quota(rateLimit.getRemaining(), rateLimit.getTime());
+            quotas.put(credentialsId, quota);
+        }
+        if (quota == null || now - quota.checkedAt > QUOTA_CHECK_PERIOD_MS) {
+            int remaining = -1;
+            try {
+                remaining = GitHubHelpers.getRemainingApiCalls(credentials);
+            } catch (IOException e) {
+                LOG.warn("Failed to query the GitHub rate limit of credentials " + credentialsId + ": " + e, e);
+            }
+            quota = new Quota(remaining, now);
+            quotas.put(credentialsId, quota);
+        }
+        return quota.remaining;
+    }
+
+    /**
+     * Returns credentials using a cached installation token for the GitHub App on the organisation,
+     * creating a new token if there is none or it is about to expire
+     */
+    protected UsernamePasswordCredentials getInstallationCredentials(ConfigurationSnapshot config, String organisation) throws IOException {
+        String appId = config.getGithubAppId();
+        String key = appId + "/" + organisation;
+        GitHubAppHelpers.InstallationToken token = installationTokens.get(key);
+        if (token == null || token.getExpiresAt() - System.currentTimeMillis() < TOKEN_REFRESH_MARGIN_MS) {
+            String jwt = GitHubAppHelpers.createJwt(appId, lookupGithubAppPrivateKey(config.getGithubAppPrivateKeyCredentialsId()));
+            long installationId = GitHubAppHelpers.getOrganisationInstallationId(jwt, organisation);
+            GitHubAppHelpers.InstallationToken oldToken = token;
+            token = GitHubAppHelpers.createInstallationToken(jwt, installationId);
+            installationTokens.put(key, token);
+            if (tokenOrganisations.size() >= MAX_TOKENS) {
+                tokenOrganisations.clear();
+            }
+            // old tokens are kept so that configurations still using one can be refreshed
+            tokenOrganisations.put(token.getToken(), organisation);
+            if (oldToken != null) {
+                GitHubClients.get().renewPassword(INSTALLATION_TOKEN_USERNAME, oldToken.getToken(), token.getToken());
+            }
+        }
+        return new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, key, "GitHub App installation token for " + organisation,
+                INSTALLATION_TOKEN_USERNAME, token.getToken());
+    }
+
+    protected String lookupGithubAppPrivateKey(String credentialsId) throws IOException {
+        SSHUserPrivateKey credentials = CredentialsMatchers.firstOrNull(
+                CredentialsProvider.lookupCredentials(
+                        SSHUserPrivateKey.class,
+                        (Item) null,
+                        ACL.SYSTEM,
+                        githubDomainRequirements("")
+                ),
+                CredentialsMatchers.withId(credentialsId)
+        );
+        if (credentials == null || credentials.getPrivateKeys().isEmpty()) {
+            throw new IOException("Could not find the GitHub App private key credentials " + credentialsId + ". Please check the UpdateBot configuration on the Manage Jenkins page!");
+        }
+        return credentials.getPrivateKeys().get(0);
+    }
+
+    private static class Quota {
+        private final int remaining;
+        private final long checkedAt;
+
+        Quota(int remaining, long checkedAt) {
+            this.remaining = remaining;
+            this.checkedAt = checkedAt;
+        }
+    }
+}
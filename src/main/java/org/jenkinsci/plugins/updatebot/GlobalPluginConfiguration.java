@@ -15,6 +15,7 @@
  */
 package org.jenkinsci.plugins.updatebot;
 
+import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
 import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
 import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
@@ -25,22 +26,58 @@ import hudson.model.queue.Tasks;
 import hudson.security.ACL;
 import hudson.util.ListBoxModel;
 import io.fabric8.updatebot.Configuration;
+import io.fabric8.utils.Strings;
 import jenkins.model.GlobalConfiguration;
 import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.updatebot.support.RepositoryConfigCache;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import static org.jenkinsci.plugins.updatebot.UpdateBotPushStepExecution.githubDomainRequirements;
 import static org.jenkinsci.plugins.updatebot.UpdateBotPushStepExecution.githubScanCredentialsMatcher;
 
 @Extension
 public class GlobalPluginConfiguration extends GlobalConfiguration {
     private String credentialsId;
+    private String additionalCredentialsIds;
+    private String githubAppId;
+    private String githubAppPrivateKeyCredentialsId;
     private boolean useAnsiColor = true;
     private String jenkinsfileLibraryGitCloneURL = Configuration.DEFAULT_JENKINSFILE_LIBRARY_GIT_URL;
+    private boolean useOrganisationFolders;
+    private boolean useMavenDaemon;
+    private String mavenDaemonHome;
+    private int mavenDaemonIdleTimeoutMinutes = 30;
+    private boolean npmPreferOffline;
+    private boolean useSharedToolCaches = true;
+    private int maxToolCacheSizeMB = 10240;
+    private int maxToolCacheAgeDays = 30;
+    private int maxConcurrentToolRuns = 4;
+    private int scanQuietPeriodSeconds = 30;
+    private int maxConcurrentScans = 4;
+    private int minScanIntervalSeconds = 5;
+    private int minRemainingApiCalls = 500;
+    private int maxConcurrentPushes = 4;
+    private int circuitBreakerFailures = 3;
+    private int circuitBreakerRetryMinutes = 60;
+    private int repositoryTimeoutMinutes = 30;
+    private int pushTimeoutMinutes = 120;
+    private int maxConcurrentPolls;
+    private int maxConcurrentRebasePolls = 2;
+    private int configCacheTtlMinutes = 5;
+    private int maxWorkDirSizeMB = 20480;
+    private boolean useClonelessPush;
+    private boolean useEventLog = true;
+    private int maxEventLogSizeMB = 100;
+    private transient volatile ConfigurationSnapshot snapshot;
 
     @DataBoundConstructor
     public GlobalPluginConfiguration(String credentialsId) {
@@ -79,6 +116,84 @@ public class GlobalPluginConfiguration extends GlobalConfiguration {
         this.credentialsId = credentialsId;
     }
 
+    /**
+     * Returns the additional credentials ids, one per line. A line of the form <code>organisation=credentialsId</code>
+     * uses those credentials for that organisation only, otherwise the credentials are added to the pool
+     */
+    public String getAdditionalCredentialsIds() {
+        return additionalCredentialsIds;
+    }
+
+    public void setAdditionalCredentialsIds(String additionalCredentialsIds) {
+        this.additionalCredentialsIds = additionalCredentialsIds;
+    }
+
+    /**
+     * Returns the ids of the credentials which are shared between all organisations
+     */
+    public List<String> getPooledCredentialsIds() {
+        List<String> answer = new ArrayList<>();
+        if (Strings.notEmpty(credentialsId)) {
+            answer.add(credentialsId);
+        }
+        for (String line : additionalCredentialsIdLines()) {
+            if (!line.contains("=") && !answer.contains(line)) {
+                answer.add(line);
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Returns the ids of the credentials to use for specific organisations indexed by organisation
+     */
+    public Map<String, String> getOrganisationCredentialsIds() {
+        Map<String, String> answer = new HashMap<>();
+        for (String line : additionalCredentialsIdLines()) {
+            String[] values = line.split("=", 2);
+            if (values.length == 2 && Strings.notEmpty(values[0].trim()) && Strings.notEmpty(values[1].trim())) {
+                answer.put(values[0].trim(), values[1].trim());
+            }
+        }
+        return answer;
+    }
+
+    private List<String> additionalCredentialsIdLines() {
+        List<String> answer = new ArrayList<>();
+        if (Strings.notEmpty(additionalCredentialsIds)) {
+            for (String line : additionalCredentialsIds.split("\\r?\\n")) {
+                line = line.trim();
+                if (Strings.notEmpty(line)) {
+                    answer.add(line);
+                }
+            }
+        }
+        return answer;
+    }
+
+    public String getGithubAppId() {
+        return githubAppId;
+    }
+
+    public void setGithubAppId(String githubAppId) {
+        this.githubAppId = githubAppId;
+    }
+
+    public String getGithubAppPrivateKeyCredentialsId() {
+        return githubAppPrivateKeyCredentialsId;
+    }
+
+    public void setGithubAppPrivateKeyCredentialsId(String githubAppPrivateKeyCredentialsId) {
+        this.githubAppPrivateKeyCredentialsId = githubAppPrivateKeyCredentialsId;
+    }
+
+    /**
+     * Returns true if a GitHub App is configured to create installation tokens for each organisation
+     */
+    public boolean isGithubAppConfigured() {
+        return Strings.notEmpty(githubAppId) && Strings.notEmpty(githubAppPrivateKeyCredentialsId);
+    }
+
     public String getJenkinsfileLibraryGitCloneURL() {
         return jenkinsfileLibraryGitCloneURL;
     }
@@ -87,7 +202,310 @@ public class GlobalPluginConfiguration extends GlobalConfiguration {
         this.jenkinsfileLibraryGitCloneURL = jenkinsfileLibraryGitCloneURL;
     }
 
+    /**
+     * Returns true if imported repositories should be added to the repository filter of a single GitHub organisation
+     * folder per organisation rather than each getting their own multi-branch project
+     */
+    public boolean isUseOrganisationFolders() {
+        return useOrganisationFolders;
+    }
+
+    public void setUseOrganisationFolders(boolean useOrganisationFolders) {
+        this.useOrganisationFolders = useOrganisationFolders;
+    }
+
+    /**
+     * Returns true if maven projects should be updated via long lived Maven Daemon (mvnd) processes
+     * rather than starting a new JVM for each project
+     */
+    public boolean isUseMavenDaemon() {
+        return useMavenDaemon;
+    }
+
+    public void setUseMavenDaemon(boolean useMavenDaemon) {
+        this.useMavenDaemon = useMavenDaemon;
+    }
+
+    /**
+     * Returns the directory the Maven Daemon is installed in
+     */
+    public String getMavenDaemonHome() {
+        return mavenDaemonHome;
+    }
+
+    public void setMavenDaemonHome(String mavenDaemonHome) {
+        this.mavenDaemonHome = mavenDaemonHome;
+    }
+
+    /**
+     * Returns the number of minutes after which an idle Maven Daemon is stopped
+     */
+    public int getMavenDaemonIdleTimeoutMinutes() {
+        return mavenDaemonIdleTimeoutMinutes;
+    }
+
+    public void setMavenDaemonIdleTimeoutMinutes(int mavenDaemonIdleTimeoutMinutes) {
+        this.mavenDaemonIdleTimeoutMinutes = mavenDaemonIdleTimeoutMinutes;
+    }
+
+    /**
+     * Returns true if npm should prefer its cached package metadata to avoid resolving every package for each project
+     */
+    public boolean isNpmPreferOffline() {
+        return npmPreferOffline;
+    }
+
+    public void setNpmPreferOffline(boolean npmPreferOffline) {
+        this.npmPreferOffline = npmPreferOffline;
+    }
+
+    /**
+     * Returns true if maven and npm should use the local repository and cache managed by UpdateBot
+     * under <code>JENKINS_HOME/updatebot/caches</code>
+     */
+    public boolean isUseSharedToolCaches() {
+        return useSharedToolCaches;
+    }
+
+    public void setUseSharedToolCaches(boolean useSharedToolCaches) {
+        this.useSharedToolCaches = useSharedToolCaches;
+    }
+
+    /**
+     * Returns the total size in megabytes above which the least recently modified cache entries are evicted
+     */
+    public int getMaxToolCacheSizeMB() {
+        return maxToolCacheSizeMB;
+    }
+
+    public void setMaxToolCacheSizeMB(int maxToolCacheSizeMB) {
+        this.maxToolCacheSizeMB = maxToolCacheSizeMB;
+    }
+
+    /**
+     * Returns the number of days after which unmodified cache entries are evicted
+     */
+    public int getMaxToolCacheAgeDays() {
+        return maxToolCacheAgeDays;
+    }
+
+    public void setMaxToolCacheAgeDays(int maxToolCacheAgeDays) {
+        this.maxToolCacheAgeDays = maxToolCacheAgeDays;
+    }
+
+    /**
+     * Returns the maximum number of repository updates and polls which may run maven or npm at once on each node
+     * or zero for no limit
+     */
+    public int getMaxConcurrentToolRuns() {
+        return maxConcurrentToolRuns;
+    }
+
+    public void setMaxConcurrentToolRuns(int maxConcurrentToolRuns) {
+        this.maxConcurrentToolRuns = maxConcurrentToolRuns;
+    }
+
+    /**
+     * Returns the number of seconds an imported project must be left alone before its branch scan is triggered
+     */
+    public int getScanQuietPeriodSeconds() {
+        return scanQuietPeriodSeconds;
+    }
+
+    public void setScanQuietPeriodSeconds(int scanQuietPeriodSeconds) {
+        this.scanQuietPeriodSeconds = scanQuietPeriodSeconds;
+    }
+
+    /**
+     * Returns the maximum number of branch scans triggered by imports which can run at once
+     */
+    public int getMaxConcurrentScans() {
+        return maxConcurrentScans;
+    }
+
+    public void setMaxConcurrentScans(int maxConcurrentScans) {
+        this.maxConcurrentScans = maxConcurrentScans;
+    }
+
+    /**
+     * Returns the minimum number of seconds between triggering two branch scans
+     */
+    public int getMinScanIntervalSeconds() {
+        return minScanIntervalSeconds;
+    }
+
+    public void setMinScanIntervalSeconds(int minScanIntervalSeconds) {
+        this.minScanIntervalSeconds = minScanIntervalSeconds;
+    }
+
+    /**
+     * Returns the number of remaining GitHub API calls below which branch scans are held back
+     */
+    public int getMinRemainingApiCalls() {
+        return minRemainingApiCalls;
+    }
+
+    public void setMinRemainingApiCalls(int minRemainingApiCalls) {
+        this.minRemainingApiCalls = minRemainingApiCalls;
+    }
+
+    /**
+     * Returns the maximum number of pushes which can clone and update downstream repositories at once
+     * or zero for no limit
+     */
+    public int getMaxConcurrentPushes() {
+        return maxConcurrentPushes;
+    }
+
+    public void setMaxConcurrentPushes(int maxConcurrentPushes) {
+        this.maxConcurrentPushes = maxConcurrentPushes;
+    }
+
+    /**
+     * Returns the number of consecutive failures after which pushes skip a downstream repository
+     * or zero to never skip repositories
+     */
+    public int getCircuitBreakerFailures() {
+        return circuitBreakerFailures;
+    }
+
+    public void setCircuitBreakerFailures(int circuitBreakerFailures) {
+        this.circuitBreakerFailures = circuitBreakerFailures;
+    }
+
+    /**
+     * Returns the number of minutes after which a skipped downstream repository is tried again
+     */
+    public int getCircuitBreakerRetryMinutes() {
+        return circuitBreakerRetryMinutes;
+    }
+
+    public void setCircuitBreakerRetryMinutes(int circuitBreakerRetryMinutes) {
+        this.circuitBreakerRetryMinutes = circuitBreakerRetryMinutes;
+    }
+
+    /**
+     * Returns the number of minutes a push may spend updating a single downstream repository or zero for no limit
+     */
+    public int getRepositoryTimeoutMinutes() {
+        return repositoryTimeoutMinutes;
+    }
+
+    public void setRepositoryTimeoutMinutes(int repositoryTimeoutMinutes) {
+        this.repositoryTimeoutMinutes = repositoryTimeoutMinutes;
+    }
+
+    /**
+     * Returns the number of minutes a push may spend updating all of its downstream repositories or zero for no limit
+     */
+    public int getPushTimeoutMinutes() {
+        return pushTimeoutMinutes;
+    }
+
+    public void setPushTimeoutMinutes(int pushTimeoutMinutes) {
+        this.pushTimeoutMinutes = pushTimeoutMinutes;
+    }
+
+    /**
+     * Returns the maximum number of polls of pending pull requests, which may rebase them, that can run at once
+     * or 0 to use as many as the Jenkins timer has threads
+     */
+    public int getMaxConcurrentPolls() {
+        return maxConcurrentPolls;
+    }
+
+    public void setMaxConcurrentPolls(int maxConcurrentPolls) {
+        this.maxConcurrentPolls = maxConcurrentPolls;
+    }
+
+    /**
+     * Returns the maximum number of polls which are rebasing pull requests at once or zero to use the maximum
+     * number of polls
+     */
+    public int getMaxConcurrentRebasePolls() {
+        return maxConcurrentRebasePolls;
+    }
+
+    public void setMaxConcurrentRebasePolls(int maxConcurrentRebasePolls) {
+        this.maxConcurrentRebasePolls = maxConcurrentRebasePolls;
+    }
+
+    /**
+     * Returns how many minutes resolved UpdateBot configurations are cached for or zero to not cache them
+     */
+    public int getConfigCacheTtlMinutes() {
+        return configCacheTtlMinutes;
+    }
+
+    public void setConfigCacheTtlMinutes(int configCacheTtlMinutes) {
+        this.configCacheTtlMinutes = configCacheTtlMinutes;
+    }
+
+    /**
+     * Returns the maximum size of the directories downstream repositories are cloned into on each node
+     */
+    public int getMaxWorkDirSizeMB() {
+        return maxWorkDirSizeMB;
+    }
+
+    public void setMaxWorkDirSizeMB(int maxWorkDirSizeMB) {
+        this.maxWorkDirSizeMB = maxWorkDirSizeMB;
+    }
+
+    /**
+     * Returns true if npm versions are pushed through the GitHub API to repositories which do not need npm to be run
+     * rather than cloning them
+     */
+    public boolean isUseClonelessPush() {
+        return useClonelessPush;
+    }
+
+    public void setUseClonelessPush(boolean useClonelessPush) {
+        this.useClonelessPush = useClonelessPush;
+    }
+
+    /**
+     * Returns true if lifecycle events are written to the UpdateBot event log
+     */
+    public boolean isUseEventLog() {
+        return useEventLog;
+    }
+
+    public void setUseEventLog(boolean useEventLog) {
+        this.useEventLog = useEventLog;
+    }
+
+    /**
+     * Returns the maximum total size of the current and rotated event log files
+     */
+    public int getMaxEventLogSizeMB() {
+        return maxEventLogSizeMB;
+    }
+
+    public void setMaxEventLogSizeMB(int maxEventLogSizeMB) {
+        this.maxEventLogSizeMB = maxEventLogSizeMB;
+    }
+
+    /**
+     * Returns the immutable snapshot of these settings which is rebuilt each time they are saved
+     */
+    public ConfigurationSnapshot getSnapshot() {
+        ConfigurationSnapshot answer = snapshot;
+        if (answer == null) {
+            answer = refreshSnapshot();
+        }
+        return answer;
+    }
+
+    ConfigurationSnapshot refreshSnapshot() {
+        ConfigurationSnapshot answer = new ConfigurationSnapshot(this);
+        snapshot = answer;
+        return answer;
+    }
+
     private void configChange() {
+        RepositoryConfigCache.get().setTtlMinutes(configCacheTtlMinutes);
+        refreshSnapshot();
     }
 
     public ListBoxModel doFillCredentialsIdItems(@CheckForNull @AncestorInPath Item context,
@@ -101,6 +519,18 @@ public class GlobalPluginConfiguration extends GlobalConfiguration {
         return listScanCredentials(context, apiUri);
     }
 
+    public ListBoxModel doFillGithubAppPrivateKeyCredentialsIdItems(@CheckForNull @AncestorInPath Item context,
+                                                                    @QueryParameter String githubAppPrivateKeyCredentialsId) {
+        if (context == null
+                ? !Jenkins.getActiveInstance().hasPermission(Jenkins.ADMINISTER)
+                : !context.hasPermission(Item.EXTENDED_READ)) {
+            return new StandardListBoxModel().includeCurrentValue(githubAppPrivateKeyCredentialsId);
+        }
+        return new StandardListBoxModel()
+                .includeEmptyValue()
+                .includeAs(ACL.SYSTEM, context, SSHUserPrivateKey.class, githubDomainRequirements(""));
+    }
+
     private ListBoxModel listScanCredentials(Item context, String apiUri) {
         return new StandardListBoxModel()
                 .includeEmptyValue()
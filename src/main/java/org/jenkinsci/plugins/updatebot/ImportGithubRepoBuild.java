@@ -16,10 +16,10 @@
  */
 package org.jenkinsci.plugins.updatebot;
 
+import com.cloudbees.hudson.plugins.folder.computed.ComputedFolder;
 import hudson.FilePath;
 import hudson.model.Build;
 import hudson.model.BuildListener;
-import hudson.model.Cause;
 import hudson.model.Item;
 import hudson.model.ItemGroup;
 import hudson.model.ParameterValue;
@@ -35,16 +35,25 @@ import io.fabric8.utils.Strings;
 import jenkins.branch.BranchProperty;
 import jenkins.branch.BranchSource;
 import jenkins.branch.DefaultBranchPropertyStrategy;
+import jenkins.branch.OrganizationFolder;
 import jenkins.model.Jenkins;
 import jenkins.model.ModifiableTopLevelItemGroup;
+import jenkins.scm.api.SCMNavigator;
 import jenkins.scm.api.trait.SCMSourceTrait;
+import jenkins.scm.api.trait.SCMTrait;
 import jenkins.scm.impl.trait.RegexSCMHeadFilterTrait;
+import jenkins.scm.impl.trait.RegexSCMSourceFilterTrait;
 import org.jenkinsci.plugins.github_branch_source.BranchDiscoveryTrait;
 import org.jenkinsci.plugins.github_branch_source.ForkPullRequestDiscoveryTrait;
+import org.jenkinsci.plugins.github_branch_source.GitHubSCMNavigator;
 import org.jenkinsci.plugins.github_branch_source.GitHubSCMSource;
 import org.jenkinsci.plugins.github_branch_source.OriginPullRequestDiscoveryTrait;
 import org.jenkinsci.plugins.updatebot.support.JenkinsHelpers;
+import org.jenkinsci.plugins.updatebot.support.ListHelpers;
+import org.jenkinsci.plugins.updatebot.support.PooledConfiguration;
+import org.jenkinsci.plugins.updatebot.support.WorkDirectories;
 import org.jenkinsci.plugins.workflow.multibranch.WorkflowMultiBranchProject;
+import org.jenkinsci.plugins.workflow.multibranch.WorkflowMultiBranchProjectFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,15 +63,27 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
 
 import static org.jenkinsci.plugins.updatebot.UpdateBotPushStepExecution.configureFromGlobalPluginConfiguration;
+import static org.jenkinsci.plugins.updatebot.UpdateBotPushStepExecution.configureGithubCredentials;
 
 /**
  */
 public class ImportGithubRepoBuild extends Build<ImportGithubRepoProject, ImportGithubRepoBuild> {
     private static final transient Logger LOG = LoggerFactory.getLogger(ImportGithubRepoBuild.class);
+    /**
+     * The locks serializing the imports which create or edit the same organisation folder indexed by its full name
+     */
+    private static final ConcurrentMap<String, Object> ORGANISATION_LOCKS = new ConcurrentHashMap<>();
 
     public ImportGithubRepoBuild(ImportGithubRepoProject project) throws IOException {
         super(project);
@@ -85,7 +106,7 @@ public class ImportGithubRepoBuild extends Build<ImportGithubRepoProject, Import
     protected Result doBuild(@Nonnull BuildListener listener) throws IOException {
         PrintStream logger = listener.getLogger();
 
-        Configuration configuration = new Configuration();
+        Configuration configuration = new PooledConfiguration();
         configureFromGlobalPluginConfiguration(configuration, logger);
         EnableFabric8 command = new EnableFabric8();
 
@@ -131,6 +152,12 @@ public class ImportGithubRepoBuild extends Build<ImportGithubRepoProject, Import
             configuration.error(LOG, "Failed to configure github organisation/repository from " + repository + ". " + e, e);
             return Result.FAILURE;
         }
+        try {
+            configureGithubCredentials(configuration, repository.split("/", 2)[0]);
+        } catch (IOException e) {
+            configuration.error(LOG, "Failed to configure github credentials for " + repository + ". " + e, e);
+            return Result.FAILURE;
+        }
         if (Strings.notEmpty(pipeline)) {
             command.setPipeline(pipeline);
         }
@@ -140,29 +167,38 @@ public class ImportGithubRepoBuild extends Build<ImportGithubRepoProject, Import
         FilePath currentWorkspace = getWorkspace();
         if (currentWorkspace != null) {
             try {
-                String file = currentWorkspace.toURI().toString();
-                configuration.setWorkDir(file);
-                configuration.setSourcePath(file);
+                configuration.setSourcePath(currentWorkspace.toURI().toString());
             } catch (Exception e) {
                 configuration.warn(LOG, "Failed to find the current workspace directory");
             }
         }
-
+        WorkDirectories.Lease workDir = WorkDirectories.get().lease(WorkDirectoryEviction.getRoot(), getParent().getFullName(), ConfigurationSnapshot.get().getMaxWorkDirBytes());
+        configuration.setWorkDir(workDir.getDir().getPath());
         try {
-            command.run(configuration);
-        } catch (IOException e) {
-            configuration.error(LOG, "Failed to enable fabric8 CI / CD: " + e, e);
-            return Result.FAILURE;
-        }
+            try {
+                command.run(configuration);
+            } catch (IOException e) {
+                configuration.error(LOG, "Failed to enable fabric8 CI / CD: " + e, e);
+                return Result.FAILURE;
+            }
+
+            String fullJobPath;
+            try {
+                fullJobPath = createMultiBranchProject(configuration, repository);
+            } catch (IOException e) {
+                configuration.error(LOG, "Failed to import " + repository + ": " + e, e);
+                return Result.FAILURE;
+            }
 
-        String fullJobPath = createMultiBranchProject(configuration, repository);
+            Result answer = waitForPullRequestMerge(listener, configuration, command);
+            if (answer != null) {
+                return answer;
+            }
 
-        Result answer = waitForPullRequestMerge(listener, configuration, command);
-        if (answer != null) {
-            return answer;
+            return triggerScanBuild(configuration, fullJobPath);
+        } finally {
+            workDir.release();
         }
-
-        return triggerScanBuild(configuration, fullJobPath);
     }
 
     protected Result waitForPullRequestMerge(BuildListener listener, Configuration configuration, CommandSupport lastCommand) throws IOException {
@@ -172,10 +208,17 @@ public class ImportGithubRepoBuild extends Build<ImportGithubRepoProject, Import
 
         while (true) {
             try {
+                long startTime = System.currentTimeMillis();
+                // the installation token may expire while waiting
+                GitHubCredentialsPool.get().refresh(configuration);
                 Map<String, StatusInfo> status = updatebot.poll();
                 if (!StatusInfo.isPending(status)) {
+                    for (Map.Entry<String, StatusInfo> entry : status.entrySet()) {
+                        UpdateBotEvents.get().emit(UpdateBotEvents.REPOSITORY_MERGED, getFullDisplayName(), entry.getKey(), String.valueOf(entry.getValue()));
+                    }
                     return null;
                 }
+                UpdateBotEvents.get().emit(UpdateBotEvents.POLL, getFullDisplayName(), null, null, status.size(), System.currentTimeMillis() - startTime);
             } catch (IOException e) {
                 configuration.warn(LOG, "Failed to poll PullRequests " + e, e);
             }
@@ -189,7 +232,7 @@ public class ImportGithubRepoBuild extends Build<ImportGithubRepoProject, Import
         }
     }
 
-    protected String createMultiBranchProject(Configuration configuration, String repository) {
+    protected String createMultiBranchProject(Configuration configuration, String repository) throws IOException {
         // lets create a new Multi-Branch build!
         String[] paths = repository.split("/", 2);
         String organisation = paths[0];
@@ -205,6 +248,12 @@ public class ImportGithubRepoBuild extends Build<ImportGithubRepoProject, Import
             gitHubParent = jenkins;
         }
         String orgJobName = parentFolderName + "/" + organisation;
+        if (GlobalPluginConfiguration.get().isUseOrganisationFolders()) {
+            String answer = addToOrganisationFolder(configuration, gitHubParent, orgJobName, organisation, repo);
+            if (answer != null) {
+                return answer;
+            }
+        }
         ItemGroup parentItemGroup = JenkinsHelpers.getOrCreateFolder(configuration, jenkins, orgJobName, gitHubParent);
         ModifiableTopLevelItemGroup parent = null;
         if (parentItemGroup instanceof ModifiableTopLevelItemGroup) {
@@ -231,18 +280,159 @@ public class ImportGithubRepoBuild extends Build<ImportGithubRepoProject, Import
         sourcesList.add(branchSource);
         String jobPath = parentFolderName + "/" + repository;
         JenkinsHelpers.createItem(configuration, parent, jobPath, project, "WorkflowMultiBranchProject for " + jobPath);
+        UpdateBotEvents.get().emit(UpdateBotEvents.IMPORT_PROJECT_CREATED, getFullDisplayName(), repository, jobPath);
         return jobPath;
     }
 
+    /**
+     * Adds the repository to the repository name filter of the GitHub organisation folder for the organisation,
+     * lazily creating the organisation folder. Concurrent imports into the same organisation are serialized so that
+     * no import overwrites the filter another has just edited.
+     *
+     * @return the full name of the organisation folder to scan or null if the organisation already has a plain folder
+     * from a previous import in which case a multi-branch project should be created instead
+     * @throws IOException if the organisation folder could not be created or saved
+     */
+    protected String addToOrganisationFolder(Configuration configuration, ModifiableTopLevelItemGroup gitHubParent, String orgJobName, String organisation, String repo) throws IOException {
+        Object lock = ORGANISATION_LOCKS.get(orgJobName);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = ORGANISATION_LOCKS.putIfAbsent(orgJobName, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        synchronized (lock) {
+            return addToOrganisationFolderLocked(configuration, gitHubParent, orgJobName, organisation, repo);
+        }
+    }
+
+    private String addToOrganisationFolderLocked(Configuration configuration, ModifiableTopLevelItemGroup gitHubParent, String orgJobName, String organisation, String repo) throws IOException {
+        Jenkins jenkins = Jenkins.getInstance();
+        Item item = jenkins.getItemByFullName(orgJobName);
+        OrganizationFolder folder;
+        if (item == null) {
+            folder = new OrganizationFolder(gitHubParent, organisation);
+            folder.getProjectFactories().add(new WorkflowMultiBranchProjectFactory());
+            GitHubSCMNavigator navigator = new GitHubSCMNavigator(organisation);
+            navigator.setCredentialsId("cd-github");
+            List<SCMTrait<? extends SCMTrait<?>>> traits = new ArrayList<>();
+            traits.add(new BranchDiscoveryTrait(1));
+            traits.add(new OriginPullRequestDiscoveryTrait(1));
+            ForkPullRequestDiscoveryTrait.TrustContributors trust = new ForkPullRequestDiscoveryTrait.TrustContributors();
+            traits.add(new ForkPullRequestDiscoveryTrait(1, trust));
+            traits.add(new RegexSCMHeadFilterTrait("master|PR.*"));
+            traits.add(new RegexSCMSourceFilterTrait(repositoryFilterRegex(Collections.singleton(repo))));
+            navigator.setTraits(traits);
+            folder.getNavigators().add(navigator);
+            JenkinsHelpers.createItem(configuration, gitHubParent, organisation, folder, "OrganizationFolder for " + orgJobName);
+            // lets look it up again to be sure as createItem only logs failures
+            if (!(jenkins.getItemByFullName(orgJobName) instanceof OrganizationFolder)) {
+                throw new IOException("Failed to create the OrganizationFolder " + orgJobName);
+            }
+            UpdateBotEvents.get().emit(UpdateBotEvents.IMPORT_FOLDER_CREATED, getFullDisplayName(), organisation + "/" + repo, orgJobName);
+            return orgJobName;
+        }
+        if (!(item instanceof OrganizationFolder)) {
+            configuration.info(LOG, orgJobName + " is not an OrganizationFolder so creating a multi-branch project for " + repo);
+            return null;
+        }
+        folder = (OrganizationFolder) item;
+        for (SCMNavigator navigator : folder.getNavigators()) {
+            if (navigator instanceof GitHubSCMNavigator) {
+                GitHubSCMNavigator gitHubNavigator = (GitHubSCMNavigator) navigator;
+                List<SCMTrait<? extends SCMTrait<?>>> traits = new ArrayList<>();
+                Set<String> repos = new TreeSet<>();
+                for (SCMTrait<? extends SCMTrait<?>> trait : gitHubNavigator.getTraits()) {
+                    if (trait instanceof RegexSCMSourceFilterTrait) {
+                        repos.addAll(repositoryFilterNames(((RegexSCMSourceFilterTrait) trait).getRegex()));
+                    } else {
+                        traits.add(trait);
+                    }
+                }
+                if (!repos.add(repo)) {
+                    configuration.info(LOG, "Repository " + repo + " is already included in " + orgJobName);
+                    return orgJobName;
+                }
+                traits.add(new RegexSCMSourceFilterTrait(repositoryFilterRegex(repos)));
+                List<SCMTrait<? extends SCMTrait<?>>> previousTraits = new ArrayList<>(gitHubNavigator.getTraits());
+                gitHubNavigator.setTraits(traits);
+                try {
+                    folder.save();
+                } catch (IOException e) {
+                    // keep the folder as it is on disk so that the repository is not scanned until it is added
+                    gitHubNavigator.setTraits(previousTraits);
+                    throw new IOException("Failed to save " + orgJobName + " so repository " + repo + " was not added: " + e, e);
+                }
+                configuration.info(LOG, "Added repository " + repo + " to " + orgJobName);
+                UpdateBotEvents.get().emit(UpdateBotEvents.IMPORT_FOLDER_UPDATED, getFullDisplayName(), organisation + "/" + repo, orgJobName);
+                return orgJobName;
+            }
+        }
+        configuration.warn(LOG, orgJobName + " has no GitHub navigator so creating a multi-branch project for " + repo);
+        return null;
+    }
+
+    /**
+     * Returns the regex which matches exactly the given repository names
+     */
+    protected static String repositoryFilterRegex(Collection<String> repos) {
+        List<String> quoted = new ArrayList<>();
+        for (String repo : repos) {
+            quoted.add(Pattern.quote(repo));
+        }
+        return ListHelpers.join("|", quoted);
+    }
+
+    /**
+     * Returns the repository names matched by a regex created via {@link #repositoryFilterRegex(Collection)}
+     */
+    protected static List<String> repositoryFilterNames(String regex) {
+        List<String> answer = new ArrayList<>();
+        if (Strings.isNullOrBlank(regex)) {
+            return answer;
+        }
+        StringBuilder name = new StringBuilder();
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (regex.startsWith("\\Q", i)) {
+                int end = regex.indexOf("\\E", i + 2);
+                if (end < 0) {
+                    end = regex.length();
+                }
+                name.append(regex, i + 2, end);
+                i = end + 2;
+            } else if (c == '|') {
+                addName(answer, name);
+                i++;
+            } else {
+                name.append(c);
+                i++;
+            }
+        }
+        addName(answer, name);
+        return answer;
+    }
+
+    private static void addName(List<String> names, StringBuilder name) {
+        if (name.length() > 0) {
+            names.add(name.toString());
+        }
+        name.setLength(0);
+    }
+
     protected Result triggerScanBuild(Configuration configuration, String repository) {
         Jenkins jenkins = Jenkins.getInstance();
         Item item = jenkins.getItemByFullName(repository);
-        if (item instanceof WorkflowMultiBranchProject) {
-            WorkflowMultiBranchProject job = (WorkflowMultiBranchProject) item;
-            job.scheduleBuild(0, new Cause.UserIdCause());
-            configuration.info(LOG, "Triggered scan job " + repository);
+        if (item instanceof ComputedFolder) {
+            ComputedFolder<?> job = (ComputedFolder<?>) item;
+            ScanScheduler scheduler = ScanScheduler.get();
+            scheduler.schedule(job);
+            UpdateBotEvents.get().emit(UpdateBotEvents.SCAN_QUEUED, getFullDisplayName(), null, repository);
+            configuration.info(LOG, "Queued scan job " + repository + " with " + scheduler.getQueueDepth() + " scans pending");
         } else {
-            configuration.error(LOG, "Failed to trigger scan job " + repository + " as it is not a WorkflowMultiBranchProject but is " + item);
+            configuration.error(LOG, "Failed to trigger scan job " + repository + " as it is not a WorkflowMultiBranchProject or OrganizationFolder but is " + item);
             return Result.FAILURE;
         }
         return null;
@@ -0,0 +1,219 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Api;
+import io.fabric8.utils.Strings;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the pushes which are running right now so that they can be shown without walking the build history.
+ * <p>
+ * Step executions update their own {@link Entry} whose fields are volatile so that each update is a few writes
+ * without any locking; only listing the entries copies them.
+ */
+@Extension
+public class InFlightPushes {
+    public enum Phase {
+        QUEUED, PUSHING, POLLING, BACKGROUND
+    }
+
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+
+    public static InFlightPushes get() {
+        return ExtensionList.lookup(InFlightPushes.class).get(0);
+    }
+
+    public Entry add(String name, String url) {
+        Entry entry = new Entry(nextId.incrementAndGet(), name, url);
+        entries.put(entry.id, entry);
+        return entry;
+    }
+
+    public void remove(Entry entry) {
+        if (entry != null) {
+            entries.remove(entry.id);
+        }
+    }
+
+    public int getCount() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the entries whose name contains the filter sorted by the given column
+     *
+     * @param filter the text to look for in the names of the runs or null for all entries
+     * @param sort   one of <code>name</code>, <code>phase</code>, <code>pending</code>, <code>latency</code>
+     *               or <code>nextPoll</code>; otherwise the oldest pushes come first
+     * @param limit  the maximum number of entries to return or zero for all of them
+     */
+    public Snapshot snapshot(String filter, String sort, int limit) {
+        List<Entry> answer = new ArrayList<>();
+        String lowerFilter = Strings.notEmpty(filter) ? filter.toLowerCase(Locale.ENGLISH) : null;
+        for (Entry entry : entries.values()) {
+            if (lowerFilter == null || entry.name.toLowerCase(Locale.ENGLISH).contains(lowerFilter)) {
+                answer.add(entry);
+            }
+        }
+        Collections.sort(answer, comparator(sort));
+        int total = answer.size();
+        if (limit > 0 && answer.size() > limit) {
+            answer = new ArrayList<>(answer.subList(0, limit));
+        }
+        return new Snapshot(answer, total);
+    }
+
+    private static Comparator<Entry> comparator(String sort) {
+        if ("name".equals(sort)) {
+            return Comparator.comparing(e -> e.name);
+        } else if ("phase".equals(sort)) {
+            return Comparator.comparing(e -> e.phase);
+        } else if ("pending".equals(sort)) {
+            return Comparator.comparingInt((Entry e) -> e.pendingRepositories.size()).reversed();
+        } else if ("latency".equals(sort)) {
+            return Comparator.comparingLong((Entry e) -> e.lastPollLatencyMS).reversed();
+        } else if ("nextPoll".equals(sort)) {
+            return Comparator.comparingLong(e -> e.nextPollTime);
+        }
+        return Comparator.comparingLong(e -> e.id);
+    }
+
+    /**
+     * The pushes matching a filter which can also be read as JSON or XML via its <code>api</code>
+     */
+    @ExportedBean
+    public static class Snapshot {
+        private final List<Entry> entries;
+        private final int total;
+
+        Snapshot(List<Entry> entries, int total) {
+            this.entries = entries;
+            this.total = total;
+        }
+
+        public Api getApi() {
+            return new Api(this);
+        }
+
+        @Exported(inline = true)
+        public List<Entry> getEntries() {
+            return entries;
+        }
+
+        /**
+         * Returns the number of matching pushes including any beyond the limit
+         */
+        @Exported
+        public int getTotal() {
+            return total;
+        }
+    }
+
+    /**
+     * The state of a running push
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static class Entry {
+        private final long id;
+        private final String name;
+        private final String url;
+        private final long startTime = System.currentTimeMillis();
+        private volatile Phase phase = Phase.QUEUED;
+        private volatile List<String> pendingRepositories = Collections.emptyList();
+        private volatile long lastPollLatencyMS = -1;
+        private volatile long nextPollTime;
+
+        Entry(long id, String name, String url) {
+            this.id = id;
+            this.name = name;
+            this.url = url;
+        }
+
+        public void setPhase(Phase phase) {
+            this.phase = phase;
+        }
+
+        /**
+         * Records the result of a poll
+         *
+         * @param pendingRepositories the repositories with pending pull requests or null if they are not known
+         */
+        public void polled(long latencyMS, List<String> pendingRepositories, long nextPollTime) {
+            this.lastPollLatencyMS = latencyMS;
+            if (pendingRepositories != null) {
+                this.pendingRepositories = Collections.unmodifiableList(pendingRepositories);
+            }
+            this.nextPollTime = nextPollTime;
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        @Exported
+        public String getUrl() {
+            return url;
+        }
+
+        @Exported
+        public Date getStartTime() {
+            return new Date(startTime);
+        }
+
+        @Exported
+        public Phase getPhase() {
+            return phase;
+        }
+
+        @Exported
+        public List<String> getPendingRepositories() {
+            return pendingRepositories;
+        }
+
+        /**
+         * Returns how long the last poll took in milliseconds or -1 if it has not been polled yet
+         */
+        @Exported
+        public long getLastPollLatencyMS() {
+            return lastPollLatencyMS;
+        }
+
+        /**
+         * Returns when the next poll is due or null if it is not polling
+         */
+        @Exported
+        public Date getNextPollTime() {
+            return nextPollTime > 0 ? new Date(nextPollTime) : null;
+        }
+    }
+}
@@ -0,0 +1,370 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import io.fabric8.updatebot.UpdateBot;
+import io.fabric8.updatebot.commands.StatusInfo;
+import org.jenkinsci.plugins.updatebot.support.PollComplete;
+import org.jenkinsci.plugins.updatebot.support.RepeatedLineFilter;
+import org.jenkinsci.plugins.updatebot.support.ToolCacheLocks;
+import org.jenkinsci.plugins.updatebot.support.WorkDirectories;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps polling the pull requests of an <code>updateBotPush(wait: false)</code> in the background so that a later
+ * <code>updateBotAwait(handle)</code> step can wait for them to complete.
+ * <p>
+ * Handles are only kept in memory so they do not survive a restart of Jenkins. Each handle belongs to the build
+ * which pushed it; polling stops once that build completes or is deleted, as nothing can await the handle any more,
+ * so that a build which never calls <code>updateBotAwait</code> does not leave its pull requests being polled.
+ */
+@Extension
+public class PendingPushRegistry {
+    private static final transient Logger LOG = LoggerFactory.getLogger(PendingPushRegistry.class);
+    private static final long COMPLETED_EXPIRY_MS = TimeUnit.DAYS.toMillis(1);
+
+    private final Map<String, PendingPush> pushes = new ConcurrentHashMap<>();
+
+    public static PendingPushRegistry get() {
+        return ExtensionList.lookup(PendingPushRegistry.class).get(0);
+    }
+
+    /**
+     * Starts polling the given UpdateBot in the background
+     *
+     * @return the handle to pass to <code>updateBotAwait</code>
+     */
+    public String register(UpdateBot updatebot, long pollPeriodMS) {
+        return register(updatebot, pollPeriodMS, null);
+    }
+
+    /**
+     * Starts polling the given UpdateBot in the background updating its in flight entry which is removed once
+     * nothing is pending
+     *
+     * @return the handle to pass to <code>updateBotAwait</code>
+     */
+    public String register(UpdateBot updatebot, long pollPeriodMS, InFlightPushes.Entry inFlight) {
+        return register(updatebot, pollPeriodMS, inFlight, null, null, ToolCacheLocks.Guard.NONE, null);
+    }
+
+    /**
+     * Starts polling the given UpdateBot in the background releasing the work directory its repositories were
+     * cloned into once nothing is pending
+     *
+     * @param pollLogFilter the filter of the UpdateBot log which is told about each poll so that only lines which
+     *                      change between polls are logged or null if the log is not filtered
+     * @param toolGuard     the locks to hold while polling as a poll may rebase pull requests running the tools
+     * @param owner         the externalizable id of the build which pushed, whose completion stops the polling,
+     *                      or null if the polling only stops once nothing is pending
+     * @return the handle to pass to <code>updateBotAwait</code>
+     */
+    public String register(final UpdateBot updatebot, long pollPeriodMS, InFlightPushes.Entry inFlight, final WorkDirectories.Lease workDir,
+                           final RepeatedLineFilter pollLogFilter, final ToolCacheLocks.Guard toolGuard, String owner) {
+        final String name = inFlight != null ? inFlight.getName() : "UpdateBot push";
+        final UpdateBotEvents.MergedRepositories merged = new UpdateBotEvents.MergedRepositories();
+        return register(new Poller() {
+            @Override
+            public boolean isPending() throws IOException {
+                boolean pending = false;
+                try {
+                    if (pollLogFilter != null) {
+                        pollLogFilter.nextPoll();
+                    }
+                    GitHubCredentialsPool.get().refresh(updatebot.getConfiguration());
+                    Map<String, StatusInfo> status = toolGuard.call(null, new Callable<Map<String, StatusInfo>>() {
+                        @Override
+                        public Map<String, StatusInfo> call() throws Exception {
+                            return updatebot.poll();
+                        }
+                    });
+                    merged.polled(name, status);
+                    pending = StatusInfo.isPending(status);
+                } catch (IOException | RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException("Failed to poll UpdateBot: " + e, e);
+                } finally {
+                    if (!pending && workDir != null) {
+                        workDir.release();
+                    }
+                }
+                return pending;
+            }
+
+            @Override
+            public void cancel() {
+                if (workDir != null) {
+                    workDir.release();
+                }
+            }
+        }, pollPeriodMS, inFlight, owner);
+    }
+
+    /**
+     * Starts calling the given poller in the background until nothing is pending
+     *
+     * @return the handle to pass to <code>updateBotAwait</code>
+     */
+    public String register(Poller poller, long pollPeriodMS) {
+        return register(poller, pollPeriodMS, null);
+    }
+
+    /**
+     * Starts calling the given poller in the background until nothing is pending updating the in flight entry
+     *
+     * @return the handle to pass to <code>updateBotAwait</code>
+     */
+    public String register(Poller poller, long pollPeriodMS, InFlightPushes.Entry inFlight) {
+        return register(poller, pollPeriodMS, inFlight, null);
+    }
+
+    /**
+     * Starts calling the given poller in the background until nothing is pending or the build which pushed completes
+     *
+     * @param owner the externalizable id of the build which pushed or null if the polling only stops once nothing
+     *              is pending
+     * @return the handle to pass to <code>updateBotAwait</code>
+     */
+    public String register(Poller poller, long pollPeriodMS, InFlightPushes.Entry inFlight, String owner) {
+        expireCompleted();
+        String handle = UUID.randomUUID().toString();
+        PendingPush push = new PendingPush(handle, poller, pollPeriodMS, inFlight, owner);
+        pushes.put(handle, push);
+        push.scheduleNextPoll();
+        return handle;
+    }
+
+    /**
+     * Returns true if the handle is known
+     */
+    public boolean contains(String handle) {
+        return pushes.containsKey(handle);
+    }
+
+    /**
+     * Returns the result of the push for the given handle or null if its pull requests are still pending.
+     * Once a result has been returned the handle is forgotten.
+     */
+    public PollComplete takeResult(String handle) {
+        PendingPush push = pushes.get(handle);
+        if (push == null) {
+            return null;
+        }
+        PollComplete answer = push.getComplete();
+        if (answer != null) {
+            pushes.remove(handle);
+        }
+        return answer;
+    }
+
+    public int getPendingCount() {
+        int answer = 0;
+        for (PendingPush push : pushes.values()) {
+            if (push.getComplete() == null) {
+                answer++;
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Stops polling the pushes of the given build which are still pending; awaiting their handles fails
+     *
+     * @param owner  the externalizable id of the build
+     * @param reason why the pushes are cancelled
+     * @return the number of pushes cancelled
+     */
+    public int cancelOwnedBy(String owner, String reason) {
+        int answer = 0;
+        for (PendingPush push : pushes.values()) {
+            if (owner.equals(push.getOwner()) && push.cancel(reason)) {
+                LOG.info("Stopped polling UpdateBot push " + push.getHandle() + " " + reason);
+                answer++;
+            }
+        }
+        return answer;
+    }
+
+    protected void expireCompleted() {
+        long now = System.currentTimeMillis();
+        Iterator<PendingPush> iter = pushes.values().iterator();
+        while (iter.hasNext()) {
+            PendingPush push = iter.next();
+            if (push.getComplete() != null && now - push.getCompletedTime() > COMPLETED_EXPIRY_MS) {
+                LOG.info("Expiring the result of UpdateBot push " + push.getHandle() + " as it was never awaited");
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Checks whether the pull requests and issues of a push are still pending
+     */
+    public interface Poller {
+        boolean isPending() throws IOException;
+
+        /**
+         * Releases whatever the poller holds when the push is cancelled before nothing is pending
+         */
+        void cancel();
+    }
+
+    /**
+     * Stops the background polling of the pushes of a build once it completes or is deleted
+     */
+    @Extension
+    public static class OwnerListener extends RunListener<Run<?, ?>> {
+        @Override
+        public void onCompleted(Run<?, ?> run, @Nonnull TaskListener listener) {
+            int cancelled = get().cancelOwnedBy(run.getExternalizableId(), "as " + run.getFullDisplayName() + " completed without awaiting it");
+            if (cancelled > 0) {
+                listener.getLogger().println("Stopped polling " + cancelled + " UpdateBot push(es) which were never awaited");
+            }
+        }
+
+        @Override
+        public void onDeleted(Run<?, ?> run) {
+            get().cancelOwnedBy(run.getExternalizableId(), "as " + run.getFullDisplayName() + " was deleted");
+        }
+    }
+
+    private static class PendingPush implements Runnable {
+        private final String handle;
+        private final Poller poller;
+        private final long pollPeriodMS;
+        private final InFlightPushes.Entry inFlight;
+        private final String owner;
+        private final PollExecutor.PollHistory history = new PollExecutor.PollHistory();
+        private volatile PollComplete complete;
+        private volatile long completedTime;
+
+        PendingPush(String handle, Poller poller, long pollPeriodMS, InFlightPushes.Entry inFlight, String owner) {
+            this.handle = handle;
+            this.poller = poller;
+            this.pollPeriodMS = pollPeriodMS;
+            this.inFlight = inFlight;
+            this.owner = owner;
+        }
+
+        @Override
+        public void run() {
+            if (complete != null) {
+                return;
+            }
+            try {
+                long startTime = System.currentTimeMillis();
+                if (!poller.isPending()) {
+                    setComplete(PollComplete.success(null));
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                if (inFlight != null) {
+                    inFlight.polled(now - startTime, null, now + pollPeriodMS);
+                }
+                UpdateBotEvents.get().emit(UpdateBotEvents.POLL, getName(), null, handle, -1, now - startTime);
+            } catch (Exception e) {
+                LOG.warn("Failed to poll UpdateBot push " + handle + ": " + e, e);
+                setComplete(PollComplete.failure(e));
+                return;
+            }
+            scheduleNextPoll();
+        }
+
+        void scheduleNextPoll() {
+            if (complete == null) {
+                PollExecutor.get().schedule(this, pollPeriodMS, history);
+            }
+        }
+
+        /**
+         * Stops polling the push if it is still pending
+         *
+         * @return true if the push was cancelled
+         */
+        boolean cancel(String reason) {
+            if (!setComplete(PollComplete.failure(new IOException("UpdateBot stopped polling push " + handle + " " + reason)))) {
+                return false;
+            }
+            // off the thread completing the build as cancelling a push on an agent calls the agent
+            PollExecutor.get().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        poller.cancel();
+                    } catch (RuntimeException e) {
+                        LOG.warn("Failed to cancel UpdateBot push " + handle + ": " + e, e);
+                    }
+                }
+            }, 0);
+            return true;
+        }
+
+        String getOwner() {
+            return owner;
+        }
+
+        String getHandle() {
+            return handle;
+        }
+
+        String getName() {
+            return inFlight != null ? inFlight.getName() : handle;
+        }
+
+        PollComplete getComplete() {
+            return complete;
+        }
+
+        long getCompletedTime() {
+            return completedTime;
+        }
+
+        /**
+         * Completes the push unless it has already completed, such as when a poll finishes after the push was cancelled
+         *
+         * @return true if the push was completed by this call
+         */
+        private boolean setComplete(PollComplete complete) {
+            synchronized (this) {
+                if (this.complete != null) {
+                    return false;
+                }
+                this.completedTime = System.currentTimeMillis();
+                this.complete = complete;
+            }
+            InFlightPushes.get().remove(inFlight);
+            UpdateBotPushStepExecution.emitComplete(getName(), complete);
+            return true;
+        }
+    }
+}
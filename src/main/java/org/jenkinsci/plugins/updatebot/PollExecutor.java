@@ -0,0 +1,176 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.updatebot.support.ExecutionBackend;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the polls of pending pull requests on bounded pools of threads of their own, queueing the polls which
+ * rebase pull requests separately from the polls which only check their status.
+ * <p>
+ * A poll may rebase any number of pull requests so it can take minutes; running polls on the shared Jenkins
+ * {@link Timer} would make every push wait behind the slowest rebase and hold up the rest of Jenkins. The timer is
+ * only used to hand each poll over to a pool once its poll period has passed. The threads come from the
+ * {@link ExecutionBackend} so they are virtual threads where the JVM supports them. Unless configured otherwise the
+ * status pool runs as many polls at once as the timer has threads, which is how many could run before they moved here.
+ * <p>
+ * updatebot-core rebases inside <code>UpdateBot.poll()</code> and does not say whether it will, so a push whose
+ * last poll took at least {@link #REBASE_POLL_MS} is taken to be rebasing and its next poll is queued on the rebase
+ * pool, which has a smaller limit of its own. Status checks are then never queued behind rebases, and rebases run
+ * concurrently up to their limit. Once a poll of the push is quick again its polls move back to the status pool.
+ * <p>
+ * Reusing the clone for a rebase, fetching only new commits and skipping rebases whose base has not moved all
+ * happen inside updatebot-core, which does not expose the base it last saw, so they are not done here.
+ */
+@Extension
+public class PollExecutor {
+    /**
+     * How long a poll has to take for the next poll of the same push to be treated as a rebase
+     */
+    public static final long REBASE_POLL_MS = Long.getLong(PollExecutor.class.getName() + ".rebasePollMS", TimeUnit.SECONDS.toMillis(20));
+
+    private final ExecutionBackend.BoundedExecutor executor = ExecutionBackend.get().createBoundedExecutor("UpdateBot poll", 1);
+    private final ExecutionBackend.BoundedExecutor rebaseExecutor = ExecutionBackend.get().createBoundedExecutor("UpdateBot rebase poll", 1);
+
+    public static PollExecutor get() {
+        return ExtensionList.lookup(PollExecutor.class).get(0);
+    }
+
+    /**
+     * Schedules the poll to run on the status pool after the given delay
+     *
+     * @return the future which interrupts the poll if it is cancelled while running
+     */
+    public Future<?> schedule(Runnable poll, long delayMS) {
+        return schedule(poll, delayMS, null);
+    }
+
+    /**
+     * Schedules the poll to run after the given delay on the rebase pool if the previous poll of the push took long
+     * enough to have rebased and on the status pool otherwise
+     *
+     * @param history the polls of the push so far which this poll is added to or null if it is not known
+     * @return the future which interrupts the poll if it is cancelled while running
+     */
+    public Future<?> schedule(final Runnable poll, long delayMS, final PollHistory history) {
+        final FutureTask<Void> task = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                long startTime = System.currentTimeMillis();
+                try {
+                    poll.run();
+                } finally {
+                    if (history != null) {
+                        history.lastDurationMS = System.currentTimeMillis() - startTime;
+                    }
+                }
+            }
+        }, null);
+        Timer.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (task.isCancelled()) {
+                    return;
+                }
+                if (history != null && history.isRebasing()) {
+                    rebaseExecutor.setMaxConcurrency(getMaxConcurrentRebasePolls());
+                    rebaseExecutor.execute(task);
+                } else {
+                    executor.setMaxConcurrency(getMaxConcurrentPolls());
+                    executor.execute(task);
+                }
+            }
+        }, delayMS, TimeUnit.MILLISECONDS);
+        return task;
+    }
+
+    /**
+     * Returns the configured maximum number of concurrent polls or the size of the Jenkins timer pool if none is
+     * configured
+     */
+    public static int getMaxConcurrentPolls() {
+        int answer = GlobalPluginConfiguration.get().getMaxConcurrentPolls();
+        if (answer > 0) {
+            return answer;
+        }
+        ScheduledExecutorService timer = Timer.get();
+        if (timer instanceof ThreadPoolExecutor) {
+            return Math.max(1, ((ThreadPoolExecutor) timer).getCorePoolSize());
+        }
+        return Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns the configured maximum number of concurrent rebasing polls or the maximum number of polls if none
+     * is configured
+     */
+    public static int getMaxConcurrentRebasePolls() {
+        int answer = GlobalPluginConfiguration.get().getMaxConcurrentRebasePolls();
+        return answer > 0 ? answer : getMaxConcurrentPolls();
+    }
+
+    public int getRebaseActiveCount() {
+        return rebaseExecutor.getActiveCount();
+    }
+
+    public int getRebaseQueueSize() {
+        return rebaseExecutor.getQueueSize();
+    }
+
+    public int getRebaseMaximumPoolSize() {
+        return rebaseExecutor.getMaxConcurrency();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueueSize() {
+        return executor.getQueueSize();
+    }
+
+    public int getMaximumPoolSize() {
+        return executor.getMaxConcurrency();
+    }
+
+    /**
+     * How long the last poll of a push took, kept by whoever keeps polling the push
+     */
+    public static class PollHistory {
+        private volatile long lastDurationMS = -1;
+
+        public long getLastDurationMS() {
+            return lastDurationMS;
+        }
+
+        /**
+         * Returns true if the last poll took long enough that it probably rebased pull requests
+         */
+        public boolean isRebasing() {
+            return lastDurationMS >= REBASE_POLL_MS;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import org.jenkinsci.plugins.updatebot.support.ExecutionBackend;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Limits how many pushes can clone and update downstream repositories at once.
+ * <p>
+ * Waiting pushes are admitted highest priority first. Between pushes of the same priority the push whose folder
+ * has the fewest running pushes goes first so that one busy folder cannot starve the others, then the oldest.
+ * This does not limit the tool processes on its own as pushes with <code>wait: false</code> keep polling, and so
+ * rebasing pull requests, after they release their slot and pushes spread across agents run tools on each agent;
+ * {@link org.jenkinsci.plugins.updatebot.support.ToolCacheLocks} bounds the tool runs on each node instead.
+ * Admitted pushes run on threads of the {@link ExecutionBackend} rather than the shared Jenkins timer.
+ */
+@Extension
+public class PushAdmissionController {
+    private final List<Ticket> waiting = new ArrayList<>();
+    private final List<Ticket> running = new ArrayList<>();
+    private final ExecutionBackend.BoundedExecutor executor = ExecutionBackend.get().createBoundedExecutor("UpdateBot push", 1);
+    private long nextSequence;
+
+    public static PushAdmissionController get() {
+        return ExtensionList.lookup(PushAdmissionController.class).get(0);
+    }
+
+    /**
+     * Requests a push slot for the ticket; the callback is invoked on a push thread of the {@link ExecutionBackend}
+     * once the push is admitted which may be immediately
+     */
+    public synchronized void request(Ticket ticket, Runnable onAdmitted) {
+        ticket.sequence = nextSequence++;
+        ticket.onAdmitted = onAdmitted;
+        waiting.add(ticket);
+        admit();
+        if (waiting.contains(ticket)) {
+            ticket.logPosition(waiting.indexOf(ticket) + 1, waiting.size());
+        }
+    }
+
+    /**
+     * Releases the slot of a running push or removes a waiting push from the queue
+     */
+    public synchronized void release(Ticket ticket) {
+        if (!running.remove(ticket) && !waiting.remove(ticket)) {
+            return;
+        }
+        admit();
+        int size = waiting.size();
+        for (int i = 0; i < size; i++) {
+            waiting.get(i).logPosition(i + 1, size);
+        }
+    }
+
+    public synchronized List<Ticket> getWaiting() {
+        return new ArrayList<>(waiting);
+    }
+
+    public synchronized List<Ticket> getRunning() {
+        return new ArrayList<>(running);
+    }
+
+    private void admit() {
+        int max = getMaxConcurrentPushes();
+        while (!waiting.isEmpty() && (max <= 0 || running.size() < max)) {
+            Ticket ticket = next();
+            waiting.remove(ticket);
+            running.add(ticket);
+            executor.setMaxConcurrency(max > 0 ? max : Integer.MAX_VALUE);
+            executor.execute(ticket.onAdmitted);
+        }
+        sortWaiting();
+    }
+
+    protected int getMaxConcurrentPushes() {
+        return GlobalPluginConfiguration.get().getMaxConcurrentPushes();
+    }
+
+    private Ticket next() {
+        Map<String, Integer> runningPerFolder = runningPerFolder();
+        Ticket answer = null;
+        for (Ticket ticket : waiting) {
+            if (answer == null || compare(ticket, answer, runningPerFolder) < 0) {
+                answer = ticket;
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Keeps the waiting list in admission order so that queue positions are meaningful
+     */
+    private void sortWaiting() {
+        final Map<String, Integer> runningPerFolder = runningPerFolder();
+        waiting.sort((t1, t2) -> compare(t1, t2, runningPerFolder));
+    }
+
+    private Map<String, Integer> runningPerFolder() {
+        Map<String, Integer> answer = new HashMap<>();
+        for (Ticket ticket : running) {
+            Integer count = answer.get(ticket.folder);
+            answer.put(ticket.folder, count == null ? 1 : count + 1);
+        }
+        return answer;
+    }
+
+    private static int compare(Ticket t1, Ticket t2, Map<String, Integer> runningPerFolder) {
+        if (t1.priority != t2.priority) {
+            return t1.priority > t2.priority ? -1 : 1;
+        }
+        int r1 = runningPerFolder.containsKey(t1.folder) ? runningPerFolder.get(t1.folder) : 0;
+        int r2 = runningPerFolder.containsKey(t2.folder) ? runningPerFolder.get(t2.folder) : 0;
+        if (r1 != r2) {
+            return r1 < r2 ? -1 : 1;
+        }
+        return Long.compare(t1.sequence, t2.sequence);
+    }
+
+    /**
+     * A push waiting for or holding a slot
+     */
+    public static class Ticket {
+        private final String name;
+        private final String folder;
+        private final int priority;
+        private final PrintStream logger;
+        private long sequence;
+        private Runnable onAdmitted;
+        private int lastPosition;
+
+        public Ticket(String name, String folder, int priority, PrintStream logger) {
+            this.name = name;
+            this.folder = folder;
+            this.priority = priority;
+            this.logger = logger;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getFolder() {
+            return folder;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        void logPosition(int position, int size) {
+            if (position != lastPosition) {
+                lastPosition = position;
+                logger.println("Waiting for an UpdateBot push slot: position " + position + " of " + size + " in the queue");
+            }
+        }
+    }
+}
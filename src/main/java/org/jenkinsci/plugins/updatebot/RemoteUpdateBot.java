@@ -0,0 +1,511 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot;
+
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.Channel;
+import hudson.remoting.VirtualChannel;
+import hudson.util.Secret;
+import io.fabric8.updatebot.Configuration;
+import io.fabric8.updatebot.UpdateBot;
+import io.fabric8.updatebot.commands.StatusInfo;
+import jenkins.security.MasterToSlaveCallable;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.jenkinsci.plugins.updatebot.support.PooledConfiguration;
+import org.jenkinsci.plugins.updatebot.support.RepeatedLineFilter;
+import org.jenkinsci.plugins.updatebot.support.ToolCacheLocks;
+import org.jenkinsci.plugins.updatebot.support.WorkDirectories;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs UpdateBot pushes on agents rather than on the master.
+ * <p>
+ * The downstream repositories of a push are spread across the online agents matching a label using rendezvous
+ * hashing of the repository name so that each repository keeps going to the same agent, keeping its clone warm,
+ * while a push to many repositories is shared by all the agents. Each agent skips the repositories assigned to the
+ * others; the {@link UpdateBot} of each agent then lives in the agent JVM and is polled over the channel.
+ * <p>
+ * A push on an agent is forgotten, releasing its work directory, once nothing is pending, when the master cancels
+ * it, when the channel it was started over closes or once it has not been polled for {@link #MAX_IDLE_MS} so that
+ * a master which stops polling without telling the agent does not leave it behind.
+ */
+public class RemoteUpdateBot {
+    private static final transient Logger LOG = LoggerFactory.getLogger(RemoteUpdateBot.class);
+
+    /**
+     * How long a push on an agent is kept without being polled
+     */
+    public static final long MAX_IDLE_MS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * The pushes running in this JVM when it is an agent indexed by id
+     */
+    private static final Map<String, AgentPush> PUSHES = new ConcurrentHashMap<>();
+    /**
+     * The pushes currently updating repositories in this JVM indexed by the cookie of their budget; each is removed
+     * as soon as its repositories have been updated
+     */
+    private static final Map<String, CircuitBreakingPushSourceChanges> STARTING = new ConcurrentHashMap<>();
+    /**
+     * The channels whose closing forgets the pushes started over them
+     */
+    private static final Set<Channel> LISTENED_CHANNELS = Collections.newSetFromMap(new WeakHashMap<Channel, Boolean>());
+
+    /**
+     * Returns the online nodes matching the label
+     */
+    public static List<Node> selectNodes(Label label) {
+        List<Node> answer = new ArrayList<>();
+        for (Node node : label.getNodes()) {
+            Computer computer = node.toComputer();
+            if (computer == null || computer.isOffline() || computer.getChannel() == null) {
+                continue;
+            }
+            answer.add(node);
+        }
+        return answer;
+    }
+
+    /**
+     * Returns the name of the node the given key is assigned to by rendezvous hashing or null if there are no nodes
+     */
+    public static String selectNodeName(Collection<String> nodeNames, String key) {
+        String answer = null;
+        String answerHash = null;
+        for (String nodeName : nodeNames) {
+            String hash = DigestUtils.sha256Hex(key + "/" + nodeName);
+            if (answerHash == null || hash.compareTo(answerHash) > 0) {
+                answer = nodeName;
+                answerHash = hash;
+            }
+        }
+        return answer;
+    }
+
+    private static void remove(String id) {
+        AgentPush push = PUSHES.remove(id);
+        if (push != null) {
+            push.workDir.release();
+        }
+    }
+
+    /**
+     * Forgets the pushes which have not been polled for {@link #MAX_IDLE_MS}
+     */
+    static void expireIdle() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, AgentPush> entry : PUSHES.entrySet()) {
+            if (now - entry.getValue().lastPolled > MAX_IDLE_MS) {
+                LOG.info("Forgetting UpdateBot push " + entry.getKey() + " as it has not been polled since " + new Date(entry.getValue().lastPolled));
+                remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Forgets the pushes started over the channel once it closes as nothing can poll them any more
+     */
+    private static void forgetOnClose(Channel channel) {
+        if (channel == null) {
+            return;
+        }
+        synchronized (LISTENED_CHANNELS) {
+            if (!LISTENED_CHANNELS.add(channel)) {
+                return;
+            }
+        }
+        channel.addListener(new Channel.Listener() {
+            @Override
+            public void onClosed(Channel closed, IOException cause) {
+                for (Map.Entry<String, AgentPush> entry : PUSHES.entrySet()) {
+                    if (entry.getValue().channel == closed) {
+                        LOG.info("Forgetting UpdateBot push " + entry.getKey() + " as the channel to the master closed");
+                        remove(entry.getKey());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * A push which has updated its repositories on this agent and whose pull requests are being polled
+     */
+    private static class AgentPush {
+        private final UpdateBot updatebot;
+        private final RepeatedLineFilter pollLogFilter;
+        private final WorkDirectories.Lease workDir;
+        private final Channel channel;
+        private volatile long lastPolled = System.currentTimeMillis();
+
+        AgentPush(UpdateBot updatebot, RepeatedLineFilter pollLogFilter, WorkDirectories.Lease workDir, Channel channel) {
+            this.updatebot = updatebot;
+            this.pollLogFilter = pollLogFilter;
+            this.workDir = workDir;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * The serializable subset of the {@link Configuration} needed to run a push on an agent
+     */
+    public static class Settings implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String githubUsername;
+        private final Secret githubPassword;
+        private final String jenkinsfileGitRepo;
+        private final String mvnCommand;
+        private final HashMap<String, String> mvnEnvironmentVariables;
+        private final String npmCommand;
+        private final HashMap<String, String> npmEnvironmentVariables;
+        private final String sourcePath;
+        private final String workDirRoot;
+        private final String workDirKey;
+        private final long maxWorkDirBytes;
+        private final boolean useClonelessPush;
+        private final ToolCacheLocks.Guard toolGuard;
+
+        public Settings(Configuration configuration, String sourcePath, String workDirRoot, String workDirKey, long maxWorkDirBytes, boolean useClonelessPush,
+                        ToolCacheLocks.Guard toolGuard) {
+            this.githubUsername = configuration.getGithubUsername();
+            this.githubPassword = Secret.fromString(configuration.getGithubPassword());
+            this.jenkinsfileGitRepo = configuration.getJenksinsfileGitRepo();
+            this.mvnCommand = configuration.getMvnCommand();
+            this.mvnEnvironmentVariables = copy(configuration.getMvnEnvironmentVariables());
+            this.npmCommand = configuration.getNpmCommand();
+            this.npmEnvironmentVariables = copy(configuration.getNpmEnvironmentVariables());
+            this.sourcePath = sourcePath;
+            this.workDirRoot = workDirRoot;
+            this.workDirKey = workDirKey;
+            this.maxWorkDirBytes = maxWorkDirBytes;
+            this.useClonelessPush = useClonelessPush;
+            this.toolGuard = toolGuard;
+        }
+
+        public boolean isUseClonelessPush() {
+            return useClonelessPush;
+        }
+
+        public ToolCacheLocks.Guard getToolGuard() {
+            return toolGuard;
+        }
+
+        /**
+         * Leases the directory on the agent to clone the downstream repositories into
+         */
+        public WorkDirectories.Lease leaseWorkDir() throws IOException {
+            return WorkDirectories.get().lease(new File(workDirRoot), workDirKey, maxWorkDirBytes);
+        }
+
+        public Configuration createConfiguration(TaskListener listener) {
+            Configuration configuration = new PooledConfiguration();
+            configuration.setPrintStream(listener.getLogger());
+            configuration.setUseHttpsTransport(true);
+            configuration.setGithubUsername(githubUsername);
+            configuration.setGithubPassword(Secret.toString(githubPassword));
+            configuration.setJenksinsfileGitRepo(jenkinsfileGitRepo);
+            if (mvnCommand != null) {
+                configuration.setMvnCommand(mvnCommand);
+                configuration.setMvnEnvironmentVariables(mvnEnvironmentVariables);
+            }
+            if (npmCommand != null) {
+                configuration.setNpmCommand(npmCommand);
+                configuration.setNpmEnvironmentVariables(npmEnvironmentVariables);
+            }
+            configuration.setSourcePath(sourcePath);
+            return configuration;
+        }
+
+        private static HashMap<String, String> copy(Map<String, String> map) {
+            return map != null ? new HashMap<>(map) : new HashMap<String, String>();
+        }
+    }
+
+    /**
+     * Which of the downstream repositories of a push an agent updates
+     */
+    public static class RepositoryAssignment implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final ArrayList<String> nodeNames;
+        private final String nodeName;
+
+        public RepositoryAssignment(List<String> nodeNames, String nodeName) {
+            this.nodeNames = new ArrayList<>(nodeNames);
+            this.nodeName = nodeName;
+        }
+
+        public String getNodeName() {
+            return nodeName;
+        }
+
+        /**
+         * Returns true if the repository is updated by this agent rather than one of the others
+         */
+        public boolean isAssigned(String repository) {
+            return nodeName.equals(selectNodeName(nodeNames, repository));
+        }
+    }
+
+    /**
+     * Pushes the source changes on the agent returning the id of the push to poll and which repositories failed
+     */
+    public static class StartPush extends MasterToSlaveCallable<StartedPush, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final Settings settings;
+        private final TaskListener listener;
+        private final CircuitBreakingPushSourceChanges.Gate gate;
+        private final CircuitBreakingPushSourceChanges.Budget budget;
+        private final RepositoryAssignment assignment;
+
+        /**
+         * @param gate the circuit breakers of the master exported over the channel of the agent
+         */
+        public StartPush(Settings settings, TaskListener listener, CircuitBreakingPushSourceChanges.Gate gate, CircuitBreakingPushSourceChanges.Budget budget,
+                         RepositoryAssignment assignment) {
+            this.settings = settings;
+            this.listener = listener;
+            this.gate = gate;
+            this.budget = budget;
+            this.assignment = assignment;
+        }
+
+        @Override
+        public StartedPush call() throws IOException {
+            expireIdle();
+            UpdateBot updatebot = new UpdateBot();
+            Configuration configuration = settings.createConfiguration(listener);
+            updatebot.setConfiguration(configuration);
+            CircuitBreakingPushSourceChanges command = new CircuitBreakingPushSourceChanges(gate, listener.getLogger(), budget, settings.isUseClonelessPush());
+            command.setAssignment(assignment);
+            command.setToolGuard(settings.getToolGuard());
+            updatebot.setCommand(command);
+            WorkDirectories.Lease workDir = settings.leaseWorkDir();
+            configuration.setWorkDir(workDir.getDir().getPath());
+            STARTING.put(budget.getCookie(), command);
+            try {
+                command.run(configuration);
+            } catch (IOException | RuntimeException e) {
+                workDir.release();
+                throw e;
+            } finally {
+                STARTING.remove(budget.getCookie());
+            }
+
+            CircuitBreakingPushSourceChanges.Outcome outcome = command.getOutcome();
+            String id = null;
+            if (outcome.isSucceeded()) {
+                id = UUID.randomUUID().toString();
+                RepeatedLineFilter filter = new RepeatedLineFilter(listener.getLogger());
+                configuration.setPrintStream(filter.createPrintStream());
+                Channel channel = Channel.current();
+                PUSHES.put(id, new AgentPush(updatebot, filter, workDir, channel));
+                forgetOnClose(channel);
+            } else {
+                workDir.release();
+            }
+            return new StartedPush(id, outcome);
+        }
+    }
+
+    /**
+     * The result of starting a push on an agent; the id is null if any repository failed
+     */
+    public static class StartedPush implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+        private final CircuitBreakingPushSourceChanges.Outcome outcome;
+
+        public StartedPush(String id, CircuitBreakingPushSourceChanges.Outcome outcome) {
+            this.id = id;
+            this.outcome = outcome;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public CircuitBreakingPushSourceChanges.Outcome getOutcome() {
+            return outcome;
+        }
+    }
+
+    /**
+     * A push started on an agent as seen from the master
+     */
+    public static class RemotePush {
+        private final VirtualChannel channel;
+        private final String nodeName;
+        private final String id;
+        private final ToolCacheLocks.Guard toolGuard;
+        private volatile boolean complete;
+
+        /**
+         * @param toolGuard the locks to hold on the agent while polling as a poll may rebase pull requests
+         */
+        public RemotePush(VirtualChannel channel, String nodeName, String id, ToolCacheLocks.Guard toolGuard) {
+            this.channel = channel;
+            this.nodeName = nodeName;
+            this.id = id;
+            this.toolGuard = toolGuard;
+        }
+
+        public String getNodeName() {
+            return nodeName;
+        }
+
+        /**
+         * Polls the push on the agent unless it has already completed
+         */
+        public boolean isPending() throws IOException {
+            if (complete) {
+                return false;
+            }
+            try {
+                complete = !channel.call(new PollPush(id, toolGuard));
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while polling UpdateBot on " + nodeName, e);
+            }
+            return !complete;
+        }
+
+        /**
+         * Forgets the push on the agent
+         */
+        public void cancel() {
+            if (complete) {
+                return;
+            }
+            complete = true;
+            try {
+                channel.call(new CancelPush(id));
+            } catch (Exception e) {
+                // ignore as the agent may have gone
+            }
+        }
+    }
+
+    /**
+     * Polls the push on the agent returning true if any of its pull requests or issues are still pending
+     */
+    public static class PollPush extends MasterToSlaveCallable<Boolean, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+        private final ToolCacheLocks.Guard toolGuard;
+
+        public PollPush(String id, ToolCacheLocks.Guard toolGuard) {
+            this.id = id;
+            this.toolGuard = toolGuard;
+        }
+
+        @Override
+        public Boolean call() throws IOException {
+            expireIdle();
+            AgentPush push = PUSHES.get(id);
+            if (push == null) {
+                throw new IOException("Unknown UpdateBot push " + id + " the agent may have been restarted or it was not polled for too long");
+            }
+            push.lastPolled = System.currentTimeMillis();
+            final UpdateBot updatebot = push.updatebot;
+            boolean pending;
+            try {
+                push.pollLogFilter.nextPoll();
+                pending = StatusInfo.isPending(toolGuard.call(null, new Callable<Map<String, StatusInfo>>() {
+                    @Override
+                    public Map<String, StatusInfo> call() throws Exception {
+                        return updatebot.poll();
+                    }
+                }));
+            } catch (IOException | RuntimeException e) {
+                remove(id);
+                throw e;
+            } catch (Exception e) {
+                remove(id);
+                throw new IOException("Failed to poll UpdateBot: " + e, e);
+            }
+            if (!pending) {
+                remove(id);
+            }
+            return pending;
+        }
+    }
+
+    /**
+     * Aborts a push which is still updating repositories on the agent killing its tool processes
+     */
+    public static class AbortPush extends MasterToSlaveCallable<Void, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String cookie;
+
+        public AbortPush(String cookie) {
+            this.cookie = cookie;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            CircuitBreakingPushSourceChanges command = STARTING.get(cookie);
+            if (command != null) {
+                command.abort();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Forgets a push on the agent which is no longer being polled
+     */
+    public static class CancelPush extends MasterToSlaveCallable<Void, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+
+        public CancelPush(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            remove(id);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import jenkins.model.Jenkins;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the failures of each downstream repository so that pushes can skip repositories which keep failing.
+ * <p>
+ * After a number of consecutive failures the circuit of a repository is opened and pushes skip it. Once the retry
+ * period has passed the first push which is about to update the repository is allowed to try it again; if that
+ * succeeds the circuit is closed, otherwise it stays open for another retry period. The state is saved in
+ * <code>JENKINS_HOME/updatebot</code> so that it survives restarts.
+ */
+@Extension
+public class RepositoryCircuitBreakers implements Saveable, CircuitBreakingPushSourceChanges.Gate {
+    private static final transient Logger LOG = LoggerFactory.getLogger(RepositoryCircuitBreakers.class);
+
+    private final Map<String, Breaker> breakers = new TreeMap<>();
+    private transient boolean loaded;
+
+    public static RepositoryCircuitBreakers get() {
+        return ExtensionList.lookup(RepositoryCircuitBreakers.class).get(0);
+    }
+
+    /**
+     * Returns true if a push may update the repository now. A push asks only once it is about to update the
+     * repository so that repositories it does not update are left alone; if the retry period of an open circuit has
+     * passed the circuit is half opened so that the caller is the only push trying the repository again.
+     */
+    @Override
+    public synchronized boolean tryAttempt(String repository) {
+        load();
+        Breaker breaker = breakers.get(repository);
+        if (breaker == null || !breaker.isOpen() || getFailureThreshold() <= 0) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        long retryMS = getRetryMS();
+        if (breaker.halfOpen ? now - breaker.retryStarted < retryMS : now - breaker.lastAttempt < retryMS) {
+            return false;
+        }
+        breaker.halfOpen = true;
+        breaker.retryStarted = now;
+        LOG.info("Retrying repository " + repository + " whose circuit is open");
+        saveQuietly();
+        return true;
+    }
+
+    /**
+     * Records the results of updating the downstream repositories of a push; repositories which were not attempted
+     * because the push was aborted or ran out of time are left as they were before the push half opened them
+     */
+    public synchronized void record(CircuitBreakingPushSourceChanges.Outcome outcome) {
+        load();
+        long now = System.currentTimeMillis();
+        int threshold = getFailureThreshold();
+        for (String repository : outcome.getSucceeded()) {
+            Breaker breaker = breakers.remove(repository);
+            if (breaker != null && breaker.isOpen()) {
+                LOG.info("Closing the circuit of repository " + repository + " as it has been updated successfully");
+            }
+        }
+        for (Map.Entry<String, String> entry : outcome.getFailures().entrySet()) {
+            String repository = entry.getKey();
+            Breaker breaker = breakers.get(repository);
+            if (breaker == null) {
+                breaker = new Breaker();
+                breakers.put(repository, breaker);
+            }
+            breaker.consecutiveFailures++;
+            breaker.lastAttempt = now;
+            breaker.lastError = entry.getValue();
+            breaker.halfOpen = false;
+            if (threshold > 0 && breaker.consecutiveFailures >= threshold && !breaker.open) {
+                breaker.open = true;
+                LOG.warn("Opening the circuit of repository " + repository + " after " + breaker.consecutiveFailures + " consecutive failures");
+            }
+        }
+        for (String repository : outcome.getNotAttempted().keySet()) {
+            Breaker breaker = breakers.get(repository);
+            if (breaker != null) {
+                // let the next push retry it straight away
+                breaker.halfOpen = false;
+            }
+        }
+        saveQuietly();
+    }
+
+    /**
+     * Closes the circuit of the given repository and forgets its failures
+     */
+    public synchronized void reset(String repository) {
+        load();
+        if (breakers.remove(repository) != null) {
+            saveQuietly();
+        }
+    }
+
+    /**
+     * Returns the state of all the repositories which have failed recently
+     */
+    public synchronized List<BreakerState> getBreakers() {
+        load();
+        List<BreakerState> answer = new ArrayList<>();
+        for (Map.Entry<String, Breaker> entry : breakers.entrySet()) {
+            Breaker breaker = entry.getValue();
+            answer.add(new BreakerState(entry.getKey(), breaker.consecutiveFailures, breaker.isOpen(), breaker.halfOpen, breaker.lastAttempt, breaker.lastError));
+        }
+        return answer;
+    }
+
+    @Override
+    public synchronized void save() throws IOException {
+        getConfigFile().write(this);
+    }
+
+    protected void saveQuietly() {
+        try {
+            save();
+        } catch (IOException e) {
+            LOG.warn("Failed to save the circuit breakers to " + getConfigFile() + ": " + e, e);
+        }
+    }
+
+    protected void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        XmlFile file = getConfigFile();
+        if (file.exists()) {
+            try {
+                file.unmarshal(this);
+            } catch (IOException e) {
+                LOG.warn("Failed to load the circuit breakers from " + file + ": " + e, e);
+            }
+        }
+    }
+
+    protected XmlFile getConfigFile() {
+        File dir = new File(Jenkins.getInstance().getRootDir(), "updatebot");
+        return new XmlFile(Jenkins.XSTREAM2, new File(dir, "circuit-breakers.xml"));
+    }
+
+    /**
+     * Returns the number of consecutive failures which open the circuit of a repository or 0 to never open it
+     */
+    protected int getFailureThreshold() {
+        return GlobalPluginConfiguration.get().getCircuitBreakerFailures();
+    }
+
+    /**
+     * Returns how long an open circuit stays open before a push may try the repository again
+     */
+    protected long getRetryMS() {
+        return TimeUnit.MINUTES.toMillis(GlobalPluginConfiguration.get().getCircuitBreakerRetryMinutes());
+    }
+
+    private static class Breaker {
+        private int consecutiveFailures;
+        private boolean open;
+        private boolean halfOpen;
+        private long lastAttempt;
+        private long retryStarted;
+        private String lastError;
+
+        boolean isOpen() {
+            return open;
+        }
+    }
+
+    /**
+     * A snapshot of the circuit of a repository
+     */
+    public static class BreakerState {
+        private final String repository;
+        private final int consecutiveFailures;
+        private final boolean open;
+        private final boolean halfOpen;
+        private final long lastAttempt;
+        private final String lastError;
+
+        BreakerState(String repository, int consecutiveFailures, boolean open, boolean halfOpen, long lastAttempt, String lastError) {
+            this.repository = repository;
+            this.consecutiveFailures = consecutiveFailures;
+            this.open = open;
+            this.halfOpen = halfOpen;
+            this.lastAttempt = lastAttempt;
+            this.lastError = lastError;
+        }
+
+        public String getRepository() {
+            return repository;
+        }
+
+        public int getConsecutiveFailures() {
+            return consecutiveFailures;
+        }
+
+        public String getState() {
+            if (halfOpen) {
+                return "Retrying";
+            }
+            return open ? "Open" : "Closed";
+        }
+
+        public Date getLastAttempt() {
+            return new Date(lastAttempt);
+        }
+
+        public String getLastError() {
+            return lastError;
+        }
+    }
+}
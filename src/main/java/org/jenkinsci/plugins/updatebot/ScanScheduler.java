@@ -0,0 +1,207 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot;
+
+import com.cloudbees.hudson.plugins.folder.computed.ComputedFolder;
+import com.cloudbees.hudson.plugins.folder.computed.FolderComputation;
+import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
+import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Cause;
+import hudson.model.Item;
+import io.fabric8.utils.Strings;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.updatebot.support.GitHubHelpers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.jenkinsci.plugins.updatebot.UpdateBotPushStepExecution.lookupGithubCredentials;
+
+/**
+ * Queues up the branch scans of imported projects so that bulk imports do not start hundreds of scans at once.
+ * <p>
+ * Scheduling the same project again before its quiet period has elapsed restarts the quiet period. Scans are then
+ * released one at a time, no more often than the configured interval, while fewer than the maximum number of scans
+ * are running and the GitHub rate limit has enough remaining API calls.
+ */
+@Extension
+public class ScanScheduler {
+    private static final transient Logger LOG = LoggerFactory.getLogger(ScanScheduler.class);
+    private static final long TICK_PERIOD_MS = 1000L;
+    private static final long RATE_LIMIT_CHECK_PERIOD_MS = 60000L;
+    private static final long MAX_SCAN_TRACKING_MS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * The full names of the folders waiting to be scanned and the time they are due
+     */
+    private final Map<String, Long> pending = new LinkedHashMap<>();
+    /**
+     * The full names of the folders we have triggered and the time we triggered them
+     */
+    private final Map<String, Long> running = new LinkedHashMap<>();
+    private Future<?> ticker;
+    private long lastReleaseTime;
+    private long lastRateLimitCheck;
+    private int remainingApiCalls = -1;
+
+    public static ScanScheduler get() {
+        return ExtensionList.lookup(ScanScheduler.class).get(0);
+    }
+
+    /**
+     * Queues a scan of the given folder, restarting the quiet period if it is already queued
+     */
+    public synchronized void schedule(ComputedFolder<?> folder) {
+        String fullName = folder.getFullName();
+        long quietPeriod = TimeUnit.SECONDS.toMillis(GlobalPluginConfiguration.get().getScanQuietPeriodSeconds());
+        pending.remove(fullName);
+        pending.put(fullName, System.currentTimeMillis() + quietPeriod);
+        if (ticker == null) {
+            ticker = Timer.get().scheduleWithFixedDelay(createTicker(), TICK_PERIOD_MS, TICK_PERIOD_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Returns the full names of the folders waiting to be scanned
+     */
+    public synchronized List<String> getPending() {
+        return new ArrayList<>(pending.keySet());
+    }
+
+    /**
+     * Returns the full names of the folders whose scans have been triggered and have not yet completed
+     */
+    public synchronized List<String> getRunning() {
+        return new ArrayList<>(running.keySet());
+    }
+
+    public synchronized int getQueueDepth() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the last known number of remaining GitHub API calls or -1 if it is not known
+     */
+    public synchronized int getRemainingApiCalls() {
+        return remainingApiCalls;
+    }
+
+    protected void tick() {
+        checkRateLimit();
+
+        synchronized (this) {
+            Jenkins jenkins = Jenkins.getInstance();
+            long now = System.currentTimeMillis();
+            Iterator<Map.Entry<String, Long>> iter = running.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<String, Long> entry = iter.next();
+                Item item = jenkins.getItemByFullName(entry.getKey());
+                if (!(item instanceof ComputedFolder) || !isScanning((ComputedFolder<?>) item) || now - entry.getValue() > MAX_SCAN_TRACKING_MS) {
+                    iter.remove();
+                }
+            }
+
+            GlobalPluginConfiguration config = GlobalPluginConfiguration.get();
+            long minInterval = TimeUnit.SECONDS.toMillis(config.getMinScanIntervalSeconds());
+            if (remainingApiCalls >= 0 && remainingApiCalls < config.getMinRemainingApiCalls()) {
+                LOG.debug("Holding back " + pending.size() + " branch scans as only " + remainingApiCalls + " GitHub API calls remain");
+            } else {
+                iter = pending.entrySet().iterator();
+                while (iter.hasNext() && running.size() < config.getMaxConcurrentScans() && now - lastReleaseTime >= minInterval) {
+                    Map.Entry<String, Long> entry = iter.next();
+                    if (entry.getValue() > now) {
+                        break;
+                    }
+                    iter.remove();
+                    String fullName = entry.getKey();
+                    Item item = jenkins.getItemByFullName(fullName);
+                    if (item instanceof ComputedFolder) {
+                        ((ComputedFolder<?>) item).scheduleBuild(0, new Cause.UserIdCause());
+                        running.put(fullName, now);
+                        lastReleaseTime = now;
+                        UpdateBotEvents.get().emit(UpdateBotEvents.SCAN_TRIGGERED, fullName, null, null, pending.size(), -1);
+                        LOG.info("Triggered scan job " + fullName + " with " + pending.size() + " scans still pending");
+                    } else {
+                        LOG.warn("Cannot scan " + fullName + " as it is not a ComputedFolder but is " + item);
+                    }
+                }
+            }
+
+            if (pending.isEmpty() && running.isEmpty() && ticker != null) {
+                ticker.cancel(false);
+                ticker = null;
+            }
+        }
+    }
+
+    protected void checkRateLimit() {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (pending.isEmpty() || now - lastRateLimitCheck < RATE_LIMIT_CHECK_PERIOD_MS) {
+                return;
+            }
+            lastRateLimitCheck = now;
+        }
+        String credentialsId = GlobalPluginConfiguration.get().getCredentialsId();
+        if (Strings.isNullOrBlank(credentialsId)) {
+            return;
+        }
+        int remaining = -1;
+        try {
+            StandardUsernameCredentials credentials = lookupGithubCredentials(credentialsId);
+            if (credentials instanceof UsernamePasswordCredentials) {
+                remaining = GitHubHelpers.getRemainingApiCalls((UsernamePasswordCredentials) credentials);
+            }
+        } catch (Exception e) {
+            LOG.warn("Failed to query the GitHub rate limit: " + e, e);
+        }
+        synchronized (this) {
+            remainingApiCalls = remaining;
+        }
+    }
+
+    protected static boolean isScanning(ComputedFolder<?> folder) {
+        if (Jenkins.getInstance().getQueue().contains(folder)) {
+            return true;
+        }
+        FolderComputation<?> computation = folder.getComputation();
+        return computation != null && computation.getResult() == null;
+    }
+
+    protected Runnable createTicker() {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tick();
+                } catch (Exception e) {
+                    LOG.warn("Failed to trigger branch scans: " + e, e);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import org.jenkinsci.plugins.updatebot.support.PollComplete;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lets a push of the same source repository and versions as a push which is already running share its pull
+ * requests rather than cloning and pushing to every downstream repository again, which happens when builds are
+ * replayed or re-triggered.
+ * <p>
+ * Pushes are keyed by a hash of the manifests of their workspace. Only pushes which wait for their pull requests
+ * can be shared; if the shared push is stopped the pushes following it run their own push instead.
+ */
+@Extension
+public class SharedPushes {
+    private final Map<String, Shared> pushes = new HashMap<>();
+
+    public static SharedPushes get() {
+        return ExtensionList.lookup(SharedPushes.class).get(0);
+    }
+
+    /**
+     * Follows the running push with the given key or registers a new push for the caller to lead which it must
+     * {@link #finish(Shared, PollComplete)} or {@link #abandon(Shared)}
+     *
+     * @param canLead false if the caller cannot be followed in which case null is returned if there is nothing to follow
+     */
+    public synchronized Membership join(String key, String name, boolean canLead) {
+        Shared shared = pushes.get(key);
+        if (shared != null) {
+            shared.followers++;
+            return new Membership(shared, false);
+        }
+        if (!canLead) {
+            return null;
+        }
+        shared = new Shared(key, name);
+        pushes.put(key, shared);
+        return new Membership(shared, true);
+    }
+
+    /**
+     * Completes the shared push so that its followers complete with the same result
+     */
+    public synchronized void finish(Shared shared, PollComplete complete) {
+        shared.complete = complete;
+        remove(shared);
+    }
+
+    /**
+     * Tells the followers of the shared push that they need to push themselves
+     */
+    public synchronized void abandon(Shared shared) {
+        shared.abandoned = true;
+        remove(shared);
+    }
+
+    public synchronized int getCount() {
+        return pushes.size();
+    }
+
+    private void remove(Shared shared) {
+        if (pushes.get(shared.key) == shared) {
+            pushes.remove(shared.key);
+        }
+    }
+
+    /**
+     * The shared push a push has joined and whether it leads it
+     */
+    public static class Membership {
+        private final Shared shared;
+        private final boolean leader;
+
+        Membership(Shared shared, boolean leader) {
+            this.shared = shared;
+            this.leader = leader;
+        }
+
+        public Shared getShared() {
+            return shared;
+        }
+
+        public boolean isLeader() {
+            return leader;
+        }
+    }
+
+    /**
+     * A push which other pushes can follow
+     */
+    public static class Shared implements PendingPushRegistry.Poller {
+        private final String key;
+        private final String name;
+        private volatile int followers;
+        private volatile PollComplete complete;
+        private volatile boolean abandoned;
+
+        Shared(String key, String name) {
+            this.key = key;
+            this.name = name;
+        }
+
+        /**
+         * Returns the name of the build running the shared push
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the number of pushes which have followed this push
+         */
+        public int getFollowers() {
+            return followers;
+        }
+
+        /**
+         * Returns the result of the shared push or null if it is still running
+         */
+        public PollComplete getComplete() {
+            return complete;
+        }
+
+        /**
+         * Returns true if the shared push was stopped before it completed
+         */
+        public boolean isAbandoned() {
+            return abandoned;
+        }
+
+        /**
+         * Polls the shared push on behalf of a follower which does not wait for its pull requests
+         */
+        @Override
+        public boolean isPending() throws IOException {
+            if (abandoned) {
+                throw new IOException("The UpdateBot push of " + name + " which this push was sharing was stopped");
+            }
+            PollComplete answer = complete;
+            if (answer == null) {
+                return true;
+            }
+            if (answer.getFailure() != null) {
+                throw new IOException("The UpdateBot push of " + name + " which this push was sharing failed: " + answer.getFailure(), answer.getFailure());
+            }
+            return false;
+        }
+
+        /**
+         * Nothing to release as the push being shared keeps running for the build which leads it
+         */
+        @Override
+        public void cancel() {
+        }
+    }
+}
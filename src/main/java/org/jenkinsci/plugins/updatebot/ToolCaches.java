@@ -0,0 +1,268 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.FilePath;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import io.fabric8.utils.Strings;
+import jenkins.model.Jenkins;
+import jenkins.security.MasterToSlaveCallable;
+import org.jenkinsci.plugins.updatebot.support.CacheEvictionHelpers;
+import org.jenkinsci.plugins.updatebot.support.ToolCacheLocks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Manages the maven local repository and npm cache shared by all the maven and npm processes UpdateBot runs on a
+ * node so that they neither download everything from scratch nor use the home directory of the user running them.
+ * Each node, the master and every agent running pushes, has its own caches under <code>updatebot/caches</code> in
+ * its root directory.
+ * <p>
+ * The parts of pushes and polls which may run tools hold the read lock of the node's {@link ToolCacheLocks} while
+ * eviction holds the write lock so that artifacts are never deleted from underneath a running build. Maven 3.9 or
+ * later and the Maven Daemon are told to lock the local repository themselves so that concurrent pushes can share
+ * it; older versions of maven are run one at a time.
+ */
+@Extension
+public class ToolCaches {
+    public static final String MAVEN_OPTS = "MAVEN_OPTS";
+    public static final String NPM_CONFIG_CACHE = "npm_config_cache";
+    /**
+     * Makes maven lock the artifacts it writes to the local repository so that several processes can share it
+     */
+    public static final String MAVEN_REPOSITORY_LOCKING = "-Daether.syncContext.named.factory=file-lock -Daether.syncContext.named.nameMapper=file-gav";
+
+    private static final Pattern MAVEN_RESOLVER_JAR = Pattern.compile("maven-resolver-api-(\\d+)\\.(\\d+).*\\.jar");
+
+    private volatile long mavenRepositorySize = -1;
+    private volatile long npmCacheSize = -1;
+
+    public static ToolCaches get() {
+        return ExtensionList.lookup(ToolCaches.class).get(0);
+    }
+
+    public File getMavenRepository() {
+        return new File(getCachesDir(), "m2");
+    }
+
+    public File getNpmCache() {
+        return new File(getCachesDir(), "npm");
+    }
+
+    public File getCachesDir() {
+        return new File(new File(Jenkins.getInstance().getRootDir(), "updatebot"), "caches");
+    }
+
+    /**
+     * Returns the directory of the tool caches of a node given the root of the node
+     */
+    public static FilePath getCachesDir(FilePath nodeRoot) {
+        return nodeRoot.child("updatebot").child("caches");
+    }
+
+    /**
+     * Points maven at the shared local repository of a node
+     *
+     * @param repositoryLocking true if maven can lock the local repository itself
+     */
+    public void configureMaven(Map<String, String> envVarMap, FilePath cachesDir, boolean repositoryLocking) throws IOException, InterruptedException {
+        FilePath dir = cachesDir.child("m2");
+        dir.mkdirs();
+        String option = "-Dmaven.repo.local=" + dir.getRemote();
+        if (repositoryLocking) {
+            option += " " + MAVEN_REPOSITORY_LOCKING;
+        }
+        String mavenOpts = envVarMap.get(MAVEN_OPTS);
+        envVarMap.put(MAVEN_OPTS, Strings.isNullOrBlank(mavenOpts) ? option : mavenOpts + " " + option);
+    }
+
+    /**
+     * Points npm at the shared cache of a node
+     */
+    public void configureNpm(Map<String, String> envVarMap, FilePath cachesDir) throws IOException, InterruptedException {
+        FilePath dir = cachesDir.child("npm");
+        dir.mkdirs();
+        envVarMap.put(NPM_CONFIG_CACHE, dir.getRemote());
+    }
+
+    /**
+     * Returns true if the maven installation can lock the local repository itself so that several processes can
+     * share it, which needs the maven resolver 1.9 of Maven 3.9 or later
+     */
+    public static boolean supportsRepositoryLocking(FilePath mavenHome) throws IOException, InterruptedException {
+        FilePath lib = mavenHome.child("lib");
+        if (!lib.isDirectory()) {
+            return false;
+        }
+        for (FilePath jar : lib.list("maven-resolver-api-*.jar")) {
+            Matcher matcher = MAVEN_RESOLVER_JAR.matcher(jar.getName());
+            if (matcher.matches()) {
+                int major = Integer.parseInt(matcher.group(1));
+                int minor = Integer.parseInt(matcher.group(2));
+                return major > 1 || (major == 1 && minor >= 9);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Evicts old and least recently modified entries from the caches of the master once no UpdateBot command is
+     * using them
+     *
+     * @return false if the caches were in use for the whole timeout so nothing was evicted
+     */
+    public boolean evict(long maxBytes, long maxAgeMillis, long timeout, TimeUnit unit) throws InterruptedException {
+        long[] sizes = evict(getMavenRepository(), getNpmCache(), maxBytes, maxAgeMillis, timeout, unit);
+        if (sizes == null) {
+            return false;
+        }
+        mavenRepositorySize = sizes[0];
+        npmCacheSize = sizes[1];
+        return true;
+    }
+
+    /**
+     * Evicts entries from the caches of this JVM's node
+     *
+     * @return the sizes of the maven repository and npm cache after eviction or null if the caches were in use for
+     * the whole timeout
+     */
+    private static long[] evict(File mavenRepository, File npmCache, long maxBytes, long maxAgeMillis, long timeout, TimeUnit unit) throws InterruptedException {
+        Lock writeLock = ToolCacheLocks.get().lockForEviction(timeout, unit);
+        if (writeLock == null) {
+            return null;
+        }
+        try {
+            // the maven repository is usually much larger so give it most of the quota
+            return new long[]{
+                    CacheEvictionHelpers.evict(mavenRepository, maxBytes * 3 / 4, maxAgeMillis, true),
+                    CacheEvictionHelpers.evict(npmCache, maxBytes / 4, maxAgeMillis, false)
+            };
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the size in bytes of the maven repository of the master when it was last evicted or -1 if it has not been
+     */
+    public long getMavenRepositorySize() {
+        return mavenRepositorySize;
+    }
+
+    /**
+     * Returns the size in bytes of the npm cache of the master when it was last evicted or -1 if it has not been
+     */
+    public long getNpmCacheSize() {
+        return npmCacheSize;
+    }
+
+    /**
+     * Evicts entries from the tool caches of an agent
+     */
+    private static class EvictAgentCaches extends MasterToSlaveCallable<Boolean, InterruptedException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String cachesDir;
+        private final long maxBytes;
+        private final long maxAgeMillis;
+        private final long timeoutMinutes;
+
+        EvictAgentCaches(String cachesDir, long maxBytes, long maxAgeMillis, long timeoutMinutes) {
+            this.cachesDir = cachesDir;
+            this.maxBytes = maxBytes;
+            this.maxAgeMillis = maxAgeMillis;
+            this.timeoutMinutes = timeoutMinutes;
+        }
+
+        @Override
+        public Boolean call() throws InterruptedException {
+            File dir = new File(cachesDir);
+            if (!dir.isDirectory()) {
+                return true;
+            }
+            return evict(new File(dir, "m2"), new File(dir, "npm"), maxBytes, maxAgeMillis, timeoutMinutes, TimeUnit.MINUTES) != null;
+        }
+    }
+
+    /**
+     * Periodically evicts entries from the tool caches of the master and of the online agents
+     */
+    @Extension
+    public static class Eviction extends AsyncPeriodicWork {
+        private static final long EVICTION_LOCK_TIMEOUT_MINUTES = 10;
+
+        public Eviction() {
+            super("UpdateBot tool cache eviction");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return HOUR;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) throws IOException, InterruptedException {
+            GlobalPluginConfiguration config = GlobalPluginConfiguration.get();
+            if (!config.isUseSharedToolCaches()) {
+                return;
+            }
+            long maxBytes = config.getMaxToolCacheSizeMB() * 1024L * 1024L;
+            long maxAge = TimeUnit.DAYS.toMillis(config.getMaxToolCacheAgeDays());
+            List<String> nodeNames = new ArrayList<>();
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (Node node : Jenkins.getInstance().getNodes()) {
+                Computer computer = node.toComputer();
+                VirtualChannel channel = node.getChannel();
+                FilePath root = node.getRootPath();
+                if (computer == null || computer.isOffline() || channel == null || root == null) {
+                    continue;
+                }
+                nodeNames.add(node.getNodeName());
+                futures.add(channel.callAsync(new EvictAgentCaches(getCachesDir(root).getRemote(), maxBytes, maxAge, EVICTION_LOCK_TIMEOUT_MINUTES)));
+            }
+            if (!ToolCaches.get().evict(maxBytes, maxAge, EVICTION_LOCK_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                listener.getLogger().println("Skipping tool cache eviction on the master as the caches have been in use for " + EVICTION_LOCK_TIMEOUT_MINUTES + " minutes");
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    if (!futures.get(i).get()) {
+                        listener.getLogger().println("Skipping tool cache eviction on " + nodeNames.get(i) + " as the caches have been in use for " + EVICTION_LOCK_TIMEOUT_MINUTES + " minutes");
+                    }
+                } catch (ExecutionException e) {
+                    listener.getLogger().println("Failed to evict the tool caches of " + nodeNames.get(i) + ": " + e.getCause());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 Original Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jenkinsci.plugins.updatebot;
+
+import hudson.model.TaskListener;
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.updatebot.support.PollComplete;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class UpdateBotAwaitStepExecution extends AbstractStepExecutionImpl {
+    private static final long serialVersionUID = 1L;
+
+    @Inject
+    private transient UpdateBotAwaitStep step;
+    private final String handle;
+    private final long pollPeriodMS;
+    private transient Future<?> task;
+    private transient boolean shouldStop;
+    private transient PrintStream logger;
+
+    public UpdateBotAwaitStepExecution(UpdateBotAwaitStep step, StepContext context) {
+        super(context);
+        this.step = step;
+        this.handle = step.getHandle();
+        this.pollPeriodMS = step.getPollPeriodMS();
+    }
+
+    @Override
+    public boolean start() throws Exception {
+        shouldStop = false;
+        if (!PendingPushRegistry.get().contains(handle)) {
+            throw new IOException("Unknown UpdateBot handle " + handle + ". It may have already been awaited or Jenkins may have been restarted since the push");
+        }
+        getLogger().println("Waiting for the pull requests of UpdateBot push " + handle);
+        task = Timer.get().submit(createAwaitPoller());
+        return false;
+    }
+
+    /**
+     * Handles are only kept in memory so after a restart of Jenkins there is nothing left to wait for; carry on
+     * waiting only if the handle is still known, which is the case when just the pipeline was resumed
+     */
+    @Override
+    public void onResume() {
+        shouldStop = false;
+        if (!PendingPushRegistry.get().contains(handle)) {
+            getContext().onFailure(new IOException("Lost the UpdateBot handle " + handle + " as Jenkins was restarted while awaiting it; "
+                    + "the pull requests of the push are no longer polled"));
+            return;
+        }
+        getLogger().println("Resumed waiting for the pull requests of UpdateBot push " + handle);
+        task = Timer.get().submit(createAwaitPoller());
+    }
+
+    @Override
+    public void stop(@Nonnull Throwable cause) throws Exception {
+        shouldStop = true;
+        if (task != null) {
+            task.cancel(true);
+        }
+        getContext().onFailure(cause);
+    }
+
+    protected void pollAwait() {
+        PollComplete complete = PendingPushRegistry.get().takeResult(handle);
+        if (complete != null) {
+            complete.apply(getContext(), getLogger());
+        } else if (shouldStop) {
+            getLogger().println("UpdateBot await is terminating");
+        } else {
+            task = Timer.get().schedule(createAwaitPoller(), pollPeriodMS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    protected PrintStream getLogger() {
+        if (logger == null) {
+            try {
+                TaskListener listener = getContext().get(TaskListener.class);
+                if (listener != null) {
+                    this.logger = listener.getLogger();
+                }
+            } catch (Exception e) {
+                // ignore
+            }
+            if (logger == null) {
+                logger = System.out;
+            }
+        }
+        return logger;
+    }
+
+    protected Runnable createAwaitPoller() {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pollAwait();
+                } catch (Exception e) {
+                    getLogger().println("Failed to await UpdateBot: " + e);
+                    getContext().onFailure(e);
+                }
+            }
+        };
+    }
+}
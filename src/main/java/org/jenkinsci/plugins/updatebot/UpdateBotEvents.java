@@ -0,0 +1,335 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import io.fabric8.updatebot.commands.StatusInfo;
+import jenkins.model.Jenkins;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes a newline delimited JSON event for each step of the lifecycle of pushes and imports to
+ * <code>JENKINS_HOME/updatebot/events/events.ndjson</code> so that UpdateBot activity can be analysed without
+ * parsing build logs.
+ * <p>
+ * Events are only added to a bounded queue by the step threads and are written by a single daemon thread; when the
+ * queue is full events are dropped and counted rather than making a push wait for the disk. The file is rotated
+ * once it reaches its share of the configured size keeping {@link #MAX_FILES} files.
+ */
+@Extension
+public class UpdateBotEvents {
+    public static final String PUSH_STARTED = "push.started";
+    public static final String PUSH_SHARED = "push.shared";
+    public static final String PUSH_COMPLETED = "push.completed";
+    public static final String PUSH_FAILED = "push.failed";
+    public static final String REPOSITORY_CLONED = "repository.cloned";
+    public static final String REPOSITORY_PUSHED = "repository.pushed";
+    public static final String REPOSITORY_FAILED = "repository.failed";
+    public static final String REPOSITORY_NOT_ATTEMPTED = "repository.notAttempted";
+    public static final String REPOSITORY_MERGED = "repository.merged";
+    public static final String POLL = "poll";
+    public static final String IMPORT_FOLDER_CREATED = "import.folder.created";
+    public static final String IMPORT_FOLDER_UPDATED = "import.folder.updated";
+    public static final String IMPORT_PROJECT_CREATED = "import.project.created";
+    public static final String SCAN_QUEUED = "scan.queued";
+    public static final String SCAN_TRIGGERED = "scan.triggered";
+
+    public static final int MAX_FILES = 5;
+
+    private static final transient Logger LOG = LoggerFactory.getLogger(UpdateBotEvents.class);
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final int MAX_BATCH = 512;
+    private static final String FILE_NAME = "events";
+    private static final String FILE_EXTENSION = ".ndjson";
+
+    private final BlockingQueue<Event> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicBoolean writerStarted = new AtomicBoolean();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private volatile String lastError;
+
+    public static UpdateBotEvents get() {
+        return ExtensionList.lookup(UpdateBotEvents.class).get(0);
+    }
+
+    /**
+     * Emits an event about a push or import
+     */
+    public void emit(String type, String name) {
+        emit(type, name, null, null, -1, -1);
+    }
+
+    /**
+     * Emits an event about a repository of a push or import
+     */
+    public void emit(String type, String name, String repository, String detail) {
+        emit(type, name, repository, detail, -1, -1);
+    }
+
+    /**
+     * Emits an event without ever blocking, dropping it if the writer has fallen too far behind
+     *
+     * @param count      the number of repositories the event is about or -1 if it does not apply
+     * @param durationMS how long the step took or -1 if it does not apply
+     */
+    public void emit(String type, String name, String repository, String detail, int count, long durationMS) {
+        if (!ConfigurationSnapshot.get().isUseEventLog()) {
+            return;
+        }
+        if (!queue.offer(new Event(System.currentTimeMillis(), type, name, repository, detail, count, durationMS))) {
+            droppedCount.incrementAndGet();
+            return;
+        }
+        if (!writerStarted.get() && writerStarted.compareAndSet(false, true)) {
+            Thread thread = new Thread(new EventWriter(), "UpdateBot event writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public File getEventsDir() {
+        return new File(new File(Jenkins.getInstance().getRootDir(), "updatebot"), "events");
+    }
+
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    /**
+     * Returns the number of events dropped because the queue was full or they could not be written
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the error of the last failed write or null if writes are succeeding
+     */
+    public String getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Appends the event as a single line of JSON leaving out the fields which do not apply
+     */
+    protected static void appendJson(StringBuilder builder, Event event) {
+        builder.append("{\"time\":").append(event.time);
+        builder.append(",\"type\":");
+        appendString(builder, event.type);
+        if (event.name != null) {
+            builder.append(",\"name\":");
+            appendString(builder, event.name);
+        }
+        if (event.repository != null) {
+            builder.append(",\"repository\":");
+            appendString(builder, event.repository);
+        }
+        if (event.detail != null) {
+            builder.append(",\"detail\":");
+            appendString(builder, event.detail);
+        }
+        if (event.count >= 0) {
+            builder.append(",\"count\":").append(event.count);
+        }
+        if (event.durationMS >= 0) {
+            builder.append(",\"durationMS\":").append(event.durationMS);
+        }
+        builder.append("}\n");
+    }
+
+    private static void appendString(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        builder.append('"');
+    }
+
+    /**
+     * Emits an event for each repository whose pull requests were pending at the previous poll of a push but no
+     * longer are
+     */
+    public static class MergedRepositories {
+        private final Set<String> pendingAtLastPoll = new HashSet<>();
+
+        public synchronized void polled(String name, Map<String, StatusInfo> status) {
+            for (Map.Entry<String, StatusInfo> entry : status.entrySet()) {
+                boolean pending = StatusInfo.isPending(Collections.singletonMap(entry.getKey(), entry.getValue()));
+                if (pending) {
+                    pendingAtLastPoll.add(entry.getKey());
+                } else if (pendingAtLastPoll.remove(entry.getKey())) {
+                    get().emit(REPOSITORY_MERGED, name, entry.getKey(), String.valueOf(entry.getValue()));
+                }
+            }
+        }
+    }
+
+    protected static class Event {
+        private final long time;
+        private final String type;
+        private final String name;
+        private final String repository;
+        private final String detail;
+        private final int count;
+        private final long durationMS;
+
+        Event(long time, String type, String name, String repository, String detail, int count, long durationMS) {
+            this.time = time;
+            this.type = type;
+            this.name = name;
+            this.repository = repository;
+            this.detail = detail;
+            this.count = count;
+            this.durationMS = durationMS;
+        }
+    }
+
+    /**
+     * Drains the queue in batches reusing the same buffer for every line and flushing once per batch
+     */
+    private class EventWriter implements Runnable {
+        private final List<Event> batch = new ArrayList<>(MAX_BATCH);
+        private final StringBuilder line = new StringBuilder(256);
+        private Writer writer;
+        private long size;
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    write();
+                    lastError = null;
+                } catch (InterruptedException e) {
+                    close();
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    if (lastError == null) {
+                        LOG.warn("Failed to write UpdateBot events to " + getEventsDir() + ": " + e, e);
+                    }
+                    lastError = String.valueOf(e);
+                    droppedCount.addAndGet(batch.size());
+                    close();
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+
+        private void write() throws IOException {
+            File dir = getEventsDir();
+            if (writer == null) {
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    throw new IOException("Failed to create directory " + dir);
+                }
+                File file = new File(dir, FILE_NAME + FILE_EXTENSION);
+                size = file.length();
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+            }
+            for (Event event : batch) {
+                line.setLength(0);
+                appendJson(line, event);
+                writer.append(line);
+                // counts characters rather than bytes which is close enough to decide when to rotate
+                size += line.length();
+            }
+            writer.flush();
+            writtenCount.addAndGet(batch.size());
+            // the batch is on disk so a failure to rotate must not count it as dropped
+            batch.clear();
+
+            long maxFileSize = ConfigurationSnapshot.get().getMaxEventLogSizeMB() * 1024L * 1024L / MAX_FILES;
+            if (size >= maxFileSize) {
+                close();
+                rotate(dir);
+            }
+        }
+
+        private void rotate(File dir) throws IOException {
+            File oldest = new File(dir, FILE_NAME + "." + (MAX_FILES - 1) + FILE_EXTENSION);
+            if (oldest.exists() && !oldest.delete()) {
+                throw new IOException("Failed to delete " + oldest);
+            }
+            for (int i = MAX_FILES - 2; i >= 0; i--) {
+                File from = new File(dir, i == 0 ? FILE_NAME + FILE_EXTENSION : FILE_NAME + "." + i + FILE_EXTENSION);
+                File to = new File(dir, FILE_NAME + "." + (i + 1) + FILE_EXTENSION);
+                if (from.exists() && !from.renameTo(to)) {
+                    throw new IOException("Failed to rename " + from + " to " + to);
+                }
+            }
+        }
+
+        private void close() {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+                writer = null;
+            }
+        }
+    }
+}
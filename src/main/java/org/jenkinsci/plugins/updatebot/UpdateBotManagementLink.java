@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.ManagementLink;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.updatebot.support.ExecutionBackend;
+import org.jenkinsci.plugins.updatebot.support.GitHubClients;
+import org.jenkinsci.plugins.updatebot.support.RepositoryConfigCache;
+import org.jenkinsci.plugins.updatebot.support.WorkDirectories;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.Stapler;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+/**
+ * Shows the state of UpdateBot on the Manage Jenkins page
+ */
+@Extension
+public class UpdateBotManagementLink extends ManagementLink {
+    private static final int DEFAULT_IN_FLIGHT_LIMIT = 500;
+
+    @Override
+    public String getIconFileName() {
+        return "setting.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.UpdateBotManagementLink_DisplayName();
+    }
+
+    @Override
+    public String getDescription() {
+        return Messages.UpdateBotManagementLink_Description();
+    }
+
+    @Override
+    public String getUrlName() {
+        return "updatebot";
+    }
+
+    public ScanScheduler getScanScheduler() {
+        return ScanScheduler.get();
+    }
+
+    public PushAdmissionController getPushAdmissionController() {
+        return PushAdmissionController.get();
+    }
+
+    /**
+     * Returns the running pushes filtered and sorted by the <code>filter</code>, <code>sort</code> and
+     * <code>limit</code> request parameters; also available as <code>inFlight/api/json</code>
+     */
+    public InFlightPushes.Snapshot getInFlight() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        StaplerRequest request = Stapler.getCurrentRequest();
+        String filter = request != null ? request.getParameter("filter") : null;
+        String sort = request != null ? request.getParameter("sort") : null;
+        int limit = DEFAULT_IN_FLIGHT_LIMIT;
+        if (request != null && request.getParameter("limit") != null) {
+            try {
+                limit = Integer.parseInt(request.getParameter("limit"));
+            } catch (NumberFormatException e) {
+                // ignore
+            }
+        }
+        return InFlightPushes.get().snapshot(filter, sort, limit);
+    }
+
+    public PollExecutor getPollExecutor() {
+        return PollExecutor.get();
+    }
+
+    public ExecutionBackend getExecutionBackend() {
+        return ExecutionBackend.get();
+    }
+
+    public RepositoryCircuitBreakers getCircuitBreakers() {
+        return RepositoryCircuitBreakers.get();
+    }
+
+    @RequirePOST
+    public HttpResponse doResetCircuitBreaker(@QueryParameter String repository) {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        if (Util.fixEmptyAndTrim(repository) != null) {
+            RepositoryCircuitBreakers.get().reset(repository);
+        }
+        return HttpResponses.redirectToDot();
+    }
+
+    public ToolCaches getToolCaches() {
+        return ToolCaches.get();
+    }
+
+    public GitHubClients getGitHubClients() {
+        return GitHubClients.get();
+    }
+
+    public RepositoryConfigCache getRepositoryConfigCache() {
+        return RepositoryConfigCache.get();
+    }
+
+    public WorkDirectories getWorkDirectories() {
+        return WorkDirectories.get();
+    }
+
+    public UpdateBotEvents getEvents() {
+        return UpdateBotEvents.get();
+    }
+}
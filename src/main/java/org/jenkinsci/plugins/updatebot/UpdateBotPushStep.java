@@ -19,6 +19,7 @@ package org.jenkinsci.plugins.updatebot;
 import com.google.common.collect.ImmutableSet;
 import hudson.Extension;
 import hudson.Launcher;
+import hudson.Util;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import org.jenkinsci.plugins.workflow.steps.Step;
@@ -38,6 +39,9 @@ public class UpdateBotPushStep extends Step {
 
     private String file;
     private long pollPeriodMS = DEFAULT_POLL_PERIOD;
+    private boolean wait = true;
+    private String label;
+    private int priority;
 
     @DataBoundConstructor
     public UpdateBotPushStep() {
@@ -66,6 +70,43 @@ public class UpdateBotPushStep extends Step {
         this.pollPeriodMS = pollPeriodMS;
     }
 
+    /**
+     * Returns true if the step should wait for the pull requests to complete. Otherwise the step returns a handle
+     * once the changes are pushed which can be passed to <code>updateBotAwait</code>
+     */
+    public boolean isWait() {
+        return wait;
+    }
+
+    @DataBoundSetter
+    public void setWait(boolean wait) {
+        this.wait = wait;
+    }
+
+    /**
+     * Returns the label of the agents to run UpdateBot on or null to run it on the master
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    @DataBoundSetter
+    public void setLabel(String label) {
+        this.label = Util.fixEmptyAndTrim(label);
+    }
+
+    /**
+     * Returns the priority of this push when waiting for a push slot; higher priorities are admitted first
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    @DataBoundSetter
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
     @Extension
     public static class DescriptorImpl extends StepDescriptor {
         public DescriptorImpl() {
@@ -28,9 +28,12 @@ import hudson.EnvVars;
 import hudson.FilePath;
 import hudson.model.EnvironmentSpecific;
 import hudson.model.Item;
+import hudson.model.Label;
 import hudson.model.Node;
+import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.plugins.ansicolor.AnsiHelper;
+import hudson.remoting.VirtualChannel;
 import hudson.security.ACL;
 import hudson.slaves.NodeSpecific;
 import hudson.tasks.Maven;
@@ -38,15 +41,21 @@ import hudson.tools.ToolDescriptor;
 import hudson.tools.ToolInstallation;
 import io.fabric8.updatebot.Configuration;
 import io.fabric8.updatebot.UpdateBot;
-import io.fabric8.updatebot.commands.PushSourceChanges;
 import io.fabric8.updatebot.commands.StatusInfo;
 import io.fabric8.utils.Strings;
-import jenkins.util.Timer;
+import jenkins.model.Jenkins;
 import org.acegisecurity.Authentication;
 import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.updatebot.support.ChildProcesses;
+import org.jenkinsci.plugins.updatebot.support.ManifestSnapshots;
 import org.jenkinsci.plugins.updatebot.support.PollComplete;
+import org.jenkinsci.plugins.updatebot.support.PooledConfiguration;
+import org.jenkinsci.plugins.updatebot.support.RepeatedLineFilter;
 import org.jenkinsci.plugins.updatebot.support.SystemHelper;
+import org.jenkinsci.plugins.updatebot.support.ToolCacheLocks;
 import org.jenkinsci.plugins.updatebot.support.ToolInfo;
+import org.jenkinsci.plugins.updatebot.support.WarmToolHelpers;
+import org.jenkinsci.plugins.updatebot.support.WorkDirectories;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
 import org.slf4j.Logger;
@@ -58,14 +67,20 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 public class UpdateBotPushStepExecution extends AbstractStepExecutionImpl {
@@ -74,12 +89,13 @@ public class UpdateBotPushStepExecution extends AbstractStepExecutionImpl {
     public static final String NODE_JS = "NodeJS";
     private static final transient Logger LOG = LoggerFactory.getLogger(UpdateBotPushStepExecution.class);
     private static final long serialVersionUID = 1L;
+    private static final long HEARTBEAT_PERIOD_MS = TimeUnit.MINUTES.toMillis(10);
 
     @Inject
     private transient UpdateBotPushStep step;
     private transient Future<?> task;
     private transient boolean invokedPush;
-    private transient boolean shouldStop;
+    private transient volatile boolean shouldStop;
 
     private transient TaskListener listener;
     private transient PrintStream logger;
@@ -87,6 +103,27 @@ public class UpdateBotPushStepExecution extends AbstractStepExecutionImpl {
     private transient FilePath workspace;
     private transient boolean useReflection = false;
     private transient Exception failed;
+    private transient List<RemoteUpdateBot.RemotePush> remotePushes;
+    private transient PushAdmissionController.Ticket ticket;
+    private transient volatile CircuitBreakingPushSourceChanges command;
+    private transient CircuitBreakingPushSourceChanges.Budget budget;
+    private transient volatile List<VirtualChannel> pushChannels;
+    private transient InFlightPushes.Entry inFlight;
+    private transient String pushName;
+    private transient String pushFolder;
+    private transient SharedPushes.Shared leading;
+    private transient SharedPushes.Shared following;
+    private transient PrintStream updateBotLogger;
+    private transient RepeatedLineFilter pollLogFilter;
+    private transient Map<String, String> previousStatus = new HashMap<>();
+    private transient long lastHeartbeat;
+    private transient int pollsSinceHeartbeat;
+    private transient UpdateBotEvents.MergedRepositories mergedRepositories;
+    private transient String workDirKey;
+    private transient String runId;
+    private transient WorkDirectories.Lease workDir;
+    private transient ToolCacheLocks.Guard toolGuard;
+    private transient PollExecutor.PollHistory pollHistory;
 
     public UpdateBotPushStepExecution(UpdateBotPushStep step, StepContext context) {
         super(context);
@@ -102,8 +139,39 @@ public class UpdateBotPushStepExecution extends AbstractStepExecutionImpl {
         return CredentialsMatchers.anyOf(CredentialsMatchers.instanceOf(StandardUsernamePasswordCredentials.class));
     }
 
+    /**
+     * Returns the github credentials for the given id or null if they could not be found
+     */
+    public static StandardUsernameCredentials lookupGithubCredentials(String credentialsId) {
+        Item context = null;
+        Authentication authentication = ACL.SYSTEM;
+/*
+        Authentication authentication = context instanceof Queue.Task
+                ? Tasks.getDefaultAuthenticationOf((Queue.Task) context)
+                : ACL.SYSTEM;
+*/
+        return CredentialsMatchers.firstOrNull(
+                CredentialsProvider.lookupCredentials(
+                        StandardUsernameCredentials.class,
+                        context,
+                        authentication,
+                        githubDomainRequirements("")
+                ),
+                CredentialsMatchers.allOf(CredentialsMatchers.withId(credentialsId), githubScanCredentialsMatcher())
+        );
+    }
+
+    /**
+     * Configures the github credentials to use for the given organisation which may be null if it is not known
+     */
+    public static void configureGithubCredentials(Configuration configuration, String organisation) throws IOException {
+        UsernamePasswordCredentials usernamePasswordCredentials = GitHubCredentialsPool.get().select(configuration, organisation);
+        configuration.setGithubUsername(usernamePasswordCredentials.getUsername());
+        configuration.setGithubPassword(usernamePasswordCredentials.getPassword().getPlainText());
+    }
+
     public static PrintStream configureFromGlobalPluginConfiguration(Configuration configuration, PrintStream logger) throws IOException {
-        GlobalPluginConfiguration config = GlobalPluginConfiguration.get();
+        ConfigurationSnapshot config = ConfigurationSnapshot.get();
 
         if (config.isUseAnsiColor()) {
             logger = new PrintStream(AnsiHelper.createAnsiStream(logger), true, Charset.defaultCharset().name());
@@ -113,50 +181,10 @@ public class UpdateBotPushStepExecution extends AbstractStepExecutionImpl {
         configuration.setPrintStream(logger);
         configuration.setUseHttpsTransport(true);
 
-        String jenkinsfileLibraryGitCloneURL = config.getJenkinsfileLibraryGitCloneURL();
-        if (Strings.notEmpty(jenkinsfileLibraryGitCloneURL)) {
-            configuration.setJenksinsfileGitRepo(jenkinsfileLibraryGitCloneURL);
+        if (config.hasJenkinsfileGitRepo()) {
+            configuration.setJenksinsfileGitRepo(config.getJenkinsfileGitRepo());
         }
-        String credentialsId = config.getCredentialsId();
-        UsernamePasswordCredentials usernamePasswordCredentials = null;
-        if (Strings.notEmpty(credentialsId)) {
-            Item context = null;
-            Authentication authentication = ACL.SYSTEM;
-/*
-            Authentication authentication = context instanceof Queue.Task
-                    ? Tasks.getDefaultAuthenticationOf((Queue.Task) context)
-                    : ACL.SYSTEM;
-*/
-            StandardUsernameCredentials credentials = null;
-            try {
-                credentials = CredentialsMatchers.firstOrNull(
-                        CredentialsProvider.lookupCredentials(
-                                StandardUsernameCredentials.class,
-                                context,
-                                authentication,
-                                githubDomainRequirements("")
-                        ),
-                        CredentialsMatchers.allOf(CredentialsMatchers.withId(credentialsId), githubScanCredentialsMatcher())
-                );
-            } catch (Exception e) {
-                configuration.error(LOG, "looking up credentials: " + e, e);
-            }
-
-            //logger.println("Found credentials " + credentials + " for " + credentialsId);
-
-            if (credentials == null) {
-                throw new IOException("Could not find the credentials " + credentialsId + ". Please check the UpdateBot configuration on the Manage Jenkins page!");
-            }
-            if (credentials instanceof UsernamePasswordCredentials) {
-                usernamePasswordCredentials = (UsernamePasswordCredentials) credentials;
-            } else {
-                throw new IOException("The chosen credential " + credentialsId + " has no username and password! Please choose another credential on the UpdateBot section of the Manage Jenkins page!");
-            }
-        } else {
-            throw new IOException("No credentials configured for the UpdateBot plugin! Please update the configuration on the Manage Jenkins page!");
-        }
-        configuration.setGithubUsername(usernamePasswordCredentials.getUsername());
-        configuration.setGithubPassword(usernamePasswordCredentials.getPassword().getPlainText());
+        configureGithubCredentials(configuration, null);
         return logger;
     }
 
@@ -164,24 +192,144 @@ public class UpdateBotPushStepExecution extends AbstractStepExecutionImpl {
     public boolean start() throws Exception {
         shouldStop = false;
         invokedPush = false;
-        task = Timer.get().submit(createUpdateBotPoller());
+        String name = "UpdateBot push";
+        String folder = "";
+        Run<?, ?> run = getContext().get(Run.class);
+        if (run != null) {
+            name = run.getFullDisplayName();
+            folder = run.getParent().getParent().getFullName();
+            workDirKey = run.getParent().getFullName();
+            runId = run.getExternalizableId();
+        }
+        pushName = name;
+        pushFolder = folder;
+        inFlight = InFlightPushes.get().add(name, run != null ? run.getUrl() : null);
+        requestPushSlot();
         return false;
     }
 
+    protected void requestPushSlot() {
+        inFlight.setPhase(InFlightPushes.Phase.QUEUED);
+        ticket = new PushAdmissionController.Ticket(pushName, pushFolder, step.getPriority(), getLogger());
+        PushAdmissionController.get().request(ticket, createUpdateBotPoller());
+    }
+
     @Override
     public void stop(@Nonnull Throwable cause) throws Exception {
         shouldStop = true;
+        releasePushSlot();
+        abortPush();
+        releaseWorkDir();
+        if (leading != null) {
+            SharedPushes.get().abandon(leading);
+        }
+        InFlightPushes.get().remove(inFlight);
+        if (remotePushes != null && step.isWait()) {
+            for (RemoteUpdateBot.RemotePush remotePush : remotePushes) {
+                remotePush.cancel();
+            }
+        }
         if (task != null) {
             task.cancel(true);
+        }
+        if (task != null || !invokedPush) {
+            // the first poll is run by the PushAdmissionController so there is no task while waiting or pushing
             getContext().onFailure(cause);
         }
     }
 
+    /**
+     * Kills the tool processes of a push which is still updating repositories
+     */
+    protected void abortPush() {
+        CircuitBreakingPushSourceChanges current = command;
+        if (current != null) {
+            current.abort();
+        }
+        List<VirtualChannel> channels = pushChannels;
+        if (channels != null && budget != null) {
+            for (VirtualChannel channel : channels) {
+                try {
+                    channel.call(new RemoteUpdateBot.AbortPush(budget.getCookie()));
+                } catch (Exception e) {
+                    // ignore as the agent may have gone
+                }
+            }
+        }
+    }
+
+    protected CircuitBreakingPushSourceChanges.Budget createBudget() {
+        ConfigurationSnapshot config = ConfigurationSnapshot.get();
+        return new CircuitBreakingPushSourceChanges.Budget(config.getRepositoryTimeoutMinutes(), config.getPushTimeoutMinutes(), UUID.randomUUID().toString());
+    }
+
+    /**
+     * Lets the next waiting push run once this one has pushed its changes or has stopped
+     */
+    protected void releasePushSlot() {
+        PushAdmissionController.Ticket current = ticket;
+        ticket = null;
+        if (current != null) {
+            PushAdmissionController.get().release(current);
+        }
+    }
+
     protected void pollUpdateBot() throws IOException {
+        if (shouldStop) {
+            // stopped while waiting for a push slot or for the next poll so there is nothing left to do
+            releasePushSlot();
+            return;
+        }
         PollComplete complete = null;
-        if (!invokedPush) {
-            complete = runUpdateBotCommand();
+        if (!invokedPush && followSharedPush()) {
+            releasePushSlot();
+            invokedPush = true;
+            UpdateBotEvents.get().emit(UpdateBotEvents.PUSH_SHARED, pushName, null, following.getName());
+            inFlight.setPhase(InFlightPushes.Phase.POLLING);
+            if (!step.isWait()) {
+                inFlight.setPhase(InFlightPushes.Phase.BACKGROUND);
+                String handle = PendingPushRegistry.get().register(following, step.getPollPeriodMS(), inFlight, runId);
+                getLogger().println("UpdateBot is sharing the push, use updateBotAwait('" + handle + "') to wait for the pull requests");
+                getContext().onSuccess(handle);
+                return;
+            }
+        } else if (!invokedPush) {
+            inFlight.setPhase(InFlightPushes.Phase.PUSHING);
+            UpdateBotEvents.get().emit(UpdateBotEvents.PUSH_STARTED, pushName, null, step.getLabel());
+            try {
+                complete = runUpdateBotCommand();
+            } catch (IOException | RuntimeException e) {
+                releaseWorkDir();
+                finishSharedPush(PollComplete.failure(e));
+                UpdateBotEvents.get().emit(UpdateBotEvents.PUSH_FAILED, pushName, null, String.valueOf(e));
+                throw e;
+            } finally {
+                releasePushSlot();
+            }
             invokedPush = true;
+            inFlight.setPhase(InFlightPushes.Phase.POLLING);
+            if (complete == null && !step.isWait()) {
+                PendingPushRegistry registry = PendingPushRegistry.get();
+                inFlight.setPhase(InFlightPushes.Phase.BACKGROUND);
+                // the background poller releases the work directory once the pull requests are complete
+                WorkDirectories.Lease lease = workDir;
+                workDir = null;
+                String handle = remotePushes != null
+                        ? registry.register(createRemotePoller(), step.getPollPeriodMS(), inFlight, runId)
+                        : registry.register(updatebot, step.getPollPeriodMS(), inFlight, lease, pollLogFilter, getToolGuard(), runId);
+                getLogger().println("UpdateBot pushed changes, use updateBotAwait('" + handle + "') to wait for the pull requests");
+                getContext().onSuccess(handle);
+                return;
+            }
+        } else if (following != null) {
+            if (following.isAbandoned()) {
+                getLogger().println("The shared UpdateBot push of " + following.getName() + " was stopped so pushing the changes again");
+                following = null;
+                invokedPush = false;
+                requestPushSlot();
+                return;
+            }
+            complete = following.getComplete();
         } else {
             complete = pollUpdateBotStatus();
         }
@@ -189,15 +337,130 @@ public class UpdateBotPushStepExecution extends AbstractStepExecutionImpl {
             return;
         }
         if (complete != null) {
+            releaseWorkDir();
+            finishSharedPush(complete);
+            InFlightPushes.get().remove(inFlight);
+            emitComplete(pushName, complete);
             complete.apply(getContext(), getLogger());
         } else {
             scheduleNextPoll();
         }
     }
 
+    /**
+     * Lets the directory the downstream repositories were cloned into be reused by later pushes or evicted
+     */
+    protected void releaseWorkDir() {
+        WorkDirectories.Lease current = workDir;
+        workDir = null;
+        if (current != null) {
+            current.release();
+        }
+    }
+
+    /**
+     * Emits the event of a push which has finished
+     */
+    protected static void emitComplete(String name, PollComplete complete) {
+        if (complete.getFailure() != null) {
+            UpdateBotEvents.get().emit(UpdateBotEvents.PUSH_FAILED, name, null, String.valueOf(complete.getFailure()));
+        } else {
+            UpdateBotEvents.get().emit(UpdateBotEvents.PUSH_COMPLETED, name);
+        }
+    }
+
+    /**
+     * Emits an event for each repository the push cloned, updated or failed to update
+     */
+    protected void emitOutcome(CircuitBreakingPushSourceChanges.Outcome outcome) {
+        UpdateBotEvents events = UpdateBotEvents.get();
+        for (Map.Entry<String, Long> entry : outcome.getCloned().entrySet()) {
+            events.emit(UpdateBotEvents.REPOSITORY_CLONED, pushName, entry.getKey(), null, -1, entry.getValue());
+        }
+        for (String repository : outcome.getSucceeded()) {
+            events.emit(UpdateBotEvents.REPOSITORY_PUSHED, pushName, repository, null);
+        }
+        for (Map.Entry<String, String> entry : outcome.getFailures().entrySet()) {
+            events.emit(UpdateBotEvents.REPOSITORY_FAILED, pushName, entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, String> entry : outcome.getNotAttempted().entrySet()) {
+            events.emit(UpdateBotEvents.REPOSITORY_NOT_ATTEMPTED, pushName, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Emits an event for each repository whose pull requests were pending at the previous poll but no longer are
+     */
+    protected void emitMerged(Map<String, StatusInfo> status) {
+        if (mergedRepositories == null) {
+            mergedRepositories = new UpdateBotEvents.MergedRepositories();
+        }
+        mergedRepositories.polled(pushName, status);
+    }
+
+    /**
+     * Follows an identical push which is already running if there is one; otherwise lets later identical pushes
+     * follow this one if it waits for its pull requests
+     *
+     * @return true if this push is following another push
+     */
+    protected boolean followSharedPush() {
+        FilePath workspace = getWorkspace();
+        if (workspace == null) {
+            return false;
+        }
+        String key;
+        try {
+            key = ManifestSnapshots.hash(workspace) + "/" + step.getFile();
+        } catch (Exception e) {
+            getLogger().println("Could not hash the workspace manifests so not sharing the push: " + e);
+            return false;
+        }
+        SharedPushes.Membership membership = SharedPushes.get().join(key, pushName, step.isWait());
+        if (membership == null) {
+            return false;
+        }
+        if (membership.isLeader()) {
+            leading = membership.getShared();
+            return false;
+        }
+        following = membership.getShared();
+        getLogger().println("The same versions are already being pushed by " + following.getName() + " so sharing its pull requests");
+        return true;
+    }
+
+    /**
+     * Completes any pushes following this push with the same result
+     */
+    protected void finishSharedPush(PollComplete complete) {
+        SharedPushes.Shared shared = leading;
+        leading = null;
+        if (shared != null) {
+            SharedPushes.get().finish(shared, complete);
+        }
+    }
+
+    /**
+     * Fails the push if the step has been stopped so that an aborted build does not go on to push its changes
+     */
+    protected void checkNotStopped() throws IOException {
+        if (shouldStop) {
+            throw new IOException("UpdateBot push was stopped before pushing");
+        }
+    }
+
     protected PollComplete runUpdateBotCommand() throws IOException {
+        checkNotStopped();
+        if (Strings.notEmpty(step.getLabel())) {
+            return runRemoteUpdateBotCommand();
+        }
         String file = step.getFile();
         FilePath currentWorkspace = getWorkspace();
+        FilePath snapshot = null;
+        if (currentWorkspace != null && currentWorkspace.isRemote()) {
+            snapshot = snapshotWorkspace(currentWorkspace);
+            currentWorkspace = snapshot;
+        }
         if (currentWorkspace != null) {
             FilePath configFile = currentWorkspace;
             try {
@@ -206,39 +469,349 @@ public class UpdateBotPushStepExecution extends AbstractStepExecutionImpl {
                 file = configFile.toString();
             }
         }
+        try {
+            return runUpdateBotCommand(file);
+        } finally {
+            if (snapshot != null) {
+                try {
+                    snapshot.deleteRecursive();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the manifests of a workspace on an agent into a scratch directory on the master
+     */
+    protected FilePath snapshotWorkspace(FilePath workspace) throws IOException {
+        File dir = new File(new File(Jenkins.getInstance().getRootDir(), "updatebot"), "sources");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create directory " + dir);
+        }
+        FilePath answer = new FilePath(Files.createTempDirectory(dir.toPath(), "source").toFile());
+        try {
+            int count = ManifestSnapshots.copy(workspace, answer);
+            getLogger().println("Copied " + count + " manifests from the workspace to " + answer.getRemote());
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while copying the manifests of " + workspace, e);
+        }
+        return answer;
+    }
+
+    protected PollComplete runUpdateBotCommand(String file) throws IOException {
         updatebot = new UpdateBot();
-        Configuration configuration = updatebot.getConfiguration();
+        Configuration configuration = new PooledConfiguration();
+        updatebot.setConfiguration(configuration);
         configureUpdateBot(configuration);
         configuration.setSourcePath(file);
-        PushSourceChanges command = new PushSourceChanges();
-        updatebot.setCommand(command);
+        workDir = WorkDirectories.get().lease(WorkDirectoryEviction.getRoot(), workDirKey, ConfigurationSnapshot.get().getMaxWorkDirBytes());
+        configuration.setWorkDir(workDir.getDir().getPath());
+        budget = createBudget();
+        ChildProcesses.addCookie(configuration, budget.getCookie());
+        RepositoryCircuitBreakers breakers = RepositoryCircuitBreakers.get();
+        CircuitBreakingPushSourceChanges pushCommand = new CircuitBreakingPushSourceChanges(breakers, getLogger(), budget,
+                ConfigurationSnapshot.get().isUseClonelessPush());
+        pushCommand.setToolGuard(getToolGuard());
+        updatebot.setCommand(pushCommand);
 
-        command.run(configuration);
+        checkNotStopped();
+        command = pushCommand;
+        try {
+            pushCommand.run(configuration);
+        } finally {
+            command = null;
+            breakers.record(pushCommand.getOutcome());
+            emitOutcome(pushCommand.getOutcome());
+        }
+        pushCommand.getOutcome().checkSucceeded();
+
+        // only log what changes between polls from now on
+        pollLogFilter = new RepeatedLineFilter(updateBotLogger != null ? updateBotLogger : getLogger());
+        configuration.setPrintStream(pollLogFilter.createPrintStream());
         // TODO would we ever return complete immediately?
         return null;
     }
 
+    /**
+     * Runs the push on the agents matching the label of the step spreading the downstream repositories across them
+     */
+    protected PollComplete runRemoteUpdateBotCommand() throws IOException {
+        Jenkins jenkins = Jenkins.getInstance();
+        Label label = jenkins.getLabel(step.getLabel());
+        String key = step.getLabel();
+        try {
+            Run<?, ?> run = getContext().get(Run.class);
+            if (run != null) {
+                key = run.getParent().getFullName();
+            }
+        } catch (InterruptedException e) {
+            // ignore
+        }
+        List<Node> nodes = RemoteUpdateBot.selectNodes(label);
+        if (nodes.isEmpty()) {
+            throw new IOException("No online agent matches the UpdateBot label " + step.getLabel());
+        }
+        List<String> nodeNames = new ArrayList<>();
+        for (Node node : nodes) {
+            nodeNames.add(node.getNodeName());
+        }
+        getLogger().println("Running UpdateBot on agents " + nodeNames);
+
+        budget = createBudget();
+        RepositoryCircuitBreakers breakers = RepositoryCircuitBreakers.get();
+        FilePath source = getWorkspace();
+        List<FilePath> tempSources = new ArrayList<>();
+        List<VirtualChannel> channels = new CopyOnWriteArrayList<>();
+        List<Future<RemoteUpdateBot.StartedPush>> futures = new ArrayList<>();
+        List<ToolCacheLocks.Guard> toolGuards = new ArrayList<>();
+        CircuitBreakingPushSourceChanges.Outcome outcome = new CircuitBreakingPushSourceChanges.Outcome();
+        List<RemoteUpdateBot.RemotePush> started = new ArrayList<>();
+        IOException failure = null;
+        pushChannels = channels;
+        // the global settings are worked out once for all the agents which log to the build directly
+        Configuration global = new PooledConfiguration();
+        configureGithubCredentials(global, null);
+        try {
+            for (Node node : nodes) {
+                checkNotStopped();
+                VirtualChannel channel = node.getChannel();
+                FilePath root = node.getRootPath();
+                if (channel == null || root == null) {
+                    throw new IOException("UpdateBot agent " + node.getDisplayName() + " went offline");
+                }
+                FilePath nodeSource = source;
+                if (source == null || source.getChannel() != channel) {
+                    nodeSource = root.child("updatebot").child("sources").createTempDir("source", "");
+                    tempSources.add(nodeSource);
+                    if (source != null) {
+                        ManifestSnapshots.copy(source, nodeSource);
+                    }
+                }
+                Configuration configuration = new PooledConfiguration();
+                configuration.setPrintStream(getLogger());
+                configuration.setUseHttpsTransport(true);
+                if (ConfigurationSnapshot.get().hasJenkinsfileGitRepo()) {
+                    configuration.setJenksinsfileGitRepo(ConfigurationSnapshot.get().getJenkinsfileGitRepo());
+                }
+                configuration.setGithubUsername(global.getGithubUsername());
+                configuration.setGithubPassword(global.getGithubPassword());
+                configureTools(configuration, node, true);
+                ChildProcesses.addCookie(configuration, budget.getCookie());
+                RemoteUpdateBot.Settings settings = new RemoteUpdateBot.Settings(configuration, nodeSource.getRemote(),
+                        WorkDirectoryEviction.getRoot(root).getRemote(), key, ConfigurationSnapshot.get().getMaxWorkDirBytes(),
+                        ConfigurationSnapshot.get().isUseClonelessPush(), getToolGuard());
+                RemoteUpdateBot.RepositoryAssignment assignment = new RemoteUpdateBot.RepositoryAssignment(nodeNames, node.getNodeName());
+                CircuitBreakingPushSourceChanges.Gate gate = channel.export(CircuitBreakingPushSourceChanges.Gate.class, breakers);
+                channels.add(channel);
+                toolGuards.add(getToolGuard());
+                futures.add(channel.callAsync(new RemoteUpdateBot.StartPush(settings, getListener(), gate, budget, assignment)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                String nodeName = nodeNames.get(i);
+                try {
+                    RemoteUpdateBot.StartedPush startedPush = futures.get(i).get();
+                    outcome.merge(startedPush.getOutcome());
+                    if (startedPush.getId() != null) {
+                        started.add(new RemoteUpdateBot.RemotePush(channels.get(i), nodeName, startedPush.getId(), toolGuards.get(i)));
+                    }
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    getLogger().println("Failed to run UpdateBot on " + nodeName + ": " + cause);
+                    if (failure == null) {
+                        failure = new IOException("Failed to run UpdateBot on " + nodeName + ": " + cause, cause);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            cancelRemotePushes(started);
+            throw new IOException("Interrupted while running UpdateBot on " + nodeNames, e);
+        } catch (IOException | RuntimeException e) {
+            cancelRemotePushes(started);
+            throw e;
+        } finally {
+            pushChannels = null;
+            for (FilePath tempSource : tempSources) {
+                try {
+                    tempSource.deleteRecursive();
+                } catch (IOException | InterruptedException e) {
+                    // ignore
+                }
+            }
+        }
+        breakers.record(outcome);
+        emitOutcome(outcome);
+        if (failure != null || !outcome.isSucceeded()) {
+            cancelRemotePushes(started);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        outcome.checkSucceeded();
+        remotePushes = started;
+        return null;
+    }
+
+    /**
+     * Stops the agents which are still updating repositories and forgets the pushes the others have started so
+     * that no agent is left with pull requests nobody polls
+     */
+    private void cancelRemotePushes(List<RemoteUpdateBot.RemotePush> started) {
+        abortPush();
+        for (RemoteUpdateBot.RemotePush remotePush : started) {
+            remotePush.cancel();
+        }
+    }
+
+    protected PendingPushRegistry.Poller createRemotePoller() {
+        final List<RemoteUpdateBot.RemotePush> pushes = remotePushes;
+        return new PendingPushRegistry.Poller() {
+            @Override
+            public boolean isPending() throws IOException {
+                boolean pending = false;
+                for (RemoteUpdateBot.RemotePush remotePush : pushes) {
+                    if (remotePush.isPending()) {
+                        pending = true;
+                    }
+                }
+                return pending;
+            }
+
+            @Override
+            public void cancel() {
+                for (RemoteUpdateBot.RemotePush remotePush : pushes) {
+                    remotePush.cancel();
+                }
+            }
+        };
+    }
+
     /**
      * Runs the updatebot poll operation to check if any pending PRs have completed or need rebasing
      *
      * @return true if the all the pull requests and issues are completed
      */
     protected PollComplete pollUpdateBotStatus() {
+        long startTime = System.currentTimeMillis();
         try {
-            Map<String, StatusInfo> status = updatebot.poll();
+            if (remotePushes != null) {
+                if (!createRemotePoller().isPending()) {
+                    return PollComplete.success(null);
+                }
+                polled(startTime, null);
+                return null;
+            }
+            if (pollLogFilter != null) {
+                pollLogFilter.nextPoll();
+            }
+            GitHubCredentialsPool.get().refresh(updatebot.getConfiguration());
+            // polls may rebase pull requests which runs the tools again
+            Map<String, StatusInfo> status = getToolGuard().call(null, new Callable<Map<String, StatusInfo>>() {
+                @Override
+                public Map<String, StatusInfo> call() throws Exception {
+                    return updatebot.poll();
+                }
+            });
+            emitMerged(status);
             if (!StatusInfo.isPending(status)) {
                 return PollComplete.success(null);
             }
+            polled(startTime, status);
             return null;
         } catch (Exception e) {
             return PollComplete.failure(e);
         }
     }
 
-    protected void configureUpdateBot(Configuration configuration) throws IOException {
+    /**
+     * Updates the in flight state of the push after a poll which left pull requests pending
+     *
+     * @param status the status of each repository or null if it is not known
+     */
+    protected void polled(long startTime, Map<String, StatusInfo> status) {
+        List<String> pendingRepositories = null;
+        if (status != null) {
+            pendingRepositories = new ArrayList<>();
+            for (Map.Entry<String, StatusInfo> entry : status.entrySet()) {
+                if (StatusInfo.isPending(Collections.singletonMap(entry.getKey(), entry.getValue()))) {
+                    pendingRepositories.add(entry.getKey());
+                }
+            }
+        }
+        long now = System.currentTimeMillis();
+        inFlight.polled(now - startTime, pendingRepositories, now + step.getPollPeriodMS());
+        UpdateBotEvents.get().emit(UpdateBotEvents.POLL, pushName, null, null,
+                pendingRepositories != null ? pendingRepositories.size() : -1, now - startTime);
+        logPollChanges(status, pendingRepositories, now);
+    }
+
+    /**
+     * Logs only the statuses which changed since the previous poll plus a short heartbeat every so often
+     * so that long waits do not fill the build log with the same lines
+     */
+    protected void logPollChanges(Map<String, StatusInfo> status, List<String> pendingRepositories, long now) {
         PrintStream logger = getLogger();
-        configureFromGlobalPluginConfiguration(configuration, logger);
+        if (previousStatus == null) {
+            previousStatus = new HashMap<>();
+        }
+        if (status != null) {
+            Map<String, String> currentStatus = new HashMap<>();
+            for (Map.Entry<String, StatusInfo> entry : status.entrySet()) {
+                String text = String.valueOf(entry.getValue());
+                currentStatus.put(entry.getKey(), text);
+                if (!text.equals(previousStatus.get(entry.getKey()))) {
+                    logger.println(entry.getKey() + ": " + text);
+                }
+            }
+            previousStatus = currentStatus;
+        }
+        pollsSinceHeartbeat++;
+        if (lastHeartbeat == 0) {
+            lastHeartbeat = now;
+        } else if (now - lastHeartbeat >= HEARTBEAT_PERIOD_MS) {
+            StringBuilder builder = new StringBuilder("UpdateBot still waiting after " + pollsSinceHeartbeat + " polls");
+            if (pendingRepositories != null) {
+                builder.append(" for ").append(pendingRepositories.size()).append(" repositories ").append(pendingRepositories);
+            }
+            if (pollLogFilter != null) {
+                builder.append(", ").append(pollLogFilter.takeDroppedLines()).append(" repeated lines hidden");
+            }
+            logger.println(builder);
+            lastHeartbeat = now;
+            pollsSinceHeartbeat = 0;
+        }
+    }
+
+    protected void configureUpdateBot(Configuration configuration) throws IOException {
+        Node node = null;
+        try {
+            node = getContext().get(Node.class);
+        } catch (InterruptedException e) {
+            // ignore
+        }
+        configureUpdateBot(configuration, node, false);
+    }
+
+    /**
+     * Configures UpdateBot from the global configuration and to use the tools installed on the given node
+     *
+     * @param remote true if UpdateBot will run on the node rather than on the master so that the master's
+     *               Maven Daemon cannot be used and the tool caches of the node are used
+     */
+    protected void configureUpdateBot(Configuration configuration, Node node, boolean remote) throws IOException {
+        updateBotLogger = configureFromGlobalPluginConfiguration(configuration, getLogger());
+        configureTools(configuration, node, remote);
+    }
 
+    /**
+     * Configures UpdateBot to use the tools installed on the given node
+     *
+     * @param remote true if UpdateBot will run on the node rather than on the master so that the master's
+     *               Maven Daemon cannot be used and the tool caches of the node are used
+     */
+    protected void configureTools(Configuration configuration, Node node, boolean remote) throws IOException {
+        PrintStream logger = getLogger();
         Set<String> tools = new HashSet<>(Arrays.asList(JDK, MAVEN, NODE_JS));
 
         Map<String, ToolInfo> toolInfoMap = new HashMap<>();
@@ -257,7 +830,7 @@ public class UpdateBotPushStepExecution extends AbstractStepExecutionImpl {
                     for (ToolInstallation tool : installations) {
                         try {
                             if (tool instanceof NodeSpecific) {
-                                tool = (ToolInstallation) ((NodeSpecific<?>) tool).forNode(getContext().get(Node.class), getContext().get(TaskListener.class));
+                                tool = (ToolInstallation) ((NodeSpecific<?>) tool).forNode(node, getContext().get(TaskListener.class));
                             }
                             if (tool instanceof EnvironmentSpecific) {
                                 tool = (ToolInstallation) ((EnvironmentSpecific<?>) tool).forEnvironment(getContext().get(EnvVars.class));
@@ -311,15 +884,57 @@ public class UpdateBotPushStepExecution extends AbstractStepExecutionImpl {
         ToolInfo nodeInfo = toolInfoMap.get(NODE_JS);
         ToolInfo javaInfo = toolInfoMap.get(JDK);
         String suffix = SystemHelper.isWindows() ? ".cmd" : "";
-        if (mavenInfo != null && mavenInfo.hasHome()) {
-            String mvn = new File(mavenInfo.getHome(), "bin/mvn" + suffix).getCanonicalPath();
-            Map<String, String> envVarMap = mavenInfo.getEnvVarMap();
+        ConfigurationSnapshot config = ConfigurationSnapshot.get();
+        FilePath cachesDir = null;
+        if (config.isUseSharedToolCaches()) {
+            FilePath nodeRoot = node != null ? node.getRootPath() : null;
+            if (!remote) {
+                cachesDir = new FilePath(ToolCaches.get().getCachesDir());
+            } else if (nodeRoot != null) {
+                cachesDir = ToolCaches.getCachesDir(nodeRoot);
+            }
+        }
+        boolean serializeMaven = false;
+        File mavenDaemon = null;
+        if (config.isUseMavenDaemon() && !remote) {
+            mavenDaemon = WarmToolHelpers.findMavenDaemon(config.getMavenDaemonHome());
+            if (mavenDaemon == null) {
+                configuration.warn(LOG, "no mvnd executable found in " + config.getMavenDaemonHome() + " so using a new mvn process for each project");
+            }
+        }
+        if (mavenDaemon != null || (mavenInfo != null && mavenInfo.hasHome())) {
+            String mvn;
+            Map<String, String> envVarMap = mavenInfo != null ? mavenInfo.getEnvVarMap() : new HashMap<String, String>();
+            if (mavenDaemon != null) {
+                mvn = mavenDaemon.getCanonicalPath();
+                File propertiesDir = new File(Jenkins.getInstance().getRootDir(), "updatebot");
+                File properties = WarmToolHelpers.writeMavenDaemonProperties(propertiesDir, config.getMavenDaemonIdleTimeoutMinutes());
+                envVarMap.put(WarmToolHelpers.MVND_PROPERTIES_PATH, properties.getCanonicalPath());
+            } else {
+                mvn = new File(mavenInfo.getHome(), "bin/mvn" + suffix).getCanonicalPath();
+            }
             if (javaInfo != null) {
                 Map<String, String> javaInfoEnvVarMap = javaInfo.getEnvVarMap();
                 envVarMap.putAll(javaInfoEnvVarMap);
             } else {
                 configuration.warn(LOG, "no Java tool found so cannot set the JAVA environment variables required for maven!");
             }
+            if (cachesDir != null) {
+                boolean repositoryLocking;
+                try {
+                    FilePath mavenHome = mavenDaemon != null
+                            ? new FilePath(new File(mavenDaemon.getParentFile().getParentFile(), "mvn"))
+                            : remote ? node.createPath(mavenInfo.getHome()) : new FilePath(new File(mavenInfo.getHome()));
+                    repositoryLocking = mavenHome != null && ToolCaches.supportsRepositoryLocking(mavenHome);
+                    ToolCaches.get().configureMaven(envVarMap, cachesDir, repositoryLocking);
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted while configuring the maven local repository", e);
+                }
+                if (!repositoryLocking) {
+                    logger.println("Running one maven process at a time as this version of maven cannot lock the shared local repository; use Maven 3.9 or later to run them concurrently");
+                }
+                serializeMaven = !repositoryLocking;
+            }
             logger.println("Using mvn executable: " + mvn + " with env vars: " + envVarMap);
             configuration.setMvnCommand(mvn);
             configuration.setMvnEnvironmentVariables(envVarMap);
@@ -329,12 +944,23 @@ public class UpdateBotPushStepExecution extends AbstractStepExecutionImpl {
         if (nodeInfo != null && nodeInfo.hasHome()) {
             String npm = new File(nodeInfo.getHome(), "bin/npm" + suffix).getCanonicalPath();
             Map<String, String> envVarMap = nodeInfo.getEnvVarMap();
+            if (config.isNpmPreferOffline()) {
+                envVarMap.put(WarmToolHelpers.NPM_PREFER_OFFLINE, "true");
+            }
+            if (cachesDir != null) {
+                try {
+                    ToolCaches.get().configureNpm(envVarMap, cachesDir);
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted while configuring the npm cache", e);
+                }
+            }
             logger.println("Using npm executable: " + npm + " with env vars: " + envVarMap);
             configuration.setNpmCommand(npm);
             configuration.setNpmEnvironmentVariables(envVarMap);
         } else {
             configuration.warn(LOG, "no NodeJS installation found! May not be able to update node projects. To fix please use the Manage Jenkins -> Global Tool Configuration and add a NodeJS installation");
         }
+        toolGuard = new ToolCacheLocks.Guard(cachesDir != null, serializeMaven, config.getMaxConcurrentToolRuns());
     }
 
     protected void scheduleNextPoll() {
@@ -342,18 +968,25 @@ public class UpdateBotPushStepExecution extends AbstractStepExecutionImpl {
             getLogger().println("UpdateBot is terminating");
             return;
         }
-        ScheduledExecutorService timer = Timer.get();
         if (step == null) {
             warnMissingField("step");
             return;
         }
-        task = timer.schedule(createUpdateBotPoller(), step.getPollPeriodMS(), TimeUnit.MILLISECONDS);
+        if (pollHistory == null) {
+            pollHistory = new PollExecutor.PollHistory();
+        }
+        task = PollExecutor.get().schedule(createUpdateBotPoller(), step.getPollPeriodMS(), pollHistory);
     }
 
     protected void warnMissingField(String field) {
         getLogger().println("Missing field: " + field);
     }
 
+    protected TaskListener getListener() {
+        getLogger();
+        return listener;
+    }
+
     protected PrintStream getLogger() {
         if (logger == null) {
             try {
@@ -384,7 +1017,7 @@ public class UpdateBotPushStepExecution extends AbstractStepExecutionImpl {
                     failed = e;
                 }
 
-                if (failed != null) {
+                if (failed != null && !shouldStop) {
                     try {
                         stop(failed);
                     } catch (Exception e1) {
@@ -395,6 +1028,14 @@ public class UpdateBotPushStepExecution extends AbstractStepExecutionImpl {
         };
     }
 
+    /**
+     * Returns the locks the tools of the push need on the node they run on as worked out when UpdateBot was
+     * configured
+     */
+    protected ToolCacheLocks.Guard getToolGuard() {
+        return toolGuard != null ? toolGuard : ToolCacheLocks.Guard.NONE;
+    }
+
     protected FilePath getWorkspace() {
         if (workspace == null) {
             try {
@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.updatebot.support.WorkDirectories;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Periodically keeps the directories which pushes and imports on the master clone downstream repositories into
+ * within the configured size; agents evict their own directories whenever a push releases one.
+ */
+@Extension
+public class WorkDirectoryEviction extends AsyncPeriodicWork {
+    public WorkDirectoryEviction() {
+        super("UpdateBot work directory eviction");
+    }
+
+    /**
+     * Returns the directory pushes and imports on the master clone downstream repositories into
+     */
+    public static File getRoot() {
+        return new File(new File(Jenkins.getInstance().getRootDir(), "updatebot"), "work");
+    }
+
+    /**
+     * Returns the directory pushes on a node clone downstream repositories into given the root of the node
+     */
+    public static FilePath getRoot(FilePath nodeRoot) {
+        return nodeRoot.child("updatebot").child("work");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return HOUR;
+    }
+
+    @Override
+    public long getInitialDelay() {
+        // report the usage on the management page soon after startup
+        return MIN;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        WorkDirectories.get().evict(getRoot(), ConfigurationSnapshot.get().getMaxWorkDirBytes());
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.support;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Helper methods for keeping a cache directory within a size and age limit
+ */
+public class CacheEvictionHelpers {
+
+    /**
+     * Deletes the entries of the cache which were last modified before the maximum age and then the least
+     * recently modified entries until the cache is no larger than the maximum size.
+     *
+     * @param directoryEntries if true each directory containing only files is an entry, such as an artifact
+     *                         version in a maven repository, otherwise each file is an entry
+     * @return the size in bytes of the cache after eviction
+     */
+    public static long evict(File root, long maxBytes, long maxAgeMillis, boolean directoryEntries) {
+        List<Entry> entries = new ArrayList<>();
+        collectEntries(root, directoryEntries, entries);
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry e1, Entry e2) {
+                return Long.compare(e1.lastModified, e2.lastModified);
+            }
+        });
+        long total = 0;
+        for (Entry entry : entries) {
+            total += entry.size;
+        }
+        long oldest = System.currentTimeMillis() - maxAgeMillis;
+        for (Entry entry : entries) {
+            if (entry.lastModified >= oldest && total <= maxBytes) {
+                break;
+            }
+            if (FileUtils.deleteQuietly(entry.file)) {
+                total -= entry.size;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns the total size in bytes of the files in the directory
+     */
+    public static long sizeOf(File root) {
+        return root.isDirectory() ? FileUtils.sizeOfDirectory(root) : 0;
+    }
+
+    private static void collectEntries(File dir, boolean directoryEntries, List<Entry> entries) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        boolean leaf = true;
+        for (File file : files) {
+            if (file.isDirectory()) {
+                leaf = false;
+                collectEntries(file, directoryEntries, entries);
+            }
+        }
+        long directorySize = 0;
+        long directoryLastModified = 0;
+        boolean hasFiles = false;
+        for (File file : files) {
+            if (file.isFile()) {
+                if (directoryEntries && leaf) {
+                    hasFiles = true;
+                    directorySize += file.length();
+                    directoryLastModified = Math.max(directoryLastModified, file.lastModified());
+                } else {
+                    entries.add(new Entry(file, file.length(), file.lastModified()));
+                }
+            }
+        }
+        if (hasFiles) {
+            entries.add(new Entry(dir, directorySize, directoryLastModified));
+        }
+    }
+
+    private static class Entry {
+        private final File file;
+        private final long size;
+        private final long lastModified;
+
+        Entry(File file, long size, long lastModified) {
+            this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
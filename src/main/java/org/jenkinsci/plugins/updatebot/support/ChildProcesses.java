@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.support;
+
+import hudson.util.ProcessTree;
+import io.fabric8.updatebot.Configuration;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds and kills the tool processes started for a push in the same way Jenkins kills the processes left behind
+ * by a build: each process is given an environment variable whose value identifies the push. The maven and npm
+ * processes get it through the configuration of UpdateBot while git is run by {@link #run} directly.
+ */
+public class ChildProcesses {
+    /**
+     * The environment variable identifying the push which started a tool process
+     */
+    public static final String PUSH_COOKIE = "UPDATEBOT_PUSH_COOKIE";
+
+    /**
+     * Adds the cookie to the environment of the maven and npm processes UpdateBot runs
+     */
+    public static void addCookie(Configuration configuration, String cookie) {
+        Map<String, String> mvnEnv = copy(configuration.getMvnEnvironmentVariables());
+        mvnEnv.put(PUSH_COOKIE, cookie);
+        configuration.setMvnEnvironmentVariables(mvnEnv);
+        Map<String, String> npmEnv = copy(configuration.getNpmEnvironmentVariables());
+        npmEnv.put(PUSH_COOKIE, cookie);
+        configuration.setNpmEnvironmentVariables(npmEnv);
+    }
+
+    /**
+     * Runs a process such as git with the cookie in its environment copying its output to the logger
+     *
+     * @throws IOException if the process could not be started or failed
+     */
+    public static void run(File dir, String cookie, PrintStream logger, String... command) throws IOException, InterruptedException {
+        ProcessBuilder builder = new ProcessBuilder(command).directory(dir).redirectErrorStream(true);
+        builder.environment().put(PUSH_COOKIE, cookie);
+        Process process = builder.start();
+        try {
+            process.getOutputStream().close();
+            // returns once the process exits or is killed by killAll()
+            IOUtils.copy(process.getInputStream(), logger);
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new IOException("Command " + command[0] + (command.length > 1 ? " " + command[1] : "") + " in " + dir + " failed with exit code " + exitCode);
+            }
+        } finally {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Kills all the processes of this machine which were started with the given cookie
+     */
+    public static void killAll(String cookie) throws IOException, InterruptedException {
+        ProcessTree.get().killAll(Collections.singletonMap(PUSH_COOKIE, cookie));
+    }
+
+    private static Map<String, String> copy(Map<String, String> map) {
+        return map != null ? new HashMap<>(map) : new HashMap<String, String>();
+    }
+}
@@ -0,0 +1,279 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.support;
+
+import io.fabric8.updatebot.Configuration;
+import io.fabric8.utils.Strings;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+import net.sf.json.util.JSONUtils;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.github.GHContent;
+import org.kohsuke.github.GHIssueState;
+import org.kohsuke.github.GHPullRequest;
+import org.kohsuke.github.GHRef;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GitHub;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Pushes the version of an npm source project to a downstream repository using only the GitHub API rather than
+ * cloning the repository.
+ * <p>
+ * The downstream <code>package.json</code> is fetched through the contents API, the dependency versions are edited
+ * in memory and the change is committed via a single Git Data API tree, commit and ref before the pull request is
+ * opened with the label UpdateBot polls. Repositories which need a tool to be run, such as those with npm lock files,
+ * or which already have an UpdateBot pull request to update, are left to the regular push which clones them.
+ */
+public class ClonelessPush {
+    public static final String BRANCH_PREFIX = "updatebot-";
+    public static final String LABEL = "updatebot";
+
+    private static final String PACKAGE_JSON = "package.json";
+    private static final Set<String> DEPENDENCY_SECTIONS = new HashSet<>(Arrays.asList("dependencies", "devDependencies", "peerDependencies"));
+    private static final Pattern PLAIN_VERSION = Pattern.compile("([\\^~]?)(\\d[\\w.+-]*)");
+    private static final Set<String> NEEDS_NPM = new HashSet<>(Arrays.asList("package-lock.json", "npm-shrinkwrap.json", "yarn.lock"));
+
+    private final GitHub github;
+    private final String authorization;
+    private final String name;
+    private final String version;
+
+    public ClonelessPush(GitHub github, String username, String password, String name, String version) {
+        this.github = github;
+        this.authorization = "Basic " + Base64.encodeBase64String((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+        this.name = name;
+        this.version = version;
+    }
+
+    /**
+     * Returns the push for the source project of the configuration or null if pushing its versions needs a clone,
+     * such as maven projects whose versions are pushed by running maven
+     */
+    public static ClonelessPush fromSource(Configuration configuration, PrintStream logger) throws IOException {
+        File sourceDir = toFile(configuration.getSourcePath());
+        if (sourceDir == null || new File(sourceDir, "pom.xml").exists()) {
+            return null;
+        }
+        File packageJson = new File(sourceDir, PACKAGE_JSON);
+        if (!packageJson.isFile()) {
+            return null;
+        }
+        JSONObject json = JSONObject.fromObject(FileUtils.readFileToString(packageJson, StandardCharsets.UTF_8));
+        String name = json.optString("name", null);
+        String version = json.optString("version", null);
+        if (Strings.isNullOrBlank(name) || Strings.isNullOrBlank(version)) {
+            return null;
+        }
+        String username = configuration.getGithubUsername();
+        String password = configuration.getGithubPassword();
+        logger.println("Pushing " + name + " " + version + " via the GitHub API to repositories which do not need npm to be run");
+        return new ClonelessPush(GitHubClients.get().getGitHub(username, password), username, password, name, version);
+    }
+
+    /**
+     * Opens a pull request updating the source version in the <code>package.json</code> of the repository
+     *
+     * @return false if the repository needs to be cloned instead
+     */
+    public boolean push(String repositoryFullName, PrintStream logger) throws IOException {
+        GHRepository repository = github.getRepository(repositoryFullName);
+        String base = repository.getDefaultBranch();
+        Set<String> names = new HashSet<>();
+        for (GHContent content : repository.getDirectoryContent("", base)) {
+            names.add(content.getName());
+        }
+        if (!names.contains(PACKAGE_JSON) || containsAny(names, NEEDS_NPM)) {
+            return false;
+        }
+        for (GHPullRequest pullRequest : repository.getPullRequests(GHIssueState.OPEN)) {
+            if (pullRequest.getHead() != null && Strings.notEmpty(pullRequest.getHead().getRef())
+                    && pullRequest.getHead().getRef().startsWith(BRANCH_PREFIX)) {
+                // let the regular push update the existing pull request
+                return false;
+            }
+        }
+
+        GHContent content = repository.getFileContent(PACKAGE_JSON, base);
+        String encoded = content.getEncodedContent();
+        if (encoded == null) {
+            // the contents API leaves out the content of files over 1MB
+            logger.println("The " + PACKAGE_JSON + " of " + repositoryFullName + " is too large for the contents API so the repository will be cloned");
+            return false;
+        }
+        String packageJson = new String(Base64.decodeBase64(encoded), StandardCharsets.UTF_8);
+        String updated = updateDependency(packageJson, name, version);
+        if (updated == null) {
+            logger.println("Repository " + repositoryFullName + " already uses " + name + " " + version);
+            return true;
+        }
+
+        String path = "/repos/" + repositoryFullName + "/git/";
+        String parent = repository.getRef("heads/" + base).getObject().getSha();
+        String baseTree = request("GET", path + "commits/" + parent, null).getJSONObject("tree").getString("sha");
+
+        // the bodies are written by hand as json-lib would turn the JSON file content into an object
+        String tree = "{\"base_tree\":" + JSONUtils.quote(baseTree)
+                + ",\"tree\":[{\"path\":" + JSONUtils.quote(PACKAGE_JSON) + ",\"mode\":\"100644\",\"type\":\"blob\""
+                + ",\"content\":" + JSONUtils.quote(updated) + "}]}";
+        String treeSha = request("POST", path + "trees", tree).getString("sha");
+
+        String message = "fix(version): update " + name + " to " + version;
+        String commit = "{\"message\":" + JSONUtils.quote(message) + ",\"tree\":" + JSONUtils.quote(treeSha)
+                + ",\"parents\":[" + JSONUtils.quote(parent) + "]}";
+        String commitSha = request("POST", path + "commits", commit).getString("sha");
+
+        String branch = BRANCH_PREFIX + UUID.randomUUID();
+        GHRef ref = repository.createRef("refs/heads/" + branch, commitSha);
+        GHPullRequest pullRequest;
+        try {
+            pullRequest = repository.createPullRequest(message, branch, base,
+                    "UpdateBot pushed the " + name + " version " + version + " without cloning the repository");
+        } catch (IOException e) {
+            // don't leave a branch behind which no pull request will ever merge or close
+            try {
+                ref.delete();
+            } catch (IOException deleteError) {
+                logger.println("Failed to delete branch " + branch + " of " + repositoryFullName + ": " + deleteError);
+            }
+            throw e;
+        }
+        pullRequest.setLabels(LABEL);
+        logger.println("Opened pull request " + pullRequest.getHtmlUrl() + " on " + repositoryFullName + " via the GitHub API");
+        return true;
+    }
+
+    /**
+     * Returns the JSON with the version of the given package in the <code>dependencies</code>,
+     * <code>devDependencies</code> and <code>peerDependencies</code> replaced, keeping any range operator, or null if
+     * no version changed. Only the version strings are edited so that the formatting of the file is preserved;
+     * versions which are not plain numbers such as tags, URLs or complex ranges are left alone.
+     *
+     * @throws IOException if the JSON is invalid or the package is also listed outside the dependency sections so its
+     * versions in the sections cannot be told apart
+     */
+    protected static String updateDependency(String json, String name, String version) throws IOException {
+        JSONObject packageJson;
+        try {
+            packageJson = JSONObject.fromObject(json);
+        } catch (JSONException e) {
+            throw new IOException("Invalid package.json: " + e.getMessage(), e);
+        }
+        int expected = 0;
+        for (String section : DEPENDENCY_SECTIONS) {
+            JSONObject dependencies = packageJson.optJSONObject(section);
+            if (dependencies != null && dependencies.get(name) instanceof String) {
+                expected++;
+            }
+        }
+        if (expected == 0) {
+            return null;
+        }
+        Pattern entry = Pattern.compile("\"" + Pattern.quote(name) + "\"\\s*:\\s*\"([^\"\\\\]*)\"");
+        Matcher matcher = entry.matcher(json);
+        List<int[]> spans = new ArrayList<>();
+        while (matcher.find()) {
+            spans.add(new int[]{matcher.start(1), matcher.end(1)});
+        }
+        if (spans.size() != expected) {
+            throw new IOException("Package " + name + " is listed " + spans.size() + " times in package.json but only "
+                    + expected + " times in its dependency sections");
+        }
+        StringBuilder builder = new StringBuilder(json);
+        boolean changed = false;
+        // replace from the end so that the earlier offsets stay valid
+        for (int i = spans.size() - 1; i >= 0; i--) {
+            int[] span = spans.get(i);
+            Matcher plain = PLAIN_VERSION.matcher(json.substring(span[0], span[1]));
+            if (plain.matches() && !version.equals(plain.group(2))) {
+                builder.replace(span[0], span[1], plain.group(1) + version);
+                changed = true;
+            }
+        }
+        return changed ? builder.toString() : null;
+    }
+
+    /**
+     * Makes a GitHub API request the client has no method for through the same connections as the clients
+     */
+    protected JSONObject request(String method, String path, String body) throws IOException {
+        URL url = new URL(Strings.stripSuffix(GitHubClients.get().getApiUrl(), "/") + path);
+        HttpURLConnection connection = GitHubClients.get().createConnector().connect(url);
+        connection.setRequestMethod(method);
+        connection.setRequestProperty("Authorization", authorization);
+        connection.setRequestProperty("Accept", "application/vnd.github.v3+json");
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int code = connection.getResponseCode();
+        if (code >= 400) {
+            String error = "";
+            InputStream errorStream = connection.getErrorStream();
+            if (errorStream != null) {
+                try (InputStream in = errorStream) {
+                    error = IOUtils.toString(in, StandardCharsets.UTF_8);
+                }
+            }
+            throw new IOException("GitHub returned " + code + " for " + method + " " + path + ": " + error);
+        }
+        try (InputStream in = connection.getInputStream()) {
+            return JSONObject.fromObject(IOUtils.toString(in, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static boolean containsAny(Set<String> names, Set<String> values) {
+        for (String value : values) {
+            if (names.contains(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static File toFile(String sourcePath) {
+        if (Strings.isNullOrBlank(sourcePath)) {
+            return null;
+        }
+        if (sourcePath.startsWith("file:")) {
+            return new File(URI.create(sourcePath));
+        }
+        return new File(sourcePath);
+    }
+}
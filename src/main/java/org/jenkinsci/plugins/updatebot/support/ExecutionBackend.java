@@ -0,0 +1,297 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.support;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the threads which run the blocking network and process I/O of pushes and polls.
+ * <p>
+ * On Java 21 or later each task runs on a virtual thread so thousands of pushes waiting on GitHub or on tool
+ * processes cost a few KB each rather than a platform thread; concurrency is still limited to the configured number
+ * of pushes and polls. On older JVMs, or with
+ * <code>-Dorg.jenkinsci.plugins.updatebot.support.ExecutionBackend.virtualThreads=false</code>, tasks run on bounded
+ * pools of platform threads instead.
+ * <p>
+ * The backend is static rather than an extension as pushes also run on agents.
+ */
+public abstract class ExecutionBackend {
+    private static final transient Logger LOG = LoggerFactory.getLogger(ExecutionBackend.class);
+
+    private static final ExecutionBackend INSTANCE = create();
+
+    public static ExecutionBackend get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns a description of the threads used for the management page
+     */
+    public abstract String getDescription();
+
+    /**
+     * Returns true if tasks run on virtual threads
+     */
+    public abstract boolean isVirtual();
+
+    /**
+     * Creates an executor which runs at most the given number of tasks at once and queues the rest
+     */
+    public abstract BoundedExecutor createBoundedExecutor(String name, int maxConcurrency);
+
+    /**
+     * Creates an executor which starts a thread for each task at once, for tasks which are already limited
+     * elsewhere but may be abandoned while still running
+     */
+    public abstract ExecutorService createUnboundedExecutor(String name);
+
+    private static ExecutionBackend create() {
+        if (Boolean.parseBoolean(System.getProperty(ExecutionBackend.class.getName() + ".virtualThreads", "true"))) {
+            try {
+                return new VirtualThreads();
+            } catch (ReflectiveOperationException e) {
+                LOG.debug("Virtual threads are not available so using thread pools: " + e);
+            }
+        }
+        return new PlatformThreads();
+    }
+
+    /**
+     * An executor with a maximum number of concurrent tasks which can be changed while it runs
+     */
+    public interface BoundedExecutor extends Executor {
+        void setMaxConcurrency(int maxConcurrency);
+
+        int getMaxConcurrency();
+
+        int getActiveCount();
+
+        int getQueueSize();
+    }
+
+    /**
+     * Bounded pools of daemon platform threads
+     */
+    static class PlatformThreads extends ExecutionBackend {
+        @Override
+        public String getDescription() {
+            return "bounded thread pools";
+        }
+
+        @Override
+        public boolean isVirtual() {
+            return false;
+        }
+
+        @Override
+        public BoundedExecutor createBoundedExecutor(String name, int maxConcurrency) {
+            return new PooledExecutor(name, maxConcurrency);
+        }
+
+        @Override
+        public ExecutorService createUnboundedExecutor(String name) {
+            return Executors.newCachedThreadPool(new NamingThreadFactory(new DaemonThreadFactory(), name));
+        }
+    }
+
+    /**
+     * A virtual thread per task found via reflection so that the plugin still runs on Java 8
+     */
+    static class VirtualThreads extends ExecutionBackend {
+        private final Method ofVirtual;
+        private final Method name;
+        private final Method factory;
+        private final Method newThreadPerTaskExecutor;
+
+        VirtualThreads() throws ReflectiveOperationException {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            // fail now rather than on the first task if virtual threads cannot be created
+            createThreadFactory("UpdateBot");
+        }
+
+        @Override
+        public String getDescription() {
+            return "virtual threads";
+        }
+
+        @Override
+        public boolean isVirtual() {
+            return true;
+        }
+
+        @Override
+        public BoundedExecutor createBoundedExecutor(String name, int maxConcurrency) {
+            try {
+                return new ThreadPerTaskExecutor(createThreadFactory(name), maxConcurrency);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Failed to create virtual threads for " + name + ": " + e, e);
+            }
+        }
+
+        @Override
+        public ExecutorService createUnboundedExecutor(String name) {
+            try {
+                return (ExecutorService) newThreadPerTaskExecutor.invoke(null, createThreadFactory(name));
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Failed to create virtual threads for " + name + ": " + e, e);
+            }
+        }
+
+        private ThreadFactory createThreadFactory(String threadName) throws ReflectiveOperationException {
+            Object answer = ofVirtual.invoke(null);
+            answer = name.invoke(answer, threadName + " #", 1L);
+            return (ThreadFactory) factory.invoke(answer);
+        }
+    }
+
+    /**
+     * Runs tasks on a pool which grows up to the maximum concurrency and lets idle threads expire
+     */
+    static class PooledExecutor implements BoundedExecutor {
+        private final ThreadPoolExecutor executor;
+
+        PooledExecutor(String name, int maxConcurrency) {
+            int size = Math.max(1, maxConcurrency);
+            executor = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new NamingThreadFactory(new DaemonThreadFactory(), name));
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            executor.execute(command);
+        }
+
+        @Override
+        public synchronized void setMaxConcurrency(int maxConcurrency) {
+            int size = Math.max(1, maxConcurrency);
+            if (size > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(size);
+                executor.setCorePoolSize(size);
+            } else if (size < executor.getMaximumPoolSize()) {
+                executor.setCorePoolSize(size);
+                executor.setMaximumPoolSize(size);
+            }
+        }
+
+        @Override
+        public int getMaxConcurrency() {
+            return executor.getMaximumPoolSize();
+        }
+
+        @Override
+        public int getActiveCount() {
+            return executor.getActiveCount();
+        }
+
+        @Override
+        public int getQueueSize() {
+            return executor.getQueue().size();
+        }
+    }
+
+    /**
+     * Starts a new thread from the factory for each task once fewer than the maximum number of tasks are running
+     */
+    static class ThreadPerTaskExecutor implements BoundedExecutor {
+        private final ThreadFactory threadFactory;
+        private final Deque<Runnable> queue = new ArrayDeque<>();
+        private int maxConcurrency;
+        private int active;
+
+        ThreadPerTaskExecutor(ThreadFactory threadFactory, int maxConcurrency) {
+            this.threadFactory = threadFactory;
+            this.maxConcurrency = Math.max(1, maxConcurrency);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            synchronized (this) {
+                queue.add(command);
+            }
+            startQueued();
+        }
+
+        @Override
+        public void setMaxConcurrency(int maxConcurrency) {
+            synchronized (this) {
+                this.maxConcurrency = Math.max(1, maxConcurrency);
+            }
+            startQueued();
+        }
+
+        @Override
+        public synchronized int getMaxConcurrency() {
+            return maxConcurrency;
+        }
+
+        @Override
+        public synchronized int getActiveCount() {
+            return active;
+        }
+
+        @Override
+        public synchronized int getQueueSize() {
+            return queue.size();
+        }
+
+        private void startQueued() {
+            while (true) {
+                final Runnable command;
+                synchronized (this) {
+                    if (active >= maxConcurrency || queue.isEmpty()) {
+                        return;
+                    }
+                    command = queue.poll();
+                    active++;
+                }
+                Thread thread = threadFactory.newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            command.run();
+                        } finally {
+                            synchronized (ThreadPerTaskExecutor.this) {
+                                active--;
+                            }
+                            startQueued();
+                        }
+                    }
+                });
+                thread.start();
+            }
+        }
+    }
+}
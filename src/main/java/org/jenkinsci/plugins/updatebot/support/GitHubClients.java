@@ -0,0 +1,307 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.support;
+
+import com.squareup.okhttp.Connection;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.OkUrlFactory;
+import com.squareup.okhttp.Protocol;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.kohsuke.github.AbuseLimitHandler;
+import org.kohsuke.github.GitHub;
+import org.kohsuke.github.GitHubBuilder;
+import org.kohsuke.github.HttpConnector;
+import org.kohsuke.github.RateLimitHandler;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares a single pooled, keep-alive HTTP client between all the GitHub clients UpdateBot uses so that polling
+ * does not pay for a new TLS handshake on every request.
+ * <p>
+ * The client also records the rate limit GitHub reports in each response so that the credentials pool can pick the
+ * credentials with the most calls left, and swaps renewed installation tokens into requests made with old ones.
+ */
+public class GitHubClients {
+    private static final int MAX_IDLE_CONNECTIONS = 20;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    private static final long CONNECT_TIMEOUT_SECONDS = 10;
+    private static final long READ_TIMEOUT_SECONDS = 60;
+    private static final long WRITE_TIMEOUT_SECONDS = 60;
+    private static final int MAX_CLIENTS = 100;
+    private static final int MAX_RENEWED_AUTHORIZATIONS = 10000;
+    private static final String AUTHORIZATION = "Authorization";
+    private static final String RATE_LIMIT_REMAINING = "X-RateLimit-Remaining";
+    public static final String DEFAULT_API_URL = "https://api.github.com";
+
+    private static final GitHubClients INSTANCE = new GitHubClients();
+
+    private final ConnectionPool connectionPool = new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES);
+    private final OkHttpClient client = new OkHttpClient();
+    private final OkUrlFactory urlFactory;
+    private final Map<String, GitHub> clients = new ConcurrentHashMap<>();
+    private final Set<Connection> connections = Collections.newSetFromMap(new WeakHashMap<Connection, Boolean>());
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong connectionCount = new AtomicLong();
+    private final Map<String, String> renewedAuthorizations = new ConcurrentHashMap<>();
+    private final Map<String, RateLimit> rateLimits = new ConcurrentHashMap<>();
+    private volatile String apiUrl = System.getProperty(GitHubClients.class.getName() + ".apiUrl", DEFAULT_API_URL);
+    private volatile HttpConnector transport;
+
+    protected GitHubClients() {
+        client.setConnectionPool(connectionPool);
+        client.setProtocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+        client.setConnectTimeout(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        client.setReadTimeout(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        client.setWriteTimeout(WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        client.networkInterceptors().add(new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                recordRequest(chain.connection());
+                Request request = renewAuthorization(chain.request());
+                Response response = chain.proceed(request);
+                recordRateLimit(request, response);
+                return response;
+            }
+        });
+        urlFactory = new OkUrlFactory(client);
+    }
+
+    public static GitHubClients get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the shared GitHub client for the given username and password or token
+     */
+    public GitHub getGitHub(String username, String password) throws IOException {
+        String key = username + ":" + DigestUtils.sha256Hex(String.valueOf(password));
+        GitHub answer = clients.get(key);
+        if (answer == null) {
+            answer = new GitHubBuilder().
+                    withEndpoint(apiUrl).
+                    withPassword(username, password).
+                    withConnector(createConnector()).
+                    withRateLimitHandler(RateLimitHandler.WAIT).
+                    withAbuseLimitHandler(AbuseLimitHandler.WAIT).
+                    build();
+            if (clients.size() >= MAX_CLIENTS) {
+                // short lived installation tokens create a new client each time they are renewed
+                clients.clear();
+            }
+            clients.put(key, answer);
+        }
+        return answer;
+    }
+
+    /**
+     * Makes the requests which still use an expired password or token send the new one instead, such as those
+     * of the repositories UpdateBot fetched before the GitHub App installation token it polls with was renewed
+     */
+    public void renewPassword(String username, String oldPassword, String newPassword) {
+        String oldKey = authorizationKey(authorization(username, oldPassword));
+        String newAuthorization = authorization(username, newPassword);
+        if (renewedAuthorizations.size() >= MAX_RENEWED_AUTHORIZATIONS) {
+            renewedAuthorizations.clear();
+        }
+        for (Map.Entry<String, String> entry : renewedAuthorizations.entrySet()) {
+            if (oldKey.equals(authorizationKey(entry.getValue()))) {
+                entry.setValue(newAuthorization);
+            }
+        }
+        renewedAuthorizations.put(oldKey, newAuthorization);
+    }
+
+    /**
+     * Returns the number of API calls GitHub said were left for the given username and password or token in its
+     * last response or null if no response has been seen yet
+     */
+    public RateLimit getRateLimit(String username, String password) {
+        return rateLimits.get(authorizationKey(authorization(username, password)));
+    }
+
+    /**
+     * Returns the URL of the GitHub API the clients use
+     */
+    public String getApiUrl() {
+        return apiUrl;
+    }
+
+    /**
+     * Points the clients at another GitHub API such as GitHub Enterprise or a stub server for load tests
+     */
+    public void setApiUrl(String apiUrl) {
+        this.apiUrl = apiUrl != null ? apiUrl : DEFAULT_API_URL;
+        clients.clear();
+    }
+
+    /**
+     * Routes the requests of all the GitHub clients through the given connector, such as one which records or
+     * replays fixtures for tests, rather than the shared pool; null uses the shared pool again
+     */
+    public void setTransport(HttpConnector transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Returns a connector which creates connections from the shared pool unless a transport has been set
+     */
+    public HttpConnector createConnector() {
+        return new HttpConnector() {
+            @Override
+            public HttpURLConnection connect(URL url) throws IOException {
+                HttpConnector current = transport;
+                if (current != null) {
+                    return current.connect(url);
+                }
+                return urlFactory.open(url);
+            }
+        };
+    }
+
+    /**
+     * Opens a connection from the shared pool ignoring any transport which has been set
+     */
+    public HttpURLConnection openPooledConnection(URL url) {
+        return urlFactory.open(url);
+    }
+
+    private Request renewAuthorization(Request request) {
+        String authorization = request.header(AUTHORIZATION);
+        if (authorization == null || renewedAuthorizations.isEmpty()) {
+            return request;
+        }
+        String renewed = renewedAuthorizations.get(authorizationKey(authorization));
+        return renewed != null ? request.newBuilder().header(AUTHORIZATION, renewed).build() : request;
+    }
+
+    private void recordRateLimit(Request request, Response response) {
+        String authorization = request.header(AUTHORIZATION);
+        String remaining = response.header(RATE_LIMIT_REMAINING);
+        if (authorization == null || remaining == null) {
+            return;
+        }
+        try {
+            rateLimits.put(authorizationKey(authorization), new RateLimit(Integer.parseInt(remaining.trim()), System.currentTimeMillis()));
+        } catch (NumberFormatException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Returns the authorization header the GitHub clients send for the given username and password or token
+     */
+    private static String authorization(String username, String password) {
+        String credentials = username + ":" + password;
+        return "Basic " + new String(Base64.encodeBase64(credentials.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the key of an authorization header so that tokens are not kept as keys
+     */
+    private static String authorizationKey(String authorization) {
+        return DigestUtils.sha256Hex(authorization);
+    }
+
+    private void recordRequest(Connection connection) {
+        requestCount.incrementAndGet();
+        if (connection != null) {
+            synchronized (connections) {
+                if (connections.add(connection)) {
+                    connectionCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of HTTP requests made to GitHub
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of HTTP connections opened to GitHub
+     */
+    public long getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * Returns the percentage of requests which reused an existing connection
+     */
+    public long getConnectionReusePercent() {
+        long requests = requestCount.get();
+        if (requests == 0) {
+            return 0;
+        }
+        return 100 * (requests - connectionCount.get()) / requests;
+    }
+
+    public int getPooledConnectionCount() {
+        return connectionPool.getConnectionCount();
+    }
+
+    public int getIdleConnectionCount() {
+        return connectionPool.getIdleConnectionCount();
+    }
+
+    public int getMultiplexedConnectionCount() {
+        return connectionPool.getMultiplexedConnectionCount();
+    }
+
+    /**
+     * The number of API calls left for some credentials as of a response from GitHub
+     */
+    public static class RateLimit {
+        private final int remaining;
+        private final long time;
+
+        RateLimit(int remaining, long time) {
+            this.remaining = remaining;
+            this.time = time;
+        }
+
+        public int getRemaining() {
+            return remaining;
+        }
+
+        /**
+         * Returns when GitHub sent the response
+         */
+        public long getTime() {
+            return time;
+        }
+    }
+}
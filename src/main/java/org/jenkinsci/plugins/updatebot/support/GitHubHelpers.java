@@ -0,0 +1,39 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.support;
+
+import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
+import org.kohsuke.github.GHRateLimit;
+import org.kohsuke.github.GitHub;
+
+import java.io.IOException;
+
+/**
+ */
+public class GitHubHelpers {
+
+    /**
+     * Returns the number of remaining GitHub API calls for the given credentials.
+     * <p>
+     * Querying the rate limit does not count against the rate limit itself.
+     */
+    public static int getRemainingApiCalls(UsernamePasswordCredentials credentials) throws IOException {
+        GitHub github = GitHubClients.get().getGitHub(credentials.getUsername(), credentials.getPassword().getPlainText());
+        GHRateLimit rateLimit = github.getRateLimit();
+        return rateLimit.remaining;
+    }
+}
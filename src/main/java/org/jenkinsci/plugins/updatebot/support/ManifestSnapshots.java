@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.support;
+
+import hudson.FilePath;
+import hudson.remoting.Channel;
+import hudson.remoting.RemoteOutputStream;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+import jenkins.MasterToSlaveFileCallable;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Copies only the files UpdateBot reads to find the versions released by a build out of a workspace.
+ * <p>
+ * The manifests are selected and compressed into a single tar on the machine holding the workspace and streamed
+ * once over the channel so a large workspace costs kilobytes rather than copying it or reading it file by file.
+ */
+public class ManifestSnapshots {
+    /**
+     * The files UpdateBot uses to find the source repository and the versions it released
+     */
+    public static final String INCLUDES = ".updatebot.yml,**/pom.xml,**/package.json,.git/config,.git/HEAD";
+    public static final String EXCLUDES = "**/node_modules/**,**/target/**";
+
+    /**
+     * Copies the manifests of the source workspace into the target directory which may be on another machine
+     *
+     * @return the number of files copied
+     */
+    public static int copy(FilePath source, FilePath target) throws IOException, InterruptedException {
+        File tarFile = File.createTempFile("updatebot-manifests", ".tar.gz");
+        try {
+            int answer;
+            try (OutputStream out = new FileOutputStream(tarFile)) {
+                answer = source.act(new TarManifests(new RemoteOutputStream(out)));
+                VirtualChannel channel = source.getChannel();
+                if (channel instanceof Channel) {
+                    // the agent writes to the stream asynchronously so wait for the writes before closing the file
+                    ((Channel) channel).syncLocalIO();
+                }
+            }
+            target.mkdirs();
+            try (InputStream in = new FileInputStream(tarFile)) {
+                target.untarFrom(in, FilePath.TarCompression.GZIP);
+            }
+            return answer;
+        } finally {
+            tarFile.delete();
+        }
+    }
+
+    /**
+     * Returns a hash of the paths and content of the manifests of the workspace which is the same for any two
+     * workspaces of the same source repository and versions
+     */
+    public static String hash(FilePath workspace) throws IOException, InterruptedException {
+        return workspace.act(new HashManifests());
+    }
+
+    private static class HashManifests extends MasterToSlaveFileCallable<String> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public String invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            final Map<String, File> files = new TreeMap<>();
+            new DirScanner.Glob(INCLUDES, EXCLUDES).scan(dir, new FileVisitor() {
+                @Override
+                public void visit(File file, String relativePath) throws IOException {
+                    files.put(relativePath, file);
+                }
+            });
+            MessageDigest digest = DigestUtils.getSha256Digest();
+            for (Map.Entry<String, File> entry : files.entrySet()) {
+                digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(FileUtils.readFileToByteArray(entry.getValue()));
+                digest.update((byte) 0);
+            }
+            return Hex.encodeHexString(digest.digest());
+        }
+    }
+
+    private static class TarManifests extends MasterToSlaveFileCallable<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final OutputStream out;
+
+        TarManifests(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public Integer invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            try (OutputStream compressed = FilePath.TarCompression.GZIP.compress(out)) {
+                return new FilePath(dir).tar(compressed, new DirScanner.Glob(INCLUDES, EXCLUDES));
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.support;
+
+import io.fabric8.updatebot.Configuration;
+import io.fabric8.updatebot.model.RepositoryConfig;
+import org.kohsuke.github.GitHub;
+
+import java.io.IOException;
+
+/**
+ * A {@link Configuration} which uses the shared GitHub clients from {@link GitHubClients}
+ * rather than creating a new client with its own connections for each UpdateBot command
+ * and which resolves its repository configuration via the {@link RepositoryConfigCache}.
+ */
+public class PooledConfiguration extends Configuration {
+
+    @Override
+    public GitHub getGithub() throws IOException {
+        return GitHubClients.get().getGitHub(getGithubUsername(), getGithubPassword());
+    }
+
+    @Override
+    public RepositoryConfig loadRepositoryConfig() throws IOException {
+        String key = RepositoryConfigCache.createKey(getConfigFile(), getSourcePath());
+        if (key == null) {
+            return super.loadRepositoryConfig();
+        }
+        RepositoryConfigCache cache = RepositoryConfigCache.get();
+        RepositoryConfig answer = cache.getConfig(key);
+        if (answer == null) {
+            answer = super.loadRepositoryConfig();
+            if (answer != null) {
+                cache.putConfig(key, answer);
+            }
+        }
+        return answer;
+    }
+}
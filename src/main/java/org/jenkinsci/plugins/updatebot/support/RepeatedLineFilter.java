@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Drops the lines which were already written during the previous poll so that waiting hours for pull requests
+ * only logs what changed rather than the same status lines on every poll.
+ * <p>
+ * Call {@link #nextPoll()} before each poll; the number of dropped lines is available for heartbeat summaries.
+ */
+public class RepeatedLineFilter extends OutputStream {
+    private final OutputStream out;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    private Set<String> previousLines = new HashSet<>();
+    private Set<String> currentLines = new HashSet<>();
+    private long droppedLines;
+
+    public RepeatedLineFilter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Returns a print stream writing through this filter
+     */
+    public PrintStream createPrintStream() {
+        try {
+            return new PrintStream(this, true, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Starts a new poll so that lines of the poll which has just finished are dropped if they are written again
+     */
+    public synchronized void nextPoll() throws IOException {
+        flushLine();
+        previousLines = currentLines;
+        currentLines = new HashSet<>();
+    }
+
+    /**
+     * Returns the number of lines dropped since the last call
+     */
+    public synchronized long takeDroppedLines() {
+        long answer = droppedLines;
+        droppedLines = 0;
+        return answer;
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        line.write(b);
+        if (b == '\n') {
+            flushLine();
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            write(b[i]);
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flushLine();
+        out.close();
+    }
+
+    private void flushLine() throws IOException {
+        if (line.size() == 0) {
+            return;
+        }
+        byte[] bytes = line.toByteArray();
+        line.reset();
+        String text = new String(bytes, StandardCharsets.UTF_8).trim();
+        currentLines.add(text);
+        if (!text.isEmpty() && previousLines.contains(text)) {
+            droppedLines++;
+            return;
+        }
+        out.write(bytes);
+    }
+}
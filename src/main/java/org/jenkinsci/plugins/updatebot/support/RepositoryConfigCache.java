@@ -0,0 +1,236 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.support;
+
+import hudson.util.XStream2;
+import io.fabric8.updatebot.model.RepositoryConfig;
+import io.fabric8.utils.Strings;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Caches the UpdateBot configurations resolved for pushes so that the pipelines of an organisation do not keep
+ * fetching the same <code>organisation-updatebot</code> repository.
+ * <p>
+ * A local configuration file is cached by the hash of its content; otherwise the configuration is cached by the
+ * origin repository and commit of the source or by the URL of the configuration. Entries expire after a time to live
+ * and the least recently used entries are evicted once the cache is full.
+ * <p>
+ * UpdateBot modifies the configuration while pushing so the cache holds a serialized copy and every push gets
+ * an instance of its own.
+ */
+public class RepositoryConfigCache {
+    private static final Pattern GITHUB_REPOSITORY = Pattern.compile("github\\.com[:/]+([^/]+/[^/]+?)(\\.git)?/*$");
+    private static final Pattern SECTION = Pattern.compile("\\s*\\[\\s*([^\\s\\]]+)(\\s+\"([^\"]*)\")?\\s*\\]\\s*");
+    private static final Pattern URL = Pattern.compile("\\s*url\\s*=\\s*(.*?)\\s*");
+    private static final Pattern SHA = Pattern.compile("[0-9a-f]{40}");
+    private static final XStream2 XSTREAM = new XStream2();
+    private static final int DEFAULT_MAX_ENTRIES = 200;
+    private static final int DEFAULT_TTL_MINUTES = 5;
+
+    private static final RepositoryConfigCache INSTANCE = new RepositoryConfigCache();
+
+    private final Map<String, CachedConfig> configs = new LinkedHashMap<String, CachedConfig>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedConfig> eldest) {
+            return size() > maxEntries;
+        }
+    };
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+    private volatile long ttlMS = TimeUnit.MINUTES.toMillis(DEFAULT_TTL_MINUTES);
+
+    public static RepositoryConfigCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns a new copy of the cached configuration for the key or null if there is none or it has expired
+     */
+    public RepositoryConfig getConfig(String key) {
+        String xml;
+        synchronized (this) {
+            CachedConfig cached = configs.get(key);
+            if (cached == null || cached.expires < System.currentTimeMillis()) {
+                configs.remove(key);
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            xml = cached.xml;
+        }
+        return (RepositoryConfig) XSTREAM.fromXML(xml);
+    }
+
+    /**
+     * Caches a copy of the configuration so that later changes to it by the push do not leak into other pushes
+     */
+    public void putConfig(String key, RepositoryConfig config) {
+        if (ttlMS > 0) {
+            String xml = XSTREAM.toXML(config);
+            synchronized (this) {
+                configs.put(key, new CachedConfig(xml, System.currentTimeMillis() + ttlMS));
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        configs.clear();
+    }
+
+    /**
+     * Sets how long configurations are cached for; zero disables the cache
+     */
+    public void setTtlMinutes(int ttlMinutes) {
+        this.ttlMS = TimeUnit.MINUTES.toMillis(Math.max(0, ttlMinutes));
+        if (ttlMS == 0) {
+            clear();
+        }
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    public synchronized int getSize() {
+        return configs.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the key to cache the configuration of the given source under or null if it should not be cached
+     *
+     * @param configFile the name or URL of the configuration file
+     * @param sourcePath the path or file URI of the source repository
+     */
+    public static String createKey(String configFile, String sourcePath) throws IOException {
+        if (Strings.notEmpty(configFile) && configFile.contains("://")) {
+            return "url:" + configFile;
+        }
+        File sourceDir = toFile(sourcePath);
+        if (sourceDir == null) {
+            return null;
+        }
+        String fileName = Strings.notEmpty(configFile) ? configFile : ".updatebot.yml";
+        File file = new File(fileName).isAbsolute() ? new File(fileName) : new File(sourceDir, fileName);
+        if (file.isFile()) {
+            return "sha256:" + DigestUtils.sha256Hex(FileUtils.readFileToByteArray(file));
+        }
+        // without a local file the configuration depends on the source repository and the commit it is at
+        String repository = originRepository(new File(sourceDir, ".git/config"));
+        String sha = headSha(new File(sourceDir, ".git"));
+        if (repository != null && sha != null) {
+            return "repository:" + repository + "@" + sha;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the GitHub repository of the <code>origin</code> remote in the git configuration file or null
+     */
+    protected static String originRepository(File gitConfig) throws IOException {
+        if (!gitConfig.isFile()) {
+            return null;
+        }
+        boolean origin = false;
+        for (String line : FileUtils.readLines(gitConfig, StandardCharsets.UTF_8)) {
+            Matcher section = SECTION.matcher(line);
+            if (section.matches()) {
+                origin = "remote".equals(section.group(1)) && "origin".equals(section.group(3));
+                continue;
+            }
+            Matcher url = URL.matcher(line);
+            if (origin && url.matches()) {
+                Matcher matcher = GITHUB_REPOSITORY.matcher(url.group(1));
+                return matcher.find() ? matcher.group(1) : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the commit the git directory is at or null if it cannot be found
+     */
+    protected static String headSha(File gitDir) throws IOException {
+        File head = new File(gitDir, "HEAD");
+        if (!head.isFile()) {
+            return null;
+        }
+        String ref = FileUtils.readFileToString(head, StandardCharsets.UTF_8).trim();
+        if (SHA.matcher(ref).matches()) {
+            return ref;
+        }
+        if (!ref.startsWith("ref:")) {
+            return null;
+        }
+        ref = ref.substring("ref:".length()).trim();
+        File refFile = new File(gitDir, ref);
+        if (refFile.isFile()) {
+            String sha = FileUtils.readFileToString(refFile, StandardCharsets.UTF_8).trim();
+            return SHA.matcher(sha).matches() ? sha : null;
+        }
+        File packedRefs = new File(gitDir, "packed-refs");
+        if (packedRefs.isFile()) {
+            for (String line : FileUtils.readLines(packedRefs, StandardCharsets.UTF_8)) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length == 2 && fields[1].equals(ref) && SHA.matcher(fields[0]).matches()) {
+                    return fields[0];
+                }
+            }
+        }
+        return null;
+    }
+
+    private static File toFile(String sourcePath) {
+        if (Strings.isNullOrBlank(sourcePath)) {
+            return null;
+        }
+        if (sourcePath.startsWith("file:")) {
+            return new File(URI.create(sourcePath));
+        }
+        return new File(sourcePath);
+    }
+
+    private static class CachedConfig {
+        private final String xml;
+        private final long expires;
+
+        CachedConfig(String xml, long expires) {
+            this.xml = xml;
+            this.expires = expires;
+        }
+    }
+}
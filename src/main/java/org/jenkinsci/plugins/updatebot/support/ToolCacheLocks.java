@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.support;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Locks the tool caches of a node, the maven local repository and npm cache which UpdateBot shares between all the
+ * maven and npm processes it runs on that node, and limits how many of those processes run at once.
+ * <p>
+ * The parts of pushes and polls which may run maven or npm hold the read lock, via a {@link Guard}, while eviction
+ * holds the write lock so that artifacts are never deleted from underneath a running build. Maven versions which
+ * cannot lock the local repository themselves are also run one at a time. UpdateBot runs the tools of a repository
+ * one after another so bounding the repository updates and polls which hold a tool slot bounds the tool processes.
+ * <p>
+ * Static rather than an extension as pushes also run on agents.
+ */
+public class ToolCacheLocks {
+    private static final ToolCacheLocks INSTANCE = new ToolCacheLocks();
+    private static final long EVICTION_LOCK_RETRY_MS = 5000L;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock mavenRepositoryLock = new ReentrantLock(true);
+    private int toolRuns;
+
+    public static ToolCacheLocks get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Waits for one of the tool slots of the node; the limit is passed in each time so that a changed setting applies
+     * to the next tool run
+     *
+     * @param max the maximum number of tool runs at once
+     */
+    public synchronized void acquireToolRun(int max) throws InterruptedException {
+        while (toolRuns >= max) {
+            wait();
+        }
+        toolRuns++;
+    }
+
+    public synchronized void releaseToolRun() {
+        toolRuns--;
+        notifyAll();
+    }
+
+    /**
+     * Returns the number of repository updates and polls running tools on this node
+     */
+    public synchronized int getToolRuns() {
+        return toolRuns;
+    }
+
+    /**
+     * Takes the write lock once no maven or npm process is using the caches
+     *
+     * @return the write lock which the caller must unlock or null if the caches were in use for the whole timeout
+     */
+    public Lock lockForEviction(long timeout, TimeUnit unit) throws InterruptedException {
+        // poll rather than queue for the write lock so that a waiting eviction never holds up new UpdateBot commands
+        Lock writeLock = lock.writeLock();
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        while (!writeLock.tryLock()) {
+            if (System.currentTimeMillis() > deadline) {
+                return null;
+            }
+            Thread.sleep(EVICTION_LOCK_RETRY_MS);
+        }
+        return writeLock;
+    }
+
+    /**
+     * Decides which locks the tools of a push need; serializable so that it can be sent to the agent running the push
+     */
+    public static class Guard implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * A guard for tools which do not use the shared caches
+         */
+        public static final Guard NONE = new Guard(false, false, 0);
+
+        private final boolean sharedCaches;
+        private final boolean serializeMaven;
+        private final int maxToolRuns;
+
+        /**
+         * @param sharedCaches   true if maven and npm use the shared caches of the node
+         * @param serializeMaven true if maven cannot lock the shared local repository itself so only one maven
+         *                       process may use it at a time
+         * @param maxToolRuns    the maximum number of repository updates and polls which may run tools at once on
+         *                       the node or zero for no limit
+         */
+        public Guard(boolean sharedCaches, boolean serializeMaven, int maxToolRuns) {
+            this.sharedCaches = sharedCaches;
+            this.serializeMaven = sharedCaches && serializeMaven;
+            this.maxToolRuns = maxToolRuns;
+        }
+
+        /**
+         * Runs a task which may run maven or npm holding the locks the tools need
+         *
+         * @param dir the project the tools run in or null if it is not known, such as for a poll which may rebase
+         *            any of the pull requests of a push
+         */
+        public <T> T call(File dir, Callable<T> task) throws Exception {
+            if (maxToolRuns <= 0) {
+                return callWithCaches(dir, task);
+            }
+            ToolCacheLocks locks = get();
+            locks.acquireToolRun(maxToolRuns);
+            try {
+                return callWithCaches(dir, task);
+            } finally {
+                locks.releaseToolRun();
+            }
+        }
+
+        private <T> T callWithCaches(File dir, Callable<T> task) throws Exception {
+            if (!sharedCaches) {
+                return task.call();
+            }
+            ToolCacheLocks locks = get();
+            Lock readLock = locks.lock.readLock();
+            readLock.lockInterruptibly();
+            try {
+                if (!serializeMaven || (dir != null && !new File(dir, "pom.xml").exists())) {
+                    return task.call();
+                }
+                locks.mavenRepositoryLock.lockInterruptibly();
+                try {
+                    return task.call();
+                } finally {
+                    locks.mavenRepositoryLock.unlock();
+                }
+            } finally {
+                readLock.unlock();
+            }
+        }
+    }
+}
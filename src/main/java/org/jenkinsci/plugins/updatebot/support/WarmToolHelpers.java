@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.support;
+
+import io.fabric8.utils.Strings;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Helper methods for reusing warm build tool processes across the repositories UpdateBot updates
+ */
+public class WarmToolHelpers {
+    /**
+     * The environment variable telling the Maven Daemon client where to find its properties
+     */
+    public static final String MVND_PROPERTIES_PATH = "MVND_PROPERTIES_PATH";
+    /**
+     * The environment variable telling npm to use its cached package metadata where possible
+     */
+    public static final String NPM_PREFER_OFFLINE = "npm_config_prefer_offline";
+
+    /**
+     * Returns the <code>mvnd</code> executable of the given Maven Daemon installation or null if there is none
+     */
+    public static File findMavenDaemon(String mavenDaemonHome) {
+        if (Strings.isNullOrBlank(mavenDaemonHome)) {
+            return null;
+        }
+        String suffix = SystemHelper.isWindows() ? ".cmd" : "";
+        File answer = new File(mavenDaemonHome, "bin/mvnd" + suffix);
+        return answer.isFile() ? answer : null;
+    }
+
+    /**
+     * Writes the properties shared by all the Maven Daemons UpdateBot starts so that idle daemons are stopped
+     * after the given number of minutes, only rewriting the file if it has changed
+     */
+    public static File writeMavenDaemonProperties(File dir, int idleTimeoutMinutes) throws IOException {
+        File answer = new File(dir, "mvnd.properties");
+        String content = "mvnd.idleTimeout=" + idleTimeoutMinutes + "m\n";
+        if (!answer.isFile() || !content.equals(FileUtils.readFileToString(answer, StandardCharsets.UTF_8))) {
+            FileUtils.writeStringToFile(answer, content, StandardCharsets.UTF_8);
+        }
+        return answer;
+    }
+}
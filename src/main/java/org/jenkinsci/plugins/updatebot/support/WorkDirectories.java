@@ -0,0 +1,359 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.support;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Gives each push or import a directory of its own to clone the downstream repositories into and keeps the
+ * directories of a node within a disk quota.
+ * <p>
+ * The directories are slots under a root such as <code>JENKINS_HOME/updatebot/work</code>. A slot is leased to one
+ * push at a time until its pull requests are complete; it is then left as it is so that the next push with the same
+ * key, such as the same pipeline, reuses its clones and only has to pull the changes. Once the slots take more than
+ * the quota the least recently used slots which are not leased are deleted in the background.
+ * <p>
+ * Static rather than an extension as pushes also run on agents.
+ */
+public class WorkDirectories {
+    private static final transient Logger LOG = LoggerFactory.getLogger(WorkDirectories.class);
+    private static final WorkDirectories INSTANCE = new WorkDirectories();
+    private static final String SLOT_PREFIX = "slot-";
+    private static final String MARKER_FILE = ".updatebot-lease";
+
+    private final Set<File> leased = new HashSet<>();
+    /**
+     * The slots being deleted which must not be leased
+     */
+    private final Set<File> evicting = new HashSet<>();
+    private final ExecutorService evictor = Executors.newSingleThreadExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "UpdateBot work directory eviction"));
+    private final AtomicBoolean evictionQueued = new AtomicBoolean();
+    private volatile Usage usage;
+    private long evictedCount;
+
+    public static WorkDirectories get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Leases a slot under the root preferring the idle slot last used with the same key, then the most recently
+     * used idle slot, so that clones are reused; a new slot is created if all of them are leased
+     */
+    public synchronized Lease lease(File root, String key, long maxBytes) throws IOException {
+        if (!root.isDirectory() && !root.mkdirs()) {
+            throw new IOException("Failed to create directory " + root);
+        }
+        File answer = null;
+        long answerLastUsed = -1;
+        int nextSlot = 0;
+        for (File slot : listSlots(root)) {
+            nextSlot = Math.max(nextSlot, slotNumber(slot) + 1);
+            if (leased.contains(slot) || evicting.contains(slot)) {
+                continue;
+            }
+            File marker = new File(slot, MARKER_FILE);
+            if (key != null && key.equals(readKey(marker))) {
+                answer = slot;
+                break;
+            }
+            if (marker.lastModified() > answerLastUsed) {
+                answer = slot;
+                answerLastUsed = marker.lastModified();
+            }
+        }
+        if (answer == null) {
+            answer = new File(root, SLOT_PREFIX + nextSlot);
+            if (!answer.isDirectory() && !answer.mkdirs()) {
+                throw new IOException("Failed to create directory " + answer);
+            }
+        }
+        leased.add(answer);
+        Lease lease = new Lease(this, root, answer, key, maxBytes);
+        lease.touch();
+        return lease;
+    }
+
+    /**
+     * Returns the usage of the work directories of this JVM as of the last eviction or null if none has run yet
+     */
+    public Usage getUsage() {
+        return usage;
+    }
+
+    public synchronized int getLeasedCount() {
+        return leased.size();
+    }
+
+    /**
+     * Queues an eviction of the idle slots under the root unless one is already queued
+     */
+    public void evictLater(final File root, final long maxBytes) {
+        if (!evictionQueued.compareAndSet(false, true)) {
+            return;
+        }
+        evictor.execute(new Runnable() {
+            @Override
+            public void run() {
+                evictionQueued.set(false);
+                try {
+                    evict(root, maxBytes);
+                } catch (Exception e) {
+                    LOG.warn("Failed to evict UpdateBot work directories from " + root + ": " + e, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes the least recently used slots which are not leased until the slots under the root take no more
+     * than the given number of bytes
+     *
+     * @return the usage of the slots after eviction
+     */
+    public Usage evict(File root, long maxBytes) {
+        List<Slot> slots = new ArrayList<>();
+        long total = 0;
+        for (File dir : listSlots(root)) {
+            Slot slot = new Slot(dir, CacheEvictionHelpers.sizeOf(dir), new File(dir, MARKER_FILE).lastModified());
+            slots.add(slot);
+            total += slot.size;
+        }
+        Collections.sort(slots, new Comparator<Slot>() {
+            @Override
+            public int compare(Slot s1, Slot s2) {
+                return Long.compare(s1.lastUsed, s2.lastUsed);
+            }
+        });
+        int count = slots.size();
+        List<Slot> victims = new ArrayList<>();
+        synchronized (this) {
+            for (Slot slot : slots) {
+                if (total <= maxBytes) {
+                    break;
+                }
+                if (leased.contains(slot.dir) || evicting.contains(slot.dir)) {
+                    continue;
+                }
+                // mark the slot so that it cannot be leased half deleted while it is deleted without the lock
+                evicting.add(slot.dir);
+                victims.add(slot);
+                total -= slot.size;
+                count--;
+            }
+        }
+        int evicted = 0;
+        for (Slot slot : victims) {
+            boolean deleted = FileUtils.deleteQuietly(slot.dir);
+            if (!deleted) {
+                // make sure a partly deleted slot is not reused for its key
+                FileUtils.deleteQuietly(new File(slot.dir, MARKER_FILE));
+                LOG.warn("Failed to delete UpdateBot work directory " + slot.dir);
+                total += slot.size;
+                count++;
+            } else {
+                evicted++;
+            }
+            synchronized (this) {
+                evicting.remove(slot.dir);
+            }
+        }
+        Usage answer;
+        synchronized (this) {
+            evictedCount += evicted;
+            answer = new Usage(root, total, maxBytes, count, leased.size(), evictedCount, System.currentTimeMillis());
+        }
+        if (evicted > 0) {
+            LOG.info("Evicted " + evicted + " UpdateBot work directories from " + root + " leaving " + total / (1024 * 1024) + " MB");
+        }
+        usage = answer;
+        return answer;
+    }
+
+    protected synchronized void release(Lease lease) {
+        leased.remove(lease.dir);
+    }
+
+    private static List<File> listSlots(File root) {
+        List<File> answer = new ArrayList<>();
+        File[] files = root.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory() && slotNumber(file) >= 0) {
+                    answer.add(file);
+                }
+            }
+        }
+        return answer;
+    }
+
+    private static int slotNumber(File slot) {
+        String name = slot.getName();
+        if (name.startsWith(SLOT_PREFIX)) {
+            try {
+                return Integer.parseInt(name.substring(SLOT_PREFIX.length()));
+            } catch (NumberFormatException e) {
+                // ignore
+            }
+        }
+        return -1;
+    }
+
+    private static String readKey(File marker) {
+        if (!marker.isFile()) {
+            return null;
+        }
+        try {
+            return FileUtils.readFileToString(marker, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A directory leased to a single push until it is released
+     */
+    public static class Lease {
+        private final WorkDirectories owner;
+        private final File root;
+        private final File dir;
+        private final String key;
+        private final long maxBytes;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Lease(WorkDirectories owner, File root, File dir, String key, long maxBytes) {
+            this.owner = owner;
+            this.root = root;
+            this.dir = dir;
+            this.key = key;
+            this.maxBytes = maxBytes;
+        }
+
+        public File getDir() {
+            return dir;
+        }
+
+        /**
+         * Lets the directory be reused or evicted; only the first call has any effect
+         */
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                touch();
+                owner.release(this);
+                owner.evictLater(root, maxBytes);
+            }
+        }
+
+        /**
+         * Records the key and the time the slot was last used
+         */
+        private void touch() {
+            try {
+                FileUtils.writeStringToFile(new File(dir, MARKER_FILE), key != null ? key : "", StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                LOG.warn("Failed to mark UpdateBot work directory " + dir + " as used: " + e, e);
+            }
+        }
+    }
+
+    /**
+     * How much disk the work directories of a node take
+     */
+    public static class Usage {
+        private final File root;
+        private final long size;
+        private final long maxSize;
+        private final int directoryCount;
+        private final int leasedCount;
+        private final long evictedCount;
+        private final long time;
+
+        Usage(File root, long size, long maxSize, int directoryCount, int leasedCount, long evictedCount, long time) {
+            this.root = root;
+            this.size = size;
+            this.maxSize = maxSize;
+            this.directoryCount = directoryCount;
+            this.leasedCount = leasedCount;
+            this.evictedCount = evictedCount;
+            this.time = time;
+        }
+
+        public File getRoot() {
+            return root;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getMaxSize() {
+            return maxSize;
+        }
+
+        public int getDirectoryCount() {
+            return directoryCount;
+        }
+
+        public int getLeasedCount() {
+            return leasedCount;
+        }
+
+        /**
+         * Returns the number of directories evicted since this JVM started
+         */
+        public long getEvictedCount() {
+            return evictedCount;
+        }
+
+        /**
+         * Returns when the usage was measured
+         */
+        public Date getTime() {
+            return new Date(time);
+        }
+    }
+
+    private static class Slot {
+        private final File dir;
+        private final long size;
+        private final long lastUsed;
+
+        Slot(File dir, long size, long lastUsed) {
+            this.dir = dir;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
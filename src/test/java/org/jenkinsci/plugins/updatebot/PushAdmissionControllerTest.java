@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Admits waiting pushes by priority, then to the folder with the fewest running pushes, then in arrival order
+ */
+public class PushAdmissionControllerTest {
+    private static final Runnable NOTHING = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    private final PrintStream logger = new PrintStream(new ByteArrayOutputStream());
+
+    @Test
+    public void admitsTheHighestPriorityFirst() {
+        TestController controller = new TestController(1);
+        PushAdmissionController.Ticket running = request(controller, "running", "a", 0);
+        request(controller, "low", "a", 0);
+        request(controller, "high", "b", 5);
+        request(controller, "medium", "c", 1);
+        assertEquals(Arrays.asList("high", "medium", "low"), names(controller.getWaiting()));
+
+        controller.release(running);
+        assertEquals(Arrays.asList("high"), names(controller.getRunning()));
+    }
+
+    @Test
+    public void admitsTheFolderWithFewestRunningPushesFirst() {
+        TestController controller = new TestController(2);
+        PushAdmissionController.Ticket running = request(controller, "busy-1", "busy", 0);
+        request(controller, "busy-2", "busy", 0);
+        request(controller, "busy-3", "busy", 0);
+        request(controller, "quiet-1", "quiet", 0);
+        assertEquals(Arrays.asList("quiet-1", "busy-3"), names(controller.getWaiting()));
+
+        controller.release(running);
+        assertEquals(Arrays.asList("busy-2", "quiet-1"), names(controller.getRunning()));
+        assertEquals(Arrays.asList("busy-3"), names(controller.getWaiting()));
+    }
+
+    @Test
+    public void priorityWinsOverFolderFairness() {
+        TestController controller = new TestController(1);
+        request(controller, "busy-1", "busy", 0);
+        request(controller, "quiet-1", "quiet", 0);
+        request(controller, "busy-2", "busy", 1);
+        assertEquals(Arrays.asList("busy-2", "quiet-1"), names(controller.getWaiting()));
+    }
+
+    @Test
+    public void admitsInArrivalOrderOtherwise() {
+        TestController controller = new TestController(1);
+        PushAdmissionController.Ticket running = request(controller, "running", "a", 0);
+        request(controller, "first", "a", 0);
+        request(controller, "second", "a", 0);
+        request(controller, "third", "a", 0);
+        assertEquals(Arrays.asList("first", "second", "third"), names(controller.getWaiting()));
+
+        controller.release(running);
+        assertEquals(Arrays.asList("first"), names(controller.getRunning()));
+        assertEquals(Arrays.asList("second", "third"), names(controller.getWaiting()));
+    }
+
+    @Test
+    public void releasingAWaitingPushRemovesItFromTheQueue() {
+        TestController controller = new TestController(1);
+        request(controller, "running", "a", 0);
+        PushAdmissionController.Ticket waiting = request(controller, "waiting", "a", 0);
+        request(controller, "next", "a", 0);
+
+        controller.release(waiting);
+        assertEquals(Arrays.asList("running"), names(controller.getRunning()));
+        assertEquals(Arrays.asList("next"), names(controller.getWaiting()));
+    }
+
+    private PushAdmissionController.Ticket request(PushAdmissionController controller, String name, String folder, int priority) {
+        PushAdmissionController.Ticket ticket = new PushAdmissionController.Ticket(name, folder, priority, logger);
+        controller.request(ticket, NOTHING);
+        return ticket;
+    }
+
+    private static List<String> names(List<PushAdmissionController.Ticket> tickets) {
+        List<String> answer = new ArrayList<>();
+        for (PushAdmissionController.Ticket ticket : tickets) {
+            answer.add(ticket.getName());
+        }
+        return answer;
+    }
+
+    private static class TestController extends PushAdmissionController {
+        private final int maxConcurrentPushes;
+
+        TestController(int maxConcurrentPushes) {
+            this.maxConcurrentPushes = maxConcurrentPushes;
+        }
+
+        @Override
+        protected int getMaxConcurrentPushes() {
+            return maxConcurrentPushes;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot;
+
+import hudson.XmlFile;
+import hudson.util.XStream2;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Opens, half opens and closes the circuits of repositories without a running Jenkins
+ */
+public class RepositoryCircuitBreakersTest {
+    private static final String REPOSITORY = "acme/widgets";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private TestBreakers breakers;
+
+    @Before
+    public void setUp() {
+        breakers = new TestBreakers(new File(tmp.getRoot(), "circuit-breakers.xml"));
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        breakers.record(failure(REPOSITORY));
+        breakers.record(failure(REPOSITORY));
+        assertTrue(breakers.tryAttempt(REPOSITORY));
+
+        breakers.record(failure(REPOSITORY));
+        assertFalse(breakers.tryAttempt(REPOSITORY));
+        assertEquals("Open", state(REPOSITORY).getState());
+        assertEquals(3, state(REPOSITORY).getConsecutiveFailures());
+    }
+
+    @Test
+    public void halfOpensOnceTheRetryPeriodHasPassed() {
+        open(REPOSITORY);
+
+        breakers.retryMS = 0;
+        assertTrue(breakers.tryAttempt(REPOSITORY));
+        assertEquals("Retrying", state(REPOSITORY).getState());
+
+        // only the push which is retrying the repository may update it
+        breakers.retryMS = TimeUnit.HOURS.toMillis(1);
+        assertFalse(breakers.tryAttempt(REPOSITORY));
+
+        // the retry failed so the circuit stays open for another retry period
+        breakers.record(failure(REPOSITORY));
+        assertEquals("Open", state(REPOSITORY).getState());
+        assertFalse(breakers.tryAttempt(REPOSITORY));
+    }
+
+    @Test
+    public void pushesWhichDoNotUpdateTheRepositoryLeaveItsCircuitAlone() {
+        open(REPOSITORY);
+        breakers.retryMS = 0;
+
+        assertTrue(breakers.tryAttempt("acme/gadgets"));
+        assertEquals("Open", state(REPOSITORY).getState());
+
+        assertTrue(breakers.tryAttempt(REPOSITORY));
+        assertEquals("Retrying", state(REPOSITORY).getState());
+    }
+
+    @Test
+    public void aRetryWhichWasNotAttemptedLeavesTheCircuitOpen() {
+        open(REPOSITORY);
+        breakers.retryMS = 0;
+        assertTrue(breakers.tryAttempt(REPOSITORY));
+
+        CircuitBreakingPushSourceChanges.Outcome outcome = new CircuitBreakingPushSourceChanges.Outcome();
+        outcome.getNotAttempted().put(REPOSITORY, "push aborted");
+        breakers.record(outcome);
+        assertEquals("Open", state(REPOSITORY).getState());
+        assertEquals(breakers.threshold, state(REPOSITORY).getConsecutiveFailures());
+        assertTrue(breakers.tryAttempt(REPOSITORY));
+    }
+
+    @Test
+    public void closesWhenTheRepositoryIsUpdated() {
+        open(REPOSITORY);
+        breakers.retryMS = 0;
+        assertTrue(breakers.tryAttempt(REPOSITORY));
+
+        CircuitBreakingPushSourceChanges.Outcome outcome = new CircuitBreakingPushSourceChanges.Outcome();
+        outcome.getSucceeded().add(REPOSITORY);
+        breakers.record(outcome);
+        assertTrue(breakers.getBreakers().isEmpty());
+    }
+
+    @Test
+    public void resetClosesTheCircuit() {
+        open(REPOSITORY);
+        breakers.reset(REPOSITORY);
+        assertTrue(breakers.getBreakers().isEmpty());
+        assertTrue(breakers.tryAttempt(REPOSITORY));
+    }
+
+    @Test
+    public void repositoriesWhichWereNotAttemptedAreNotCharged() {
+        breakers.record(failure(REPOSITORY));
+        CircuitBreakingPushSourceChanges.Outcome outcome = new CircuitBreakingPushSourceChanges.Outcome();
+        outcome.getNotAttempted().put(REPOSITORY, "push aborted");
+        outcome.getNotAttempted().put("acme/gadgets", "push aborted");
+        breakers.record(outcome);
+
+        List<RepositoryCircuitBreakers.BreakerState> states = breakers.getBreakers();
+        assertEquals(1, states.size());
+        assertEquals(1, state(REPOSITORY).getConsecutiveFailures());
+    }
+
+    @Test
+    public void survivesARestart() {
+        open(REPOSITORY);
+        TestBreakers restarted = new TestBreakers(breakers.file);
+        assertFalse(restarted.tryAttempt(REPOSITORY));
+    }
+
+    private void open(String repository) {
+        for (int i = 0; i < breakers.threshold; i++) {
+            breakers.record(failure(repository));
+        }
+        assertFalse(breakers.tryAttempt(repository));
+    }
+
+    private RepositoryCircuitBreakers.BreakerState state(String repository) {
+        for (RepositoryCircuitBreakers.BreakerState state : breakers.getBreakers()) {
+            if (state.getRepository().equals(repository)) {
+                return state;
+            }
+        }
+        throw new AssertionError("No circuit for " + repository);
+    }
+
+    private static CircuitBreakingPushSourceChanges.Outcome failure(String repository) {
+        CircuitBreakingPushSourceChanges.Outcome outcome = new CircuitBreakingPushSourceChanges.Outcome();
+        outcome.getFailures().put(repository, "java.io.IOException: failed");
+        return outcome;
+    }
+
+    private static class TestBreakers extends RepositoryCircuitBreakers {
+        private final transient File file;
+        private transient int threshold = 3;
+        private transient long retryMS = TimeUnit.HOURS.toMillis(1);
+
+        TestBreakers(File file) {
+            this.file = file;
+        }
+
+        @Override
+        protected int getFailureThreshold() {
+            return threshold;
+        }
+
+        @Override
+        protected long getRetryMS() {
+            return retryMS;
+        }
+
+        @Override
+        protected XmlFile getConfigFile() {
+            return new XmlFile(new XStream2(), file);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot;
+
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+import hudson.Functions;
+import hudson.model.ParametersAction;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.StringParameterValue;
+import hudson.model.queue.QueueTaskFuture;
+import org.jenkinsci.plugins.updatebot.load.FakeGitHub;
+import org.jenkinsci.plugins.updatebot.load.GitRemotes;
+import org.jenkinsci.plugins.updatebot.load.LoadReport;
+import org.jenkinsci.plugins.updatebot.support.GitHubClients;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs many <code>updateBotPush()</code> pipelines and GitHub repository imports at once against a fake GitHub and
+ * bare git repositories on disk and reports the push latency, the GitHub API calls made by polling, the Jenkins
+ * timer occupancy and the heap used.
+ * <p>
+ * The load test only runs when enabled, usually via <code>mvn test -Pload-test</code>. The size of the load is set
+ * with <code>-Dupdatebot.load.pipelines</code>, <code>-Dupdatebot.load.imports</code>,
+ * <code>-Dupdatebot.load.repositories</code> and <code>-Dupdatebot.load.pendingPolls</code>. The report is written
+ * to <code>target/updatebot-load-report.json</code> and the test fails if a metric exceeds a limit given as
+ * <code>-Dupdatebot.load.max.*</code>; see {@link LoadReport#checkLimits()}.
+ */
+public class UpdateBotLoadTest {
+    private static final transient Logger LOG = LoggerFactory.getLogger(UpdateBotLoadTest.class);
+
+    private static final String ORGANISATION = "loadtest";
+    private static final String SOURCE_GROUP_ID = "io.example.load";
+    private static final String SOURCE_ARTIFACT_ID = "load-source";
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final int pipelines = Integer.getInteger("updatebot.load.pipelines", 20);
+    private final int imports = Integer.getInteger("updatebot.load.imports", 2);
+    private final int repositories = Integer.getInteger("updatebot.load.repositories", 5);
+    private final int pendingPolls = Integer.getInteger("updatebot.load.pendingPolls", 3);
+    private final int timeoutMinutes = Integer.getInteger("updatebot.load.timeoutMinutes", 30);
+
+    private GitRemotes remotes;
+    private FakeGitHub github;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue("enable with -Dupdatebot.load=true or -Pload-test", Boolean.getBoolean("updatebot.load"));
+        Assume.assumeFalse("the pipelines use sh", Functions.isWindows());
+
+        remotes = new GitRemotes(tmp.newFolder("remotes"));
+        for (int i = 0; i < repositories; i++) {
+            remotes.createMavenRepository(ORGANISATION, "downstream-" + i, SOURCE_GROUP_ID, SOURCE_ARTIFACT_ID, "1.0.0");
+        }
+        for (int i = 0; i < imports; i++) {
+            remotes.createMavenRepository(ORGANISATION, "import-" + i, SOURCE_GROUP_ID, SOURCE_ARTIFACT_ID, "1.0.0");
+        }
+        Map<String, String> jenkinsfiles = new HashMap<>();
+        for (String pipeline : new String[]{"Release", "ReleaseAndStage", "ReleaseStageAndPromote"}) {
+            jenkinsfiles.put("maven/" + pipeline + "/Jenkinsfile", "echo 'load test'\n");
+        }
+        File jenkinsfileLibrary = remotes.createRepository(ORGANISATION, "jenkinsfiles", jenkinsfiles);
+
+        github = new FakeGitHub(remotes, pendingPolls);
+        github.start();
+        GitHubClients.get().setApiUrl(github.getApiUrl());
+
+        SystemCredentialsProvider credentials = SystemCredentialsProvider.getInstance();
+        credentials.getCredentials().add(new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "github", "load test", "updatebot", "token"));
+        credentials.save();
+
+        GlobalPluginConfiguration config = GlobalPluginConfiguration.get();
+        config.setCredentialsId("github");
+        config.setJenkinsfileLibraryGitCloneURL(jenkinsfileLibrary.toURI().toString());
+        config.setUseAnsiColor(false);
+        config.refreshSnapshot();
+
+        j.jenkins.setNumExecutors(pipelines + imports);
+    }
+
+    @After
+    public void tearDown() {
+        if (github != null) {
+            github.stop();
+            GitHubClients.get().setApiUrl(null);
+        }
+    }
+
+    @Test
+    public void pushesAndImportsUnderLoad() throws Exception {
+        LoadReport report = new LoadReport();
+        List<QueueTaskFuture<WorkflowRun>> pushes = new ArrayList<>();
+        List<QueueTaskFuture<ImportGithubRepoBuild>> importBuilds = new ArrayList<>();
+
+        report.start();
+        for (int i = 0; i < pipelines; i++) {
+            WorkflowJob job = j.jenkins.createProject(WorkflowJob.class, "push-" + i);
+            job.setDefinition(new CpsFlowDefinition(createPushPipeline(i), true));
+            pushes.add(job.scheduleBuild2(0));
+        }
+        for (int i = 0; i < imports; i++) {
+            ImportGithubRepoProject project = j.jenkins.createProject(ImportGithubRepoProject.class, "import-" + i);
+            importBuilds.add(project.scheduleBuild2(0, null, new ParametersAction(
+                    new StringParameterValue("repository", ORGANISATION + "/import-" + i),
+                    new StringParameterValue("pipeline", "Release"))));
+        }
+        for (QueueTaskFuture<WorkflowRun> push : pushes) {
+            WorkflowRun run = push.get(timeoutMinutes, TimeUnit.MINUTES);
+            report.addPushLatency(run.getDuration());
+            checkResult(report, run);
+        }
+        for (QueueTaskFuture<ImportGithubRepoBuild> importBuild : importBuilds) {
+            ImportGithubRepoBuild build = importBuild.get(timeoutMinutes, TimeUnit.MINUTES);
+            report.addImportLatency(build.getDuration());
+            checkResult(report, build);
+        }
+        report.stop();
+
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("pipelines", pipelines);
+        parameters.put("imports", imports);
+        parameters.put("repositories", repositories);
+        parameters.put("pendingPolls", pendingPolls);
+        parameters.put("maxConcurrentPushes", GlobalPluginConfiguration.get().getMaxConcurrentPushes());
+        parameters.put("maxConcurrentPolls", GlobalPluginConfiguration.get().getMaxConcurrentPolls());
+        LOG.info("UpdateBot load report: " + report.createReport(github, parameters).toString(2));
+        report.write(new File(System.getProperty("updatebot.load.report", "target/updatebot-load-report.json")));
+
+        List<String> exceeded = report.checkLimits();
+        assertTrue("Load test limits exceeded: " + exceeded, exceeded.isEmpty());
+    }
+
+    protected String createPushPipeline(int index) {
+        String version = "1.0." + (index + 1);
+        StringBuilder updatebotYaml = new StringBuilder();
+        updatebotYaml.append("github:\n");
+        updatebotYaml.append("  organisations:\n");
+        updatebotYaml.append("  - name: ").append(ORGANISATION).append("\n");
+        updatebotYaml.append("    repositories:\n");
+        for (int i = 0; i < repositories; i++) {
+            updatebotYaml.append("    - name: downstream-").append(i).append("\n");
+        }
+        String pom = GitRemotes.createPom(SOURCE_GROUP_ID, SOURCE_ARTIFACT_ID, version, null, null, null);
+        return "node {\n" +
+                "  writeFile file: 'pom.xml', text: '''" + pom + "'''\n" +
+                "  writeFile file: '.updatebot.yml', text: '''" + updatebotYaml + "'''\n" +
+                "  sh 'git init -q && git remote add origin https://github.com/" + ORGANISATION + "/load-source.git'\n" +
+                "  updateBotPush(pollPeriodMS: 1000)\n" +
+                "}\n";
+    }
+
+    private static void checkResult(LoadReport report, Run<?, ?> run) {
+        if (run.getResult() != Result.SUCCESS) {
+            report.addFailure(run.getFullDisplayName() + " " + run.getResult());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.fixtures;
+
+import org.jenkinsci.plugins.updatebot.support.GitHubClients;
+import org.junit.Rule;
+import org.junit.Test;
+import org.kohsuke.github.GHIssueState;
+import org.kohsuke.github.GHPullRequest;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GitHub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays a push of a pull request and the polls which wait for it to be merged from the committed fixtures
+ */
+public class GitHubFixtureReplayTest {
+    @Rule
+    public GitHubFixtureRule rule = new GitHubFixtureRule("src/test/resources/fixtures/push-and-poll.json.gz");
+
+    @Test
+    public void replaysAPushAndItsPollsUntilMerged() throws Exception {
+        GitHub client = GitHubClients.get().getGitHub("updatebot", "token");
+        GHRepository repository = client.getRepository("acme/widgets");
+        GHPullRequest pushed = repository.createPullRequest("Update versions", "updatebot-1", "master",
+                "UpdateBot pushed version changes from the upstream repository");
+        assertEquals(7, pushed.getNumber());
+
+        int polls = 0;
+        GHPullRequest polled;
+        do {
+            polled = repository.getPullRequest(pushed.getNumber());
+            polls++;
+        } while (polled.getState() == GHIssueState.OPEN && polls < 10);
+        assertEquals(3, polls);
+        assertTrue(polled.isMerged());
+
+        // a poll after the last recorded one sees the pull request stay merged
+        assertTrue(repository.getPullRequest(pushed.getNumber()).isMerged());
+        assertEquals(0, rule.getFixtures().getMissingCount());
+        assertEquals(6, rule.getFixtures().getReplayedCount());
+    }
+
+    @Test
+    public void injectsAFixedLatency() throws Exception {
+        if (rule.getFixtures().isRecording()) {
+            return;
+        }
+        GitHubFixtures fixtures = rule.getFixtures();
+        fixtures.setLatencyMS(250);
+        fixtures.setRecordedLatencyScale(0);
+        GitHub client = GitHubClients.get().getGitHub("updatebot", "token");
+        long start = System.currentTimeMillis();
+        GHRepository repository = client.getRepository("acme/widgets");
+        repository.getPullRequest(7);
+        assertTrue(System.currentTimeMillis() - start >= 2 * 250);
+    }
+
+    @Test
+    public void injectsAMultipleOfTheRecordedLatency() throws Exception {
+        if (rule.getFixtures().isRecording()) {
+            return;
+        }
+        GitHubFixtures fixtures = rule.getFixtures();
+        fixtures.setLatencyMS(0);
+        fixtures.setRecordedLatencyScale(2);
+        GitHub client = GitHubClients.get().getGitHub("updatebot", "token");
+        long start = System.currentTimeMillis();
+        GHRepository repository = client.getRepository("acme/widgets");
+        GHPullRequest polled = repository.getPullRequest(7);
+        // the repository took 182ms and the first poll 153ms when they were recorded
+        assertTrue(System.currentTimeMillis() - start >= 2 * (182 + 153));
+        assertFalse(polled.isMerged());
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.fixtures;
+
+import org.jenkinsci.plugins.updatebot.support.GitHubClients;
+import org.junit.rules.ExternalResource;
+
+import java.io.File;
+
+/**
+ * Routes the GitHub clients through a fixture file for the duration of a test.
+ * <p>
+ * By default the fixture is replayed. Run with <code>-Dupdatebot.fixtures.record=true</code> and real GitHub
+ * credentials to record it again. <code>-Dupdatebot.fixtures.latencyMS</code> adds a fixed latency to every replayed
+ * response and <code>-Dupdatebot.fixtures.recordedLatencyScale</code> a multiple of the recorded latency.
+ */
+public class GitHubFixtureRule extends ExternalResource {
+    private final File file;
+    private GitHubFixtures fixtures;
+
+    /**
+     * @param file the gzipped fixture file, usually under <code>src/test/resources/fixtures</code>
+     */
+    public GitHubFixtureRule(File file) {
+        this.file = file;
+    }
+
+    public GitHubFixtureRule(String path) {
+        this(new File(path));
+    }
+
+    /**
+     * Returns the fixtures being recorded or replayed by the current test
+     */
+    public GitHubFixtures getFixtures() {
+        return fixtures;
+    }
+
+    @Override
+    protected void before() throws Throwable {
+        if (Boolean.getBoolean("updatebot.fixtures.record")) {
+            fixtures = GitHubFixtures.record(file);
+        } else {
+            fixtures = GitHubFixtures.replay(file);
+            fixtures.setLatencyMS(Long.getLong("updatebot.fixtures.latencyMS", 0L));
+            fixtures.setRecordedLatencyScale(Double.parseDouble(System.getProperty("updatebot.fixtures.recordedLatencyScale", "0")));
+        }
+        GitHubClients.get().setTransport(fixtures);
+    }
+
+    @Override
+    protected void after() {
+        GitHubClients.get().setTransport(null);
+        if (fixtures != null && fixtures.isRecording()) {
+            try {
+                fixtures.save();
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to save the GitHub fixtures to " + file + ": " + e, e);
+            }
+        }
+    }
+}
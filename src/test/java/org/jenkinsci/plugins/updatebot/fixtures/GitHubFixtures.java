@@ -0,0 +1,348 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.fixtures;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.jenkinsci.plugins.updatebot.support.GitHubClients;
+import org.kohsuke.github.HttpConnector;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records the requests the GitHub clients make and their responses into a fixture file and replays them later
+ * without a network so that changes to polling, batching and caching can be measured reproducibly.
+ * <p>
+ * Install it with {@link GitHubClients#setTransport(HttpConnector)} or use {@link GitHubFixtureRule}. A fixture file is
+ * gzipped JSON with one exchange per line. Exchanges are matched on their method, path, query and request body; when
+ * the same request is made several times the recorded responses are replayed in order and the last one is repeated,
+ * which is what repeated polls of a pull request need. An exchange whose key has no request body matches any body
+ * so that fixtures can leave out bodies, such as those of pull requests, which vary with the client version.
+ * <p>
+ * Replayed responses can be delayed by a fixed latency and by a multiple of the latency which was recorded.
+ */
+public class GitHubFixtures implements HttpConnector {
+    /**
+     * The response headers kept in fixtures; others such as cookies and request ids are dropped
+     */
+    static final List<String> RECORDED_HEADERS = Collections.unmodifiableList(Arrays.asList(
+            "Content-Type", "Content-Encoding", "Link", "ETag", "Last-Modified", "Location",
+            "X-RateLimit-Limit", "X-RateLimit-Remaining", "X-RateLimit-Reset"));
+
+    private final File file;
+    private final boolean recording;
+    private final List<Exchange> exchanges = Collections.synchronizedList(new ArrayList<Exchange>());
+    private final Map<String, List<Exchange>> replays = new HashMap<>();
+    private final Map<String, Integer> replayIndexes = new HashMap<>();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong missing = new AtomicLong();
+    private volatile long latencyMS;
+    private volatile double recordedLatencyScale;
+
+    protected GitHubFixtures(File file, boolean recording) {
+        this.file = file;
+        this.recording = recording;
+    }
+
+    /**
+     * Creates fixtures which record the real exchanges with GitHub until {@link #save()} is called
+     */
+    public static GitHubFixtures record(File file) {
+        return new GitHubFixtures(file, true);
+    }
+
+    /**
+     * Creates fixtures which replay the exchanges recorded in the given file
+     */
+    public static GitHubFixtures replay(File file) throws IOException {
+        GitHubFixtures answer = new GitHubFixtures(file, false);
+        answer.load();
+        return answer;
+    }
+
+    public boolean isRecording() {
+        return recording;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Sets the fixed latency added to each replayed response
+     */
+    public void setLatencyMS(long latencyMS) {
+        this.latencyMS = latencyMS;
+    }
+
+    /**
+     * Sets the multiple of the recorded latency added to each replayed response; 1 replays at the recorded speed
+     */
+    public void setRecordedLatencyScale(double recordedLatencyScale) {
+        this.recordedLatencyScale = recordedLatencyScale;
+    }
+
+    /**
+     * Returns the number of responses replayed so far
+     */
+    public long getReplayedCount() {
+        return replayed.get();
+    }
+
+    /**
+     * Returns the number of requests for which no fixture was found
+     */
+    public long getMissingCount() {
+        return missing.get();
+    }
+
+    /**
+     * Returns the number of exchanges recorded or loaded
+     */
+    public int getExchangeCount() {
+        return exchanges.size();
+    }
+
+    @Override
+    public HttpURLConnection connect(URL url) throws IOException {
+        if (recording) {
+            return new RecordingConnection(url, GitHubClients.get().openPooledConnection(url), this);
+        }
+        return new ReplayConnection(url, this);
+    }
+
+    /**
+     * Writes the recorded exchanges to the fixture file
+     */
+    public void save() throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        List<Exchange> copy;
+        synchronized (exchanges) {
+            copy = new ArrayList<>(exchanges);
+        }
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)), StandardCharsets.UTF_8)) {
+            for (Exchange exchange : copy) {
+                writer.write(exchange.toJSON().toString());
+                writer.write('\n');
+            }
+        }
+    }
+
+    protected void load() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                Exchange exchange = Exchange.fromJSON(JSONObject.fromObject(line));
+                exchanges.add(exchange);
+                List<Exchange> list = replays.get(exchange.getKey());
+                if (list == null) {
+                    list = new ArrayList<>();
+                    replays.put(exchange.getKey(), list);
+                }
+                list.add(exchange);
+            }
+        }
+    }
+
+    void recorded(Exchange exchange) {
+        exchanges.add(exchange);
+    }
+
+    /**
+     * Returns the exchange to replay for the request waiting for the injected latency first
+     */
+    Exchange replay(String method, URL url, byte[] requestBody) throws IOException {
+        String key = createKey(method, url, requestBody);
+        Exchange answer;
+        synchronized (replays) {
+            List<Exchange> list = replays.get(key);
+            if (list == null && requestBody != null && requestBody.length > 0) {
+                key = createKey(method, url, null);
+                list = replays.get(key);
+            }
+            if (list == null) {
+                missing.incrementAndGet();
+                throw new IOException("No GitHub fixture for " + key + " in " + file);
+            }
+            Integer index = replayIndexes.get(key);
+            int next = index == null ? 0 : index;
+            answer = list.get(Math.min(next, list.size() - 1));
+            replayIndexes.put(key, next + 1);
+        }
+        replayed.incrementAndGet();
+        long delay = latencyMS + (long) (recordedLatencyScale * answer.elapsedMS);
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted replaying " + key, e);
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Returns the key exchanges are matched on which ignores the host so fixtures replay against any API URL
+     */
+    static String createKey(String method, URL url, byte[] requestBody) {
+        StringBuilder builder = new StringBuilder(method).append(' ').append(url.getPath());
+        if (url.getQuery() != null) {
+            builder.append('?').append(url.getQuery());
+        }
+        if (requestBody != null && requestBody.length > 0) {
+            builder.append(" sha256:").append(DigestUtils.sha256Hex(requestBody));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * A recorded request and response
+     */
+    static class Exchange {
+        private final String key;
+        private final int status;
+        private final String message;
+        private final Map<String, List<String>> headers;
+        private final byte[] body;
+        private final long elapsedMS;
+
+        Exchange(String key, int status, String message, Map<String, List<String>> headers, byte[] body, long elapsedMS) {
+            this.key = key;
+            this.status = status;
+            this.message = message;
+            this.headers = headers;
+            this.body = body;
+            this.elapsedMS = elapsedMS;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public Map<String, List<String>> getHeaders() {
+            return headers;
+        }
+
+        /**
+         * Returns the first value of the header ignoring its case or null
+         */
+        public String getHeader(String name) {
+            for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                if (entry.getKey().equalsIgnoreCase(name) && !entry.getValue().isEmpty()) {
+                    return entry.getValue().get(0);
+                }
+            }
+            return null;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        JSONObject toJSON() {
+            JSONObject answer = new JSONObject();
+            answer.put("key", key);
+            answer.put("status", status);
+            if (message != null) {
+                answer.put("message", message);
+            }
+            answer.put("headers", headers);
+            answer.put("elapsedMS", elapsedMS);
+            if (body != null) {
+                if (getHeader("Content-Encoding") != null) {
+                    answer.put("bodyBase64", Base64.encodeBase64String(body));
+                } else {
+                    answer.put("body", new String(body, StandardCharsets.UTF_8));
+                }
+            }
+            return answer;
+        }
+
+        static Exchange fromJSON(JSONObject json) {
+            Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            JSONObject headersJson = json.optJSONObject("headers");
+            if (headersJson != null) {
+                for (Object name : headersJson.keySet()) {
+                    List<String> values = new ArrayList<>();
+                    JSONArray array = headersJson.getJSONArray(name.toString());
+                    for (int i = 0; i < array.size(); i++) {
+                        values.add(array.getString(i));
+                    }
+                    headers.put(name.toString(), values);
+                }
+            }
+            byte[] body = null;
+            if (json.has("bodyBase64")) {
+                body = Base64.decodeBase64(json.getString("bodyBase64"));
+            } else if (json.has("body")) {
+                body = json.getString("body").getBytes(StandardCharsets.UTF_8);
+            }
+            return new Exchange(json.getString("key"), json.getInt("status"), json.optString("message", null),
+                    headers, body, json.optLong("elapsedMS"));
+        }
+
+        static Map<String, List<String>> recordedHeaders(Map<String, List<String>> responseHeaders) {
+            Map<String, List<String>> answer = new LinkedHashMap<>();
+            for (String name : RECORDED_HEADERS) {
+                for (Map.Entry<String, List<String>> entry : responseHeaders.entrySet()) {
+                    if (name.equalsIgnoreCase(entry.getKey())) {
+                        answer.put(name, new ArrayList<>(entry.getValue()));
+                    }
+                }
+            }
+            return answer;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.fixtures;
+
+import org.jenkinsci.plugins.updatebot.load.FakeGitHub;
+import org.jenkinsci.plugins.updatebot.load.GitRemotes;
+import org.jenkinsci.plugins.updatebot.support.GitHubClients;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.kohsuke.github.GHIssueState;
+import org.kohsuke.github.GHPullRequest;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GitHub;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Records exchanges with the fake GitHub and replays them once it has been stopped
+ */
+public class GitHubFixturesTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private FakeGitHub github;
+
+    @After
+    public void tearDown() {
+        GitHubClients.get().setTransport(null);
+        GitHubClients.get().setApiUrl(null);
+        if (github != null) {
+            github.stop();
+        }
+    }
+
+    @Test
+    public void replaysRecordedExchangesWithoutTheServer() throws Exception {
+        File remotes = tmp.newFolder("remotes");
+        assertTrue(new File(remotes, "loadtest/downstream.git").mkdirs());
+        github = new FakeGitHub(new GitRemotes(remotes), 1);
+        github.start();
+        GitHubClients.get().setApiUrl(github.getApiUrl());
+
+        File file = new File(tmp.getRoot(), "fixtures/pull-requests.json.gz");
+        GitHubFixtures recording = GitHubFixtures.record(file);
+        GitHubClients.get().setTransport(recording);
+        GitHub client = GitHubClients.get().getGitHub("updatebot", "token");
+        GHRepository repository = client.getRepository("loadtest/downstream");
+        repository.createPullRequest("Update versions", "updatebot-1", "master", "load test");
+        List<GHPullRequest> recorded = repository.getPullRequests(GHIssueState.OPEN);
+        recording.save();
+        github.stop();
+
+        GitHubFixtures replay = GitHubFixtures.replay(file);
+        assertEquals(recording.getExchangeCount(), replay.getExchangeCount());
+        GitHubClients.get().setTransport(replay);
+        List<GHPullRequest> replayed = client.getRepository("loadtest/downstream").getPullRequests(GHIssueState.OPEN);
+        assertEquals(1, replayed.size());
+        assertEquals(recorded.get(0).getNumber(), replayed.get(0).getNumber());
+        assertEquals(0, replay.getMissingCount());
+
+        // polls repeat the last recorded response
+        assertEquals(1, client.getRepository("loadtest/downstream").getPullRequests(GHIssueState.OPEN).size());
+        assertEquals(0, replay.getMissingCount());
+    }
+}
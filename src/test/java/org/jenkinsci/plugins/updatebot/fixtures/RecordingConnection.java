@@ -0,0 +1,236 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.fixtures;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.TeeOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Passes a request to GitHub through to a real connection and records the exchange once its response is read
+ */
+class RecordingConnection extends HttpURLConnection {
+    private final HttpURLConnection delegate;
+    private final GitHubFixtures fixtures;
+    private final ByteArrayOutputStream requestBody = new ByteArrayOutputStream();
+    private long startTime;
+    private GitHubFixtures.Exchange exchange;
+    private IOException failure;
+
+    RecordingConnection(URL url, HttpURLConnection delegate, GitHubFixtures fixtures) {
+        super(url);
+        this.delegate = delegate;
+        this.fixtures = fixtures;
+    }
+
+    @Override
+    public void setRequestMethod(String method) throws ProtocolException {
+        // the real connection supports PATCH which the JDK validation of HttpURLConnection rejects
+        delegate.setRequestMethod(method);
+        this.method = method;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return delegate.getRequestMethod();
+    }
+
+    @Override
+    public void setRequestProperty(String key, String value) {
+        delegate.setRequestProperty(key, value);
+    }
+
+    @Override
+    public void addRequestProperty(String key, String value) {
+        delegate.addRequestProperty(key, value);
+    }
+
+    @Override
+    public String getRequestProperty(String key) {
+        return delegate.getRequestProperty(key);
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestProperties() {
+        return delegate.getRequestProperties();
+    }
+
+    @Override
+    public void setDoOutput(boolean doOutput) {
+        delegate.setDoOutput(doOutput);
+    }
+
+    @Override
+    public boolean getDoOutput() {
+        return delegate.getDoOutput();
+    }
+
+    @Override
+    public void setConnectTimeout(int timeout) {
+        delegate.setConnectTimeout(timeout);
+    }
+
+    @Override
+    public void setReadTimeout(int timeout) {
+        delegate.setReadTimeout(timeout);
+    }
+
+    @Override
+    public void setInstanceFollowRedirects(boolean followRedirects) {
+        delegate.setInstanceFollowRedirects(followRedirects);
+    }
+
+    @Override
+    public void setUseCaches(boolean useCaches) {
+        delegate.setUseCaches(useCaches);
+    }
+
+    @Override
+    public void connect() throws IOException {
+        start();
+        delegate.connect();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        start();
+        return new TeeOutputStream(delegate.getOutputStream(), requestBody);
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        return record().getStatus();
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        return record().getMessage();
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        try {
+            record();
+        } catch (IOException e) {
+            return null;
+        }
+        return delegate.getHeaderField(name);
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        return delegate.getHeaderFieldKey(n);
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        return delegate.getHeaderField(n);
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        try {
+            record();
+        } catch (IOException e) {
+            // fall through to the real connection which reports the failure
+        }
+        return delegate.getHeaderFields();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        GitHubFixtures.Exchange answer = record();
+        if (answer.getStatus() >= HTTP_BAD_REQUEST) {
+            // let the real connection throw the exception for the error status
+            return delegate.getInputStream();
+        }
+        return new ByteArrayInputStream(answer.getBody() != null ? answer.getBody() : new byte[0]);
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        try {
+            GitHubFixtures.Exchange answer = record();
+            if (answer.getStatus() >= HTTP_BAD_REQUEST && answer.getBody() != null) {
+                return new ByteArrayInputStream(answer.getBody());
+            }
+        } catch (IOException e) {
+            // no response to read
+        }
+        return null;
+    }
+
+    @Override
+    public void disconnect() {
+        delegate.disconnect();
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return delegate.usingProxy();
+    }
+
+    private void start() {
+        if (startTime == 0) {
+            startTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Reads the whole response from the real connection the first time it is needed and records it
+     */
+    private synchronized GitHubFixtures.Exchange record() throws IOException {
+        if (exchange != null) {
+            return exchange;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        start();
+        try {
+            int status = delegate.getResponseCode();
+            InputStream in = status >= HTTP_BAD_REQUEST ? delegate.getErrorStream() : delegate.getInputStream();
+            byte[] body = null;
+            if (in != null) {
+                try {
+                    body = IOUtils.toByteArray(in);
+                } finally {
+                    in.close();
+                }
+            }
+            String key = GitHubFixtures.createKey(delegate.getRequestMethod(), url, requestBody.toByteArray());
+            exchange = new GitHubFixtures.Exchange(key, status, delegate.getResponseMessage(),
+                    GitHubFixtures.Exchange.recordedHeaders(delegate.getHeaderFields()), body,
+                    System.currentTimeMillis() - startTime);
+            fixtures.recorded(exchange);
+            return exchange;
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        }
+    }
+}
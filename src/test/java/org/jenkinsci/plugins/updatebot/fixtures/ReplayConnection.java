@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.fixtures;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers a request to GitHub with the response recorded for it without touching the network
+ */
+class ReplayConnection extends HttpURLConnection {
+    private final GitHubFixtures fixtures;
+    private final ByteArrayOutputStream requestBody = new ByteArrayOutputStream();
+    private GitHubFixtures.Exchange exchange;
+
+    ReplayConnection(URL url, GitHubFixtures fixtures) {
+        super(url);
+        this.fixtures = fixtures;
+    }
+
+    @Override
+    public void setRequestMethod(String method) {
+        // accept PATCH like the pooled connections do
+        this.method = method;
+    }
+
+    @Override
+    public void connect() {
+        connected = true;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return requestBody;
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        return replay().getStatus();
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        return replay().getMessage();
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        try {
+            return replay().getHeader(name);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        try {
+            return replay().getHeaders();
+        } catch (IOException e) {
+            return Collections.emptyMap();
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        GitHubFixtures.Exchange answer = replay();
+        int status = answer.getStatus();
+        if (status == HTTP_NOT_FOUND || status == HTTP_GONE) {
+            throw new FileNotFoundException(url.toString());
+        }
+        if (status >= HTTP_BAD_REQUEST) {
+            throw new IOException("Server returned HTTP response code: " + status + " for URL: " + url);
+        }
+        return body(answer);
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        try {
+            GitHubFixtures.Exchange answer = replay();
+            if (answer.getStatus() >= HTTP_BAD_REQUEST) {
+                return body(answer);
+            }
+        } catch (IOException e) {
+            // no fixture to read
+        }
+        return null;
+    }
+
+    @Override
+    public void disconnect() {
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return false;
+    }
+
+    private synchronized GitHubFixtures.Exchange replay() throws IOException {
+        if (exchange == null) {
+            connected = true;
+            exchange = fixtures.replay(getRequestMethod(), url, requestBody.toByteArray());
+        }
+        return exchange;
+    }
+
+    private static InputStream body(GitHubFixtures.Exchange exchange) {
+        return new ByteArrayInputStream(exchange.getBody() != null ? exchange.getBody() : new byte[0]);
+    }
+}
@@ -0,0 +1,362 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.load;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A stub of the parts of the GitHub REST API UpdateBot uses which keeps repositories and pull requests in memory
+ * and clones from the bare repositories of {@link GitRemotes}.
+ * <p>
+ * Commit statuses stay pending for a configurable number of lookups so that pushes poll for a while before their
+ * pull requests are merged. Every request is counted so that the API calls made by polling can be reported.
+ */
+public class FakeGitHub implements HttpHandler {
+    private static final Pattern REPOSITORY = Pattern.compile("/repos/([^/]+)/([^/]+)(/.*)?");
+    private static final Pattern PULL_REQUEST = Pattern.compile("/pulls/(\\d+)(/merge)?");
+    private static final Pattern ISSUE = Pattern.compile("/issues/(\\d+)(/.*)?");
+    private static final Pattern STATUS = Pattern.compile("/(commits/[^/]+/status|statuses/[^/]+)");
+
+    private final GitRemotes remotes;
+    private final int pendingStatusLookups;
+    private final Map<String, List<JSONObject>> pullRequests = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> statusLookups = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> requestCounts = new ConcurrentHashMap<>();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong pollRequestCount = new AtomicLong();
+    private final AtomicInteger pullRequestNumbers = new AtomicInteger();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param pendingStatusLookups the number of times the status of a pull request is pending before it succeeds
+     */
+    public FakeGitHub(GitRemotes remotes, int pendingStatusLookups) {
+        this.remotes = remotes;
+        this.pendingStatusLookups = pendingStatusLookups;
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newFixedThreadPool(16);
+        server.setExecutor(executor);
+        server.createContext("/", this);
+        server.start();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    /**
+     * Returns the URL to use as the GitHub API URL
+     */
+    public String getApiUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of requests for the pull requests and commit statuses which polling looks up
+     */
+    public long getPollRequestCount() {
+        return pollRequestCount.get();
+    }
+
+    /**
+     * Returns the number of requests of each method and path pattern
+     */
+    public Map<String, Long> getRequestCounts() {
+        Map<String, Long> answer = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : requestCounts.entrySet()) {
+            answer.put(entry.getKey(), entry.getValue().get());
+        }
+        return answer;
+    }
+
+    public int getPullRequestCount() {
+        return pullRequestNumbers.get();
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            String body = IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8);
+            requestCount.incrementAndGet();
+            Object answer = route(method, path, body);
+            if (answer == null) {
+                count(method + " unknown " + path);
+                JSONObject notFound = new JSONObject();
+                notFound.put("message", "Not Found");
+                reply(exchange, 404, notFound);
+            } else {
+                reply(exchange, "POST".equals(method) ? 201 : 200, answer);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    protected Object route(String method, String path, String body) {
+        if (path.equals("/user")) {
+            count(method + " /user");
+            return user("updatebot");
+        }
+        if (path.equals("/rate_limit")) {
+            count(method + " /rate_limit");
+            return rateLimit();
+        }
+        if (path.startsWith("/orgs/") || path.startsWith("/users/")) {
+            String[] paths = path.split("/");
+            if (paths.length == 3) {
+                count(method + " /" + paths[1] + "/:org");
+                return user(paths[2]);
+            }
+            if (paths.length == 4 && paths[3].equals("repos")) {
+                count(method + " /" + paths[1] + "/:org/repos");
+                JSONArray answer = new JSONArray();
+                for (String name : remotes.getRepositoryNames(paths[2])) {
+                    answer.add(repository(paths[2], name));
+                }
+                return answer;
+            }
+            return null;
+        }
+        Matcher matcher = REPOSITORY.matcher(path);
+        if (!matcher.matches()) {
+            return null;
+        }
+        String owner = matcher.group(1);
+        String name = matcher.group(2);
+        String rest = matcher.group(3) != null ? matcher.group(3) : "";
+        if (!remotes.hasRepository(owner, name)) {
+            return null;
+        }
+        if (rest.isEmpty()) {
+            count(method + " /repos/:owner/:repo");
+            return repository(owner, name);
+        }
+        String fullName = owner + "/" + name;
+        if (rest.equals("/pulls")) {
+            if ("POST".equals(method)) {
+                count("POST /repos/:owner/:repo/pulls");
+                return createPullRequest(owner, name, JSONObject.fromObject(body));
+            }
+            countPoll(method + " /repos/:owner/:repo/pulls");
+            JSONArray answer = new JSONArray();
+            for (JSONObject pullRequest : getPullRequests(fullName)) {
+                if ("open".equals(pullRequest.getString("state"))) {
+                    answer.add(pullRequest);
+                }
+            }
+            return answer;
+        }
+        Matcher pullMatcher = PULL_REQUEST.matcher(rest);
+        if (pullMatcher.matches()) {
+            JSONObject pullRequest = findPullRequest(fullName, Integer.parseInt(pullMatcher.group(1)));
+            if (pullRequest == null) {
+                return null;
+            }
+            if (pullMatcher.group(2) != null) {
+                count(method + " /repos/:owner/:repo/pulls/:number/merge");
+                pullRequest.put("state", "closed");
+                pullRequest.put("merged", true);
+                JSONObject answer = new JSONObject();
+                answer.put("merged", true);
+                answer.put("sha", pullRequest.getJSONObject("head").getString("sha"));
+                return answer;
+            }
+            countPoll(method + " /repos/:owner/:repo/pulls/:number");
+            return pullRequest;
+        }
+        Matcher issueMatcher = ISSUE.matcher(rest);
+        if (issueMatcher.matches()) {
+            count(method + " /repos/:owner/:repo/issues/:number" + (issueMatcher.group(2) != null ? issueMatcher.group(2) : ""));
+            if ("GET".equals(method) && issueMatcher.group(2) != null) {
+                return new JSONArray();
+            }
+            JSONObject answer = new JSONObject();
+            answer.put("id", 1);
+            answer.put("body", "");
+            answer.put("user", user("updatebot"));
+            return answer;
+        }
+        if (STATUS.matcher(rest).matches()) {
+            countPoll(method + " /repos/:owner/:repo/" + (rest.startsWith("/commits") ? "commits/:ref/status" : "statuses/:sha"));
+            return status(fullName + rest);
+        }
+        return null;
+    }
+
+    protected JSONObject createPullRequest(String owner, String name, JSONObject request) {
+        int number = pullRequestNumbers.incrementAndGet();
+        JSONObject head = new JSONObject();
+        head.put("ref", request.optString("head"));
+        head.put("sha", Integer.toHexString(number) + "0000000000000000000000000000000000000");
+        head.put("repo", repository(owner, name));
+        JSONObject base = new JSONObject();
+        base.put("ref", request.optString("base", "master"));
+        base.put("repo", repository(owner, name));
+        JSONObject answer = new JSONObject();
+        String url = getApiUrl() + "/repos/" + owner + "/" + name + "/pulls/" + number;
+        answer.put("id", number);
+        answer.put("number", number);
+        answer.put("url", url);
+        answer.put("html_url", url);
+        answer.put("issue_url", getApiUrl() + "/repos/" + owner + "/" + name + "/issues/" + number);
+        answer.put("title", request.optString("title"));
+        answer.put("body", request.optString("body"));
+        answer.put("state", "open");
+        answer.put("merged", false);
+        answer.put("mergeable", true);
+        answer.put("mergeable_state", "clean");
+        answer.put("head", head);
+        answer.put("base", base);
+        answer.put("user", user("updatebot"));
+        answer.put("created_at", "2017-01-01T00:00:00Z");
+        answer.put("updated_at", "2017-01-01T00:00:00Z");
+        getPullRequests(owner + "/" + name).add(answer);
+        return answer;
+    }
+
+    protected JSONObject status(String key) {
+        AtomicInteger lookups = statusLookups.get(key);
+        if (lookups == null) {
+            statusLookups.putIfAbsent(key, new AtomicInteger());
+            lookups = statusLookups.get(key);
+        }
+        JSONObject answer = new JSONObject();
+        answer.put("state", lookups.incrementAndGet() > pendingStatusLookups ? "success" : "pending");
+        answer.put("statuses", new JSONArray());
+        answer.put("total_count", 0);
+        return answer;
+    }
+
+    protected JSONObject repository(String owner, String name) {
+        String cloneUrl = remotes.getCloneUrl(owner, name);
+        JSONObject answer = new JSONObject();
+        answer.put("id", Math.abs((owner + "/" + name).hashCode()));
+        answer.put("name", name);
+        answer.put("full_name", owner + "/" + name);
+        answer.put("owner", user(owner));
+        answer.put("private", false);
+        answer.put("default_branch", "master");
+        answer.put("url", getApiUrl() + "/repos/" + owner + "/" + name);
+        answer.put("html_url", cloneUrl);
+        answer.put("clone_url", cloneUrl);
+        answer.put("git_url", cloneUrl);
+        answer.put("ssh_url", cloneUrl);
+        answer.put("svn_url", cloneUrl);
+        return answer;
+    }
+
+    protected JSONObject user(String login) {
+        JSONObject answer = new JSONObject();
+        answer.put("login", login);
+        answer.put("id", Math.abs(login.hashCode()));
+        answer.put("type", "Organization");
+        answer.put("url", getApiUrl() + "/users/" + login);
+        return answer;
+    }
+
+    protected JSONObject rateLimit() {
+        JSONObject core = new JSONObject();
+        core.put("limit", 5000);
+        core.put("remaining", 5000);
+        core.put("reset", System.currentTimeMillis() / 1000L + 3600);
+        JSONObject resources = new JSONObject();
+        resources.put("core", core);
+        JSONObject answer = new JSONObject();
+        answer.put("resources", resources);
+        answer.put("rate", core);
+        return answer;
+    }
+
+    private List<JSONObject> getPullRequests(String fullName) {
+        List<JSONObject> answer = pullRequests.get(fullName);
+        if (answer == null) {
+            pullRequests.putIfAbsent(fullName, new CopyOnWriteArrayList<JSONObject>());
+            answer = pullRequests.get(fullName);
+        }
+        return answer;
+    }
+
+    private JSONObject findPullRequest(String fullName, int number) {
+        for (JSONObject pullRequest : getPullRequests(fullName)) {
+            if (pullRequest.getInt("number") == number) {
+                return pullRequest;
+            }
+        }
+        return null;
+    }
+
+    private void countPoll(String key) {
+        pollRequestCount.incrementAndGet();
+        count(key);
+    }
+
+    private void count(String key) {
+        AtomicLong counter = requestCounts.get(key);
+        if (counter == null) {
+            requestCounts.putIfAbsent(key, new AtomicLong());
+            counter = requestCounts.get(key);
+        }
+        counter.incrementAndGet();
+    }
+
+    private static void reply(HttpExchange exchange, int status, Object json) throws IOException {
+        byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.getResponseHeaders().set("X-RateLimit-Limit", "5000");
+        exchange.getResponseHeaders().set("X-RateLimit-Remaining", "5000");
+        exchange.getResponseHeaders().set("X-RateLimit-Reset", Long.toString(System.currentTimeMillis() / 1000L + 3600));
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
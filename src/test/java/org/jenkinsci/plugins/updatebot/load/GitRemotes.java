@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.load;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bare git repositories on disk standing in for the downstream repositories on GitHub
+ * <p>
+ * Each repository is a maven project which depends on the source artifact the load test releases
+ * so that every push has a version to update. Repositories live in <code>root/owner/name.git</code>.
+ */
+public class GitRemotes {
+    private final File root;
+
+    public GitRemotes(File root) {
+        this.root = root;
+    }
+
+    /**
+     * Creates a bare repository whose master branch is a maven project depending on the given artifact
+     */
+    public File createMavenRepository(String owner, String name, String groupId, String artifactId, String version) throws IOException, InterruptedException {
+        Map<String, String> files = new HashMap<>();
+        files.put("pom.xml", createPom("io.example.downstream", name, "1.0.0-SNAPSHOT", groupId, artifactId, version));
+        return createRepository(owner, name, files);
+    }
+
+    /**
+     * Creates a bare repository whose master branch contains the given files indexed by path
+     */
+    public File createRepository(String owner, String name, Map<String, String> files) throws IOException, InterruptedException {
+        File bare = getRepository(owner, name);
+        File work = new File(root, "work/" + owner + "/" + name);
+        FileUtils.deleteDirectory(work);
+        FileUtils.forceMkdir(work);
+        for (Map.Entry<String, String> entry : files.entrySet()) {
+            FileUtils.writeStringToFile(new File(work, entry.getKey()), entry.getValue(), StandardCharsets.UTF_8);
+        }
+        git(work, "init", "-q");
+        git(work, "add", ".");
+        git(work, "-c", "user.name=load", "-c", "user.email=load@example.com", "commit", "-q", "-m", "initial");
+        FileUtils.forceMkdir(bare.getParentFile());
+        git(bare.getParentFile(), "clone", "-q", "--bare", work.getAbsolutePath(), bare.getName());
+        FileUtils.deleteDirectory(work);
+        return bare;
+    }
+
+    public boolean hasRepository(String owner, String name) {
+        return getRepository(owner, name).isDirectory();
+    }
+
+    public List<String> getRepositoryNames(String owner) {
+        List<String> answer = new ArrayList<>();
+        String[] names = new File(root, owner).list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(".git")) {
+                    answer.add(name.substring(0, name.length() - 4));
+                }
+            }
+        }
+        Collections.sort(answer);
+        return answer;
+    }
+
+    public String getCloneUrl(String owner, String name) {
+        return getRepository(owner, name).toURI().toString();
+    }
+
+    protected File getRepository(String owner, String name) {
+        return new File(root, owner + "/" + name + ".git");
+    }
+
+    public static String createPom(String groupId, String artifactId, String version, String dependencyGroupId, String dependencyArtifactId, String dependencyVersion) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        builder.append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n");
+        builder.append("  <modelVersion>4.0.0</modelVersion>\n");
+        builder.append("  <groupId>").append(groupId).append("</groupId>\n");
+        builder.append("  <artifactId>").append(artifactId).append("</artifactId>\n");
+        builder.append("  <version>").append(version).append("</version>\n");
+        if (dependencyArtifactId != null) {
+            builder.append("  <dependencies>\n");
+            builder.append("    <dependency>\n");
+            builder.append("      <groupId>").append(dependencyGroupId).append("</groupId>\n");
+            builder.append("      <artifactId>").append(dependencyArtifactId).append("</artifactId>\n");
+            builder.append("      <version>").append(dependencyVersion).append("</version>\n");
+            builder.append("    </dependency>\n");
+            builder.append("  </dependencies>\n");
+        }
+        builder.append("</project>\n");
+        return builder.toString();
+    }
+
+    /**
+     * Runs git in the given directory failing if it does not succeed
+     */
+    public static void git(File dir, String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        Collections.addAll(command, args);
+        Process process = new ProcessBuilder(command).directory(dir).redirectErrorStream(true).start();
+        String output = IOUtils.toString(process.getInputStream(), StandardCharsets.UTF_8);
+        int status = process.waitFor();
+        if (status != 0) {
+            throw new IOException("Failed to run " + command + " in " + dir + " status " + status + ": " + output);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.load;
+
+import jenkins.util.Timer;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.updatebot.PollExecutor;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the Jenkins timer, the poll pool and the heap while a load test runs and writes the latencies and
+ * samples as a JSON report.
+ * <p>
+ * Each metric can be gated by a maximum passed as a system property so that a CI job running the load test fails
+ * when a change makes it worse; see {@link #checkLimits()}.
+ */
+public class LoadReport {
+    public static final String LIMIT_PREFIX = "updatebot.load.max.";
+    private static final long SAMPLE_PERIOD_MS = 500;
+
+    private final List<Long> pushLatencies = Collections.synchronizedList(new ArrayList<Long>());
+    private final List<Long> importLatencies = Collections.synchronizedList(new ArrayList<Long>());
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private ScheduledExecutorService sampler;
+    private long startTime;
+    private long endTime;
+    private long samples;
+    private long timerBusySamples;
+    private int maxTimerActive;
+    private int maxPollActive;
+    private int maxPollQueue;
+    private long maxHeapUsed;
+    private long totalHeapUsed;
+    private JSONObject json;
+
+    public synchronized void start() {
+        startTime = System.currentTimeMillis();
+        sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                sample();
+            }
+        }, 0, SAMPLE_PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        endTime = System.currentTimeMillis();
+        if (sampler != null) {
+            sampler.shutdownNow();
+        }
+    }
+
+    public void addPushLatency(long latencyMS) {
+        pushLatencies.add(latencyMS);
+    }
+
+    public void addImportLatency(long latencyMS) {
+        importLatencies.add(latencyMS);
+    }
+
+    /**
+     * Records a build which did not succeed
+     */
+    public void addFailure(String description) {
+        failures.add(description);
+    }
+
+    protected synchronized void sample() {
+        samples++;
+        ScheduledExecutorService timer = Timer.get();
+        if (timer instanceof ThreadPoolExecutor) {
+            int active = ((ThreadPoolExecutor) timer).getActiveCount();
+            maxTimerActive = Math.max(maxTimerActive, active);
+            if (active > 0) {
+                timerBusySamples++;
+            }
+        }
+        PollExecutor polls = PollExecutor.get();
+        maxPollActive = Math.max(maxPollActive, polls.getActiveCount());
+        maxPollQueue = Math.max(maxPollQueue, polls.getQueueSize());
+        long heapUsed = memory.getHeapMemoryUsage().getUsed();
+        maxHeapUsed = Math.max(maxHeapUsed, heapUsed);
+        totalHeapUsed += heapUsed;
+    }
+
+    /**
+     * Creates the report from the samples and the requests made to the fake GitHub
+     */
+    public synchronized JSONObject createReport(FakeGitHub github, Map<String, Object> parameters) {
+        double minutes = Math.max(1L, endTime - startTime) / 60000.0;
+        JSONObject answer = new JSONObject();
+        answer.put("parameters", parameters);
+        answer.put("durationMS", endTime - startTime);
+        answer.put("pushLatencyMS", percentiles(pushLatencies));
+        answer.put("importLatencyMS", percentiles(importLatencies));
+        synchronized (failures) {
+            answer.put("failures", failures.size());
+            answer.put("failedBuilds", new ArrayList<>(failures));
+        }
+
+        JSONObject api = new JSONObject();
+        api.put("requests", github.getRequestCount());
+        api.put("pollRequests", github.getPollRequestCount());
+        api.put("requestsPerMinute", round(github.getRequestCount() / minutes));
+        api.put("pollRequestsPerMinute", round(github.getPollRequestCount() / minutes));
+        api.put("pullRequests", github.getPullRequestCount());
+        api.put("byEndpoint", github.getRequestCounts());
+        answer.put("githubApi", api);
+
+        JSONObject timer = new JSONObject();
+        timer.put("occupancyPercent", samples == 0 ? 0 : round(100.0 * timerBusySamples / samples));
+        timer.put("maxActiveThreads", maxTimerActive);
+        answer.put("timer", timer);
+
+        JSONObject polls = new JSONObject();
+        polls.put("maxActiveThreads", maxPollActive);
+        polls.put("maxQueueSize", maxPollQueue);
+        answer.put("pollPool", polls);
+
+        JSONObject heap = new JSONObject();
+        heap.put("maxUsedMB", maxHeapUsed / (1024 * 1024));
+        heap.put("averageUsedMB", samples == 0 ? 0 : totalHeapUsed / samples / (1024 * 1024));
+        answer.put("heap", heap);
+
+        json = answer;
+        return answer;
+    }
+
+    public void write(File file) throws IOException {
+        FileUtils.writeStringToFile(file, json.toString(2), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the metrics which exceed the limits given as system properties, such as
+     * <code>-Dupdatebot.load.max.pushLatencyMS.p95=60000</code>, <code>-Dupdatebot.load.max.failures=0</code>
+     * or <code>-Dupdatebot.load.max.heap.maxUsedMB=512</code>
+     */
+    public List<String> checkLimits() {
+        List<String> answer = new ArrayList<>();
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (!name.startsWith(LIMIT_PREFIX)) {
+                continue;
+            }
+            String path = name.substring(LIMIT_PREFIX.length());
+            double limit = Double.parseDouble(System.getProperty(name));
+            Object value = lookup(json, path);
+            if (!(value instanceof Number)) {
+                answer.add(path + " is not a metric of the report");
+            } else if (((Number) value).doubleValue() > limit) {
+                answer.add(path + " is " + value + " which is more than the limit of " + System.getProperty(name));
+            }
+        }
+        return answer;
+    }
+
+    private static Object lookup(JSONObject json, String path) {
+        Object answer = json;
+        for (String key : path.split("\\.")) {
+            if (!(answer instanceof JSONObject)) {
+                return null;
+            }
+            answer = ((JSONObject) answer).opt(key);
+        }
+        return answer;
+    }
+
+    protected static JSONObject percentiles(List<Long> values) {
+        List<Long> sorted;
+        synchronized (values) {
+            sorted = new ArrayList<>(values);
+        }
+        Collections.sort(sorted);
+        JSONObject answer = new JSONObject();
+        answer.put("count", sorted.size());
+        if (!sorted.isEmpty()) {
+            answer.put("p50", percentile(sorted, 50));
+            answer.put("p90", percentile(sorted, 90));
+            answer.put("p95", percentile(sorted, 95));
+            answer.put("p99", percentile(sorted, 99));
+            answer.put("max", sorted.get(sorted.size() - 1));
+        }
+        return answer;
+    }
+
+    private static long percentile(List<Long> sorted, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
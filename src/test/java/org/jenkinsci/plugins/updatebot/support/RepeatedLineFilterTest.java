@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.support;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Only lets through the lines which were not written during the previous poll
+ */
+public class RepeatedLineFilterTest {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final RepeatedLineFilter filter = new RepeatedLineFilter(out);
+    private final PrintStream logger = filter.createPrintStream();
+
+    @Test
+    public void writesEveryLineOfTheFirstPoll() throws Exception {
+        filter.nextPoll();
+        logger.println("acme/widgets: pending");
+        logger.println("acme/widgets: pending");
+        assertEquals("acme/widgets: pending\nacme/widgets: pending\n", taken());
+        assertEquals(0, filter.takeDroppedLines());
+    }
+
+    @Test
+    public void dropsLinesRepeatedFromThePreviousPoll() throws Exception {
+        filter.nextPoll();
+        logger.println("acme/widgets: pending");
+        logger.println("acme/gadgets: pending");
+        taken();
+
+        filter.nextPoll();
+        logger.println("acme/widgets: pending");
+        logger.println("acme/gadgets: merged");
+        assertEquals("acme/gadgets: merged\n", taken());
+        assertEquals(1, filter.takeDroppedLines());
+        assertEquals(0, filter.takeDroppedLines());
+    }
+
+    @Test
+    public void keepsDroppingALineWhichIsRepeatedEveryPoll() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            filter.nextPoll();
+            logger.println("acme/widgets: pending");
+        }
+        assertEquals("acme/widgets: pending\n", taken());
+        assertEquals(2, filter.takeDroppedLines());
+    }
+
+    @Test
+    public void writesALineAgainOnceAPollHasNotWrittenIt() throws Exception {
+        filter.nextPoll();
+        logger.println("acme/widgets: pending");
+        filter.nextPoll();
+        logger.println("acme/widgets: rebasing");
+        filter.nextPoll();
+        logger.println("acme/widgets: pending");
+        assertEquals("acme/widgets: pending\nacme/widgets: rebasing\nacme/widgets: pending\n", taken());
+        assertEquals(0, filter.takeDroppedLines());
+    }
+
+    @Test
+    public void neverDropsBlankLines() throws Exception {
+        filter.nextPoll();
+        logger.println();
+        filter.nextPoll();
+        logger.println();
+        assertEquals("\n\n", taken());
+    }
+
+    @Test
+    public void endsAPartialLineWhenThePollEnds() throws Exception {
+        filter.nextPoll();
+        logger.print("acme/widgets: pending");
+        filter.nextPoll();
+        logger.print("acme/widgets: pending");
+        filter.nextPoll();
+        assertEquals("acme/widgets: pending", taken());
+        assertEquals(1, filter.takeDroppedLines());
+    }
+
+    private String taken() {
+        logger.flush();
+        String answer = new String(out.toByteArray(), StandardCharsets.UTF_8).replace(System.lineSeparator(), "\n");
+        out.reset();
+        return answer;
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.updatebot.support;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Bounds the tool runs of a node whether or not the shared caches are used
+ */
+public class ToolCacheLocksTest {
+
+    @Test
+    public void waitsForAToolSlotOnceTheLimitIsReached() throws Exception {
+        final ToolCacheLocks.Guard guard = new ToolCacheLocks.Guard(false, false, 2);
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch finish = new CountDownLatch(1);
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Callable<Void> toolRun = new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    return guard.call(null, new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            int now = running.incrementAndGet();
+                            synchronized (maxRunning) {
+                                maxRunning.set(Math.max(maxRunning.get(), now));
+                            }
+                            started.countDown();
+                            finish.await();
+                            running.decrementAndGet();
+                            return null;
+                        }
+                    });
+                }
+            };
+            Future<Void> first = executor.submit(toolRun);
+            Future<Void> second = executor.submit(toolRun);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            Future<Void> third = executor.submit(toolRun);
+            Thread.sleep(200);
+            assertFalse(third.isDone());
+            assertEquals(2, ToolCacheLocks.get().getToolRuns());
+
+            finish.countDown();
+            first.get(10, TimeUnit.SECONDS);
+            second.get(10, TimeUnit.SECONDS);
+            third.get(10, TimeUnit.SECONDS);
+            assertEquals(2, maxRunning.get());
+            assertEquals(0, ToolCacheLocks.get().getToolRuns());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void releasesTheToolSlotWhenTheToolsFail() throws Exception {
+        ToolCacheLocks.Guard guard = new ToolCacheLocks.Guard(true, true, 1);
+        try {
+            guard.call(null, new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    throw new IllegalStateException("mvn failed");
+                }
+            });
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(0, ToolCacheLocks.get().getToolRuns());
+        assertEquals("done", guard.call(null, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return "done";
+            }
+        }));
+    }
+}